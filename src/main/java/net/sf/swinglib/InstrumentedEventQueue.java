@@ -0,0 +1,467 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.InputEvent;
+import java.awt.event.InvocationEvent;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+
+/**
+ *  An <code>EventQueue</code> that measures how long events wait in the queue
+ *  and how long they take to dispatch, to find out what's making the UI
+ *  unresponsive. Install with {@link #install}, typically at application
+ *  startup; the overhead is a few timestamps and a hash lookup per event.
+ *  <p>
+ *  Measurements are recorded in a pair of {@link LatencyHistogram}s for each
+ *  kind of event. Events are identified by class, except for events posted
+ *  by <code>SwingUtilities.invokeLater()</code> (and similar), which are
+ *  identified by the class of the posted <code>Runnable</code> -- for the
+ *  anonymous classes typically used, this names the code that posted them.
+ *  <p>
+ *  Every dispatched event has its dispatch time measured, but not every
+ *  event has a wait time. Events posted by application code (including
+ *  <code>invokeLater()</code>) are timestamped as they're posted. The
+ *  toolkit, however, posts native events -- input, paint, window, and focus
+ *  events -- to the original queue, which forwards them without calling this
+ *  queue's <code>postEvent()</code>. For input events, the wait is instead
+ *  taken from the event's own timestamp (<code>InputEvent.getWhen()</code>),
+ *  so has millisecond resolution and depends on the platform's clock; other
+ *  native events, such as <code>PaintEvent</code>, have no wait time.
+ *  <p>
+ *  Any dispatch that takes longer than the threshold is logged (at <code>
+ *  WARNING</code>, to the logger for this class). To show what the event
+ *  thread was doing, a watchdog thread samples the event thread's stack once
+ *  a dispatch passes the threshold, and the sample is included in the log
+ *  message. A dispatch that itself dispatches events (as when showing a
+ *  modal dialog) is not reported as slow, since the nested dispatches are
+ *  measured individually.
+ */
+public class InstrumentedEventQueue
+extends EventQueue
+{
+    /**
+     *  The default threshold for reporting a slow dispatch, in milliseconds.
+     */
+    public final static long DEFAULT_THRESHOLD_MILLIS = 200;
+
+    private final static Logger LOGGER = Logger.getLogger(InstrumentedEventQueue.class.getName());
+
+    private final static Field RUNNABLE_FIELD = runnableField();
+
+    private final static int MAX_NESTING = 64;
+
+
+    /**
+     *  The measurements for a single kind of event.
+     */
+    public static class EventStatistics
+    {
+        private LatencyHistogram _wait = new LatencyHistogram();
+        private LatencyHistogram _dispatch = new LatencyHistogram();
+
+        /**
+         *  Returns the time between posting events of this kind and starting
+         *  to dispatch them. Does not include events posted before the queue
+         *  was installed, nor native events other than input events (see the
+         *  class documentation).
+         */
+        public LatencyHistogram getWaitTimes()
+        {
+            return _wait;
+        }
+
+        /**
+         *  Returns the time taken to dispatch events of this kind.
+         */
+        public LatencyHistogram getDispatchTimes()
+        {
+            return _dispatch;
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Instance data and constructors
+//----------------------------------------------------------------------------
+
+    private long _thresholdNanos;
+    private ConcurrentMap<String,EventStatistics> _stats = new ConcurrentHashMap<String,EventStatistics>();
+    private Map<AWTEvent,Long> _postTimes = new WeakHashMap<AWTEvent,Long>();
+
+    // the stack of in-progress dispatches is only touched by the event
+    // thread; the watchdog reads the innermost via the volatile fields
+
+    private long[] _startTimes = new long[MAX_NESTING];
+    private boolean[] _nested = new boolean[MAX_NESTING];
+    private int _depth;
+
+    private volatile Thread _eventThread;
+    private volatile long _currentStart;
+    private volatile long _currentSeq;
+    private volatile long _sampledSeq;
+    private volatile StackTraceElement[] _sample;
+
+    private Thread _watchdog;
+
+
+    /**
+     *  Creates an instance and makes it the system event queue.
+     *
+     *  @param  thresholdMillis Dispatches that take longer than this are
+     *                          logged.
+     */
+    public static InstrumentedEventQueue install(long thresholdMillis)
+    {
+        InstrumentedEventQueue queue = new InstrumentedEventQueue(thresholdMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(queue);
+        queue.startWatchdog();
+        return queue;
+    }
+
+
+    /**
+     *  Creates an instance with the default threshold and makes it the
+     *  system event queue.
+     */
+    public static InstrumentedEventQueue install()
+    {
+        return install(DEFAULT_THRESHOLD_MILLIS);
+    }
+
+
+    private InstrumentedEventQueue(long thresholdMillis)
+    {
+        _thresholdNanos = thresholdMillis * 1000000L;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Restores the event queue that was replaced by {@link #install}, and
+     *  stops the watchdog. Statistics remain available.
+     */
+    public void uninstall()
+    {
+        _watchdog.interrupt();
+        pop();
+    }
+
+
+    /**
+     *  Returns the statistics for each kind of event that has been dispatched,
+     *  keyed and sorted by name. The returned map is a copy, but the
+     *  statistics objects are live.
+     */
+    public Map<String,EventStatistics> getStatistics()
+    {
+        return new TreeMap<String,EventStatistics>(_stats);
+    }
+
+
+    /**
+     *  Discards all statistics.
+     */
+    public void resetStatistics()
+    {
+        _stats.clear();
+    }
+
+
+    /**
+     *  Returns a multi-line report of the statistics, one line per kind of
+     *  event, suitable for logging.
+     */
+    public String getReport()
+    {
+        StringBuilder sb = new StringBuilder(1024);
+        for (Map.Entry<String,EventStatistics> entry : getStatistics().entrySet())
+        {
+            sb.append(entry.getKey()).append(":\n")
+              .append("    wait:     ").append(entry.getValue().getWaitTimes()).append("\n")
+              .append("    dispatch: ").append(entry.getValue().getDispatchTimes()).append("\n");
+        }
+        return sb.toString();
+    }
+
+
+//----------------------------------------------------------------------------
+//  EventQueue overrides
+//----------------------------------------------------------------------------
+
+    @Override
+    public void postEvent(AWTEvent event)
+    {
+        synchronized (_postTimes)
+        {
+            _postTimes.put(event, Long.valueOf(System.nanoTime()));
+        }
+        super.postEvent(event);
+    }
+
+
+    @Override
+    protected void dispatchEvent(AWTEvent event)
+    {
+        long start = System.nanoTime();
+        Long postTime;
+        synchronized (_postTimes)
+        {
+            postTime = _postTimes.remove(event);
+        }
+
+        int depth = _depth++;
+        boolean tracked = depth < MAX_NESTING;
+        if (tracked)
+        {
+            if (depth > 0)
+                _nested[depth - 1] = true;
+            _startTimes[depth] = start;
+            _nested[depth] = false;
+            _eventThread = Thread.currentThread();
+            _currentStart = start;
+            _currentSeq++;
+        }
+
+        try
+        {
+            super.dispatchEvent(event);
+        }
+        finally
+        {
+            long end = System.nanoTime();
+            _depth--;
+            boolean nested = tracked && _nested[depth];
+            StackTraceElement[] sample = null;
+            if (tracked)
+            {
+                if (_sampledSeq == _currentSeq)
+                    sample = _sample;
+                // resume watching the enclosing dispatch, without sampling it
+                // again for the time spent in this one
+                _currentSeq++;
+                _sampledSeq = _currentSeq;
+                _currentStart = (depth > 0) ? _startTimes[depth - 1] : 0;
+            }
+            record(event, waitTime(event, postTime, start), start, end, nested, sample);
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the time that an event waited before its dispatch started, in
+     *  nanoseconds, or -1 if unknown. Events that we didn't see posted only
+     *  have a timestamp if they're input events; it's in milliseconds, from
+     *  the wall clock.
+     */
+    private static long waitTime(AWTEvent event, Long postTime, long start)
+    {
+        if (postTime != null)
+            return start - postTime.longValue();
+        if (!(event instanceof InputEvent))
+            return -1;
+
+        long when = ((InputEvent)event).getWhen();
+        long waitMillis = System.currentTimeMillis() - (System.nanoTime() - start) / 1000000 - when;
+        return ((when > 0) && (waitMillis >= 0))
+             ? waitMillis * 1000000L
+             : -1;
+    }
+
+
+    private void record(AWTEvent event, long wait, long start, long end,
+                        boolean nested, StackTraceElement[] sample)
+    {
+        String key = eventName(event);
+        EventStatistics stats = _stats.get(key);
+        if (stats == null)
+        {
+            EventStatistics newStats = new EventStatistics();
+            stats = _stats.putIfAbsent(key, newStats);
+            if (stats == null)
+                stats = newStats;
+        }
+
+        long elapsed = end - start;
+        stats.getDispatchTimes().record(elapsed);
+        if (wait >= 0)
+            stats.getWaitTimes().record(wait);
+
+        if ((elapsed > _thresholdNanos) && !nested)
+            logSlowDispatch(key, event, wait, elapsed, sample);
+    }
+
+
+    private void logSlowDispatch(String key, AWTEvent event, long wait,
+                                 long elapsed, StackTraceElement[] sample)
+    {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("slow event dispatch: ").append(key)
+          .append(" took ").append(elapsed / 1000000).append(" ms");
+        if (wait >= 0)
+            sb.append(" (waited ").append(wait / 1000000).append(" ms)");
+        sb.append("\n    event: ").append(event);
+        if (sample != null)
+        {
+            sb.append("\n    event thread, sampled after ")
+              .append(_thresholdNanos / 1000000).append(" ms:");
+            for (StackTraceElement frame : sample)
+            {
+                sb.append("\n        at ").append(frame);
+            }
+        }
+        LOGGER.warning(sb.toString());
+    }
+
+
+    /**
+     *  Returns the name used to group an event's statistics.
+     */
+    private static String eventName(AWTEvent event)
+    {
+        String name = event.getClass().getName();
+        if (!(event instanceof InvocationEvent))
+            return name;
+
+        String runnableName = null;
+        if (RUNNABLE_FIELD != null)
+        {
+            try
+            {
+                Object runnable = RUNNABLE_FIELD.get(event);
+                if (runnable != null)
+                    runnableName = runnable.getClass().getName();
+            }
+            catch (Exception ignored)
+            {
+                // fall through to the parameter string
+            }
+        }
+        else
+        {
+            // the parameter string is "...,runnable=" + runnable.toString()
+            // + ",...", which is normally "ClassName@hashcode"
+            String params = ((InvocationEvent)event).paramString();
+            int start = params.indexOf("runnable=");
+            if (start >= 0)
+            {
+                start += 9;
+                int end = params.indexOf(',', start);
+                if (end < 0)
+                    end = params.length();
+                int at = params.lastIndexOf('@', end);
+                if (at > start)
+                    end = at;
+                runnableName = params.substring(start, end);
+            }
+        }
+
+        return (runnableName != null)
+             ? name + "[" + runnableName + "]"
+             : name;
+    }
+
+
+    /**
+     *  <code>InvocationEvent</code> does not expose its runnable, so we read
+     *  the private field. If that isn't possible (for example, because a
+     *  security manager or the module system forbids it), we fall back to
+     *  parsing the event's parameter string.
+     */
+    private static Field runnableField()
+    {
+        try
+        {
+            Field field = InvocationEvent.class.getDeclaredField("runnable");
+            field.setAccessible(true);
+            return field;
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     *  Starts a daemon thread that samples the event thread's stack when a
+     *  dispatch passes the threshold. It wakes at a quarter of the threshold,
+     *  so the sample is taken no more than 25% late.
+     */
+    private void startWatchdog()
+    {
+        final long interval = Math.max(1, _thresholdNanos / 4000000);
+        _watchdog = new Thread("InstrumentedEventQueue watchdog")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    while (true)
+                    {
+                        Thread.sleep(interval);
+                        sample();
+                    }
+                }
+                catch (InterruptedException ex)
+                {
+                    // uninstalled
+                }
+            }
+        };
+        _watchdog.setDaemon(true);
+        _watchdog.start();
+    }
+
+
+    /**
+     *  Called by the watchdog: samples the event thread's stack if the current
+     *  dispatch has passed the threshold and hasn't already been sampled. The
+     *  sequence number is re-checked after sampling, so that a sample taken
+     *  just as the dispatch completed is discarded.
+     */
+    private void sample()
+    {
+        long seq = _currentSeq;
+        long start = _currentStart;
+        Thread thread = _eventThread;
+        if ((start == 0) || (thread == null) || (_sampledSeq == seq)
+                || (System.nanoTime() - start < _thresholdNanos))
+            return;
+
+        StackTraceElement[] stack = thread.getStackTrace();
+        if (_currentSeq != seq)
+            return;
+        _sample = stack;
+        _sampledSeq = seq;
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ *  A thread-safe histogram of durations, with power-of-two buckets: bucket 0
+ *  counts durations under one microsecond, and bucket <i>n</i> counts those
+ *  from 2<sup><i>n</i>-1</sup> up to 2<sup><i>n</i></sup> microseconds. This
+ *  gives constant-size storage and constant-time recording, with percentiles
+ *  that are accurate to within a factor of two -- enough to tell a 5 ms
+ *  event from a 500 ms one.
+ */
+public class LatencyHistogram
+{
+    private final static int BUCKETS = 40;
+
+    private AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+    private AtomicLong _count = new AtomicLong();
+    private AtomicLong _total = new AtomicLong();
+    private AtomicLong _max = new AtomicLong();
+
+
+    /**
+     *  Records a single duration.
+     */
+    public void record(long nanos)
+    {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        _buckets.incrementAndGet(bucket);
+        _count.incrementAndGet();
+        _total.addAndGet(nanos);
+
+        long max = _max.get();
+        while ((nanos > max) && !_max.compareAndSet(max, nanos))
+        {
+            max = _max.get();
+        }
+    }
+
+
+    /**
+     *  Discards all recorded durations.
+     */
+    public void reset()
+    {
+        for (int ii = 0 ; ii < BUCKETS ; ii++)
+        {
+            _buckets.set(ii, 0);
+        }
+        _count.set(0);
+        _total.set(0);
+        _max.set(0);
+    }
+
+
+    public long getCount()
+    {
+        return _count.get();
+    }
+
+
+    public double getMeanMillis()
+    {
+        long count = _count.get();
+        return (count == 0) ? 0 : _total.get() / 1000000.0 / count;
+    }
+
+
+    public double getMaxMillis()
+    {
+        return _max.get() / 1000000.0;
+    }
+
+
+    /**
+     *  Returns an upper bound on the specified percentile (0 to 100) of the
+     *  recorded durations, in milliseconds: the upper limit of the bucket that
+     *  holds it (or the maximum, if smaller).
+     */
+    public double getPercentileMillis(double percentile)
+    {
+        long count = _count.get();
+        if (count == 0)
+            return 0;
+
+        long target = (long)Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int ii = 0 ; ii < BUCKETS ; ii++)
+        {
+            seen += _buckets.get(ii);
+            if (seen >= target)
+                return Math.min((1L << ii) / 1000.0, getMaxMillis());
+        }
+        return getMaxMillis();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d, mean=%.2f ms, p50<=%.2f ms, p99<=%.2f ms, max=%.2f ms",
+                             Long.valueOf(getCount()),
+                             Double.valueOf(getMeanMillis()),
+                             Double.valueOf(getPercentileMillis(50)),
+                             Double.valueOf(getPercentileMillis(99)),
+                             Double.valueOf(getMaxMillis()));
+    }
+}
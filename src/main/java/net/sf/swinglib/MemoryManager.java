@@ -0,0 +1,276 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.swing.SwingUtilities;
+
+
+/**
+ *  Asks an application's caches to release memory when it's most useful:
+ *  when the application is iconified (so that it doesn't hold memory that
+ *  the user's other applications need), and when the heap is filling up.
+ *  Unlike <code>System.gc()</code>, this releases memory that is actually
+ *  retained by the application, and doesn't cause a full-collection pause.
+ *  <p>
+ *  Caches implement {@link Trimmable} and {@link #register} themselves. The
+ *  manager only holds weak references to them, so registration does not
+ *  prevent garbage collection (which also means that a cache registered via
+ *  an otherwise unreferenced adapter object will be quietly forgotten).
+ *  <p>
+ *  Heap usage is monitored once the application calls {@link #install} (as
+ *  {@link StartupSequence#start} does); since that changes JVM-wide state,
+ *  merely using the manager (or a class that registers with it) does not.
+ *  Monitoring sets a collection-usage threshold on each long-lived heap
+ *  memory pool (typically the tenured generation):
+ *  when the memory still in use after a collection exceeds the threshold
+ *  fraction of the pool's maximum, the JVM sends a notification, and the
+ *  manager trims all caches at {@link TrimLevel#CRITICAL}. Pools that already
+ *  have a threshold (set by other code) are left alone.
+ *  <p>
+ *  Caches are always trimmed on the event thread, so Swing-confined caches
+ *  need no synchronization.
+ */
+public class MemoryManager
+{
+    /**
+     *  How much memory caches should release.
+     */
+    public enum TrimLevel
+    {
+        /**
+         *  The application is in the background: release memory that can
+         *  be cheaply rebuilt.
+         */
+        BACKGROUND,
+
+        /**
+         *  The heap is nearly full: release everything that isn't needed.
+         */
+        CRITICAL
+    }
+
+
+    /**
+     *  Implemented by objects that can release memory on request.
+     */
+    public interface Trimmable
+    {
+        /**
+         *  Releases memory. Called on the event thread.
+         */
+        public void trimMemory(TrimLevel level);
+    }
+
+
+    /**
+     *  The default threshold: the fraction of a pool's maximum size that may
+     *  remain in use after a collection, before caches are trimmed.
+     */
+    public final static double DEFAULT_THRESHOLD = 0.80;
+
+    private final static Logger LOGGER = Logger.getLogger(MemoryManager.class.getName());
+
+    private static MemoryManager _instance;
+
+
+//----------------------------------------------------------------------------
+//  Instance data and constructors
+//----------------------------------------------------------------------------
+
+    private Map<Trimmable,Boolean> _registered = new WeakHashMap<Trimmable,Boolean>();
+    private List<MemoryPoolMXBean> _monitoredPools = new ArrayList<MemoryPoolMXBean>();
+    private double _threshold = DEFAULT_THRESHOLD;
+    private boolean _installed;
+    private boolean _trimPending;
+
+    private NotificationListener _listener = new NotificationListener()
+    {
+        public void handleNotification(Notification notification, Object handback)
+        {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+                scheduleCriticalTrim(MemoryNotificationInfo.from(
+                        (CompositeData)notification.getUserData()).getPoolName());
+        }
+    };
+
+
+    /**
+     *  Returns the application-wide instance, creating it on first use. This
+     *  does not start heap monitoring; see {@link #install}.
+     */
+    public static synchronized MemoryManager getInstance()
+    {
+        if (_instance == null)
+            _instance = new MemoryManager();
+        return _instance;
+    }
+
+
+    /**
+     *  Starts monitoring the heap, by installing thresholds on the JVM's
+     *  long-lived memory pools, so that caches are trimmed when it's nearly
+     *  full. This should be called once, by the application; subsequent calls
+     *  have no effect. May be called from any thread.
+     */
+    public static void install()
+    {
+        getInstance().installThresholds();
+    }
+
+
+    private MemoryManager()
+    {
+        // nothing here; see install()
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Registers a cache. Registering the same object more than once has no
+     *  effect. May be called from any thread.
+     */
+    public synchronized void register(Trimmable cache)
+    {
+        _registered.put(cache, Boolean.TRUE);
+    }
+
+
+    /**
+     *  Unregisters a cache. May be called from any thread.
+     */
+    public synchronized void unregister(Trimmable cache)
+    {
+        _registered.remove(cache);
+    }
+
+
+    /**
+     *  Sets the fraction of each monitored pool's maximum size that may remain
+     *  in use after a collection before caches are trimmed. If called before
+     *  {@link #install}, takes effect when the thresholds are installed.
+     *
+     *  @throws IllegalArgumentException if the fraction is not between 0 and 1.
+     */
+    public synchronized void setThreshold(double fraction)
+    {
+        if ((fraction <= 0) || (fraction > 1))
+            throw new IllegalArgumentException("invalid threshold: " + fraction);
+
+        _threshold = fraction;
+        for (MemoryPoolMXBean pool : _monitoredPools)
+        {
+            pool.setCollectionUsageThreshold((long)(pool.getUsage().getMax() * fraction));
+        }
+    }
+
+
+    /**
+     *  Asks every registered cache to release memory. Must be called on the
+     *  event thread. A cache that throws is logged and skipped.
+     */
+    public void trim(TrimLevel level)
+    {
+        List<Trimmable> caches;
+        synchronized (this)
+        {
+            caches = new ArrayList<Trimmable>(_registered.keySet());
+        }
+
+        for (Trimmable cache : caches)
+        {
+            try
+            {
+                cache.trimMemory(level);
+            }
+            catch (RuntimeException ex)
+            {
+                LOGGER.log(Level.WARNING, "unable to trim " + cache, ex);
+            }
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private synchronized void installThresholds()
+    {
+        if (_installed)
+            return;
+        _installed = true;
+
+        ((NotificationEmitter)ManagementFactory.getMemoryMXBean())
+                .addNotificationListener(_listener, null, null);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            // pools that support both kinds of threshold are the long-lived
+            // ones (the young generation supports only collection usage)
+            if ((pool.getType() == MemoryType.HEAP)
+                    && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported()
+                    && (pool.getCollectionUsageThreshold() == 0)
+                    && (pool.getUsage().getMax() > 0))
+                _monitoredPools.add(pool);
+        }
+        setThreshold(_threshold);
+    }
+
+
+    /**
+     *  Called on the JVM's notification thread; schedules a trim on the event
+     *  thread, unless one is already scheduled.
+     */
+    private void scheduleCriticalTrim(String poolName)
+    {
+        synchronized (this)
+        {
+            if (_trimPending)
+                return;
+            _trimPending = true;
+        }
+
+        LOGGER.info("heap usage threshold exceeded in \"" + poolName + "\"; trimming caches");
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                synchronized (MemoryManager.this)
+                {
+                    _trimPending = false;
+                }
+                trim(TrimLevel.CRITICAL);
+            }
+        });
+    }
+}
@@ -0,0 +1,421 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+
+/**
+ *  Runs an application's initialization tasks in parallel, respecting the
+ *  dependencies between them. Each task names the tasks that must complete
+ *  before it may start; a task starts as soon as those have completed, on
+ *  the executor or (for tasks that build or show UI) on the event thread.
+ *  The main frame can therefore be shown as soon as the tasks it needs have
+ *  completed, while others (such as warming caches) continue:
+ *  <pre>
+ *      StartupSequence startup = new StartupSequence(executor);
+ *      startup.addTask("config", loadConfig);
+ *      startup.addTask("database", openPool, "config");
+ *      startup.addTask("caches", warmCaches, "database");
+ *      startup.addEventTask("mainFrame", showMainFrame, "config");
+ *      startup.start();
+ *  </pre>
+ *  <p>
+ *  If a task throws, the tasks that depend on it (directly or indirectly) are
+ *  skipped; other tasks continue. The time that each task waited to start
+ *  and the time it took to run are logged (at <code>INFO</code>) to the
+ *  logger for this class, as are failures. Subclasses may override {@link
+ *  #onTaskFailed} and {@link #onComplete}, which run on the event thread.
+ */
+public class StartupSequence
+{
+    /**
+     *  A unit of initialization work.
+     */
+    public interface Step
+    {
+        public void perform()
+        throws Exception;
+    }
+
+
+    private final static Logger LOGGER = Logger.getLogger(StartupSequence.class.getName());
+
+    private enum State { WAITING, RUNNING, SUCCEEDED, FAILED, SKIPPED }
+
+
+//----------------------------------------------------------------------------
+//  Instance data and constructors
+//----------------------------------------------------------------------------
+
+    private ExecutorService _executor;
+    private Map<String,Task> _tasks = new LinkedHashMap<String,Task>();
+    private int _remaining;
+    private long _startTime;
+    private boolean _started;
+
+
+    /**
+     *  Creates an instance that runs background tasks on the passed executor.
+     */
+    public StartupSequence(ExecutorService executor)
+    {
+        _executor = executor;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Adds a task that runs on the executor.
+     *
+     *  @param  name        Identifies the task, for dependencies and logging.
+     *  @param  step        The work.
+     *  @param  dependsOn   Names of tasks that must complete first. They may
+     *                      be added after this task, but before {@link #start}.
+     *
+     *  @throws IllegalArgumentException if the name is already used.
+     *  @throws IllegalStateException if the sequence has been started.
+     */
+    public void addTask(String name, Step step, String... dependsOn)
+    {
+        add(name, step, false, dependsOn);
+    }
+
+
+    /**
+     *  Adds a task that runs on the event thread. Such tasks should be brief
+     *  (for example, constructing and showing a window whose data has been
+     *  loaded by background tasks), since they delay all other UI activity.
+     *
+     *  @see #addTask
+     */
+    public void addEventTask(String name, Step step, String... dependsOn)
+    {
+        add(name, step, true, dependsOn);
+    }
+
+
+    /**
+     *  Starts every task that has no dependencies, and returns. Also starts
+     *  the {@link MemoryManager}'s heap monitoring (see {@link
+     *  MemoryManager#install}). May be called from any thread.
+     *
+     *  @throws IllegalArgumentException if a task depends on a task that has
+     *          not been added.
+     *  @throws IllegalStateException if the dependencies contain a cycle, or
+     *          if the sequence has already been started.
+     */
+    public void start()
+    {
+        List<Task> ready = new ArrayList<Task>();
+        synchronized (this)
+        {
+            if (_started)
+                throw new IllegalStateException("already started");
+
+            for (Task task : _tasks.values())
+            {
+                for (String depName : task.dependsOn)
+                {
+                    Task dep = _tasks.get(depName);
+                    if (dep == null)
+                        throw new IllegalArgumentException(
+                                "task \"" + task.name + "\" depends on unknown task \"" + depName + "\"");
+                    dep.dependents.add(task);
+                }
+                task.pending = task.dependsOn.length;
+            }
+            checkForCycles();
+
+            _started = true;
+            MemoryManager.install();
+            _remaining = _tasks.size();
+            _startTime = System.nanoTime();
+            for (Task task : _tasks.values())
+            {
+                if (task.pending == 0)
+                    ready.add(task);
+            }
+        }
+
+        if (ready.isEmpty())
+            completed();
+        dispatch(ready);
+    }
+
+
+    /**
+     *  Returns <code>true</code> once every task has completed (or failed, or
+     *  been skipped).
+     */
+    public synchronized boolean isComplete()
+    {
+        return _started && (_remaining == 0);
+    }
+
+
+    /**
+     *  Returns the time that a task took to run, in milliseconds, or -1 if it
+     *  has not completed.
+     *
+     *  @throws IllegalArgumentException if there's no such task.
+     */
+    public synchronized long getElapsedMillis(String name)
+    {
+        Task task = _tasks.get(name);
+        if (task == null)
+            throw new IllegalArgumentException("unknown task: " + name);
+        return ((task.state == State.SUCCEEDED) || (task.state == State.FAILED))
+             ? (task.finishTime - task.runTime) / 1000000
+             : -1;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Subclasses may override
+//----------------------------------------------------------------------------
+
+    /**
+     *  Called on the event thread when a task throws. The default
+     *  implementation does nothing (the failure has already been logged).
+     */
+    protected void onTaskFailed(String name, Throwable cause)
+    {
+        // default implementation does nothing
+    }
+
+
+    /**
+     *  Called on the event thread once every task has completed (or failed,
+     *  or been skipped). The default implementation does nothing.
+     */
+    protected void onComplete()
+    {
+        // default implementation does nothing
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private synchronized void add(String name, Step step, boolean onEventThread, String... dependsOn)
+    {
+        if (_started)
+            throw new IllegalStateException("already started");
+        if (_tasks.containsKey(name))
+            throw new IllegalArgumentException("duplicate task: " + name);
+        _tasks.put(name, new Task(name, step, onEventThread, dependsOn));
+    }
+
+
+    /**
+     *  Verifies that every task can eventually run, by repeatedly removing
+     *  tasks with no outstanding dependencies (Kahn's algorithm).
+     */
+    private void checkForCycles()
+    {
+        Map<Task,Integer> pending = new LinkedHashMap<Task,Integer>();
+        LinkedList<Task> ready = new LinkedList<Task>();
+        for (Task task : _tasks.values())
+        {
+            pending.put(task, Integer.valueOf(task.pending));
+            if (task.pending == 0)
+                ready.add(task);
+        }
+
+        int resolved = 0;
+        while (!ready.isEmpty())
+        {
+            Task task = ready.removeFirst();
+            resolved++;
+            for (Task dependent : task.dependents)
+            {
+                int count = pending.get(dependent).intValue() - 1;
+                pending.put(dependent, Integer.valueOf(count));
+                if (count == 0)
+                    ready.add(dependent);
+            }
+        }
+
+        if (resolved < _tasks.size())
+        {
+            List<String> names = new ArrayList<String>();
+            for (Map.Entry<Task,Integer> entry : pending.entrySet())
+            {
+                if (entry.getValue().intValue() > 0)
+                    names.add(entry.getKey().name);
+            }
+            throw new IllegalStateException("dependency cycle among tasks: " + names);
+        }
+    }
+
+
+    private void dispatch(List<Task> tasks)
+    {
+        for (final Task task : tasks)
+        {
+            Runnable runner = new Runnable()
+            {
+                public void run()
+                {
+                    runTask(task);
+                }
+            };
+            if (task.onEventThread)
+                SwingUtilities.invokeLater(runner);
+            else
+                _executor.execute(runner);
+        }
+    }
+
+
+    private void runTask(Task task)
+    {
+        synchronized (this)
+        {
+            task.state = State.RUNNING;
+            task.runTime = System.nanoTime();
+        }
+
+        Throwable failure = null;
+        try
+        {
+            task.step.perform();
+        }
+        catch (Throwable ex)
+        {
+            failure = ex;
+        }
+
+        List<Task> ready = new ArrayList<Task>();
+        boolean done;
+        synchronized (this)
+        {
+            task.finishTime = System.nanoTime();
+            task.state = (failure == null) ? State.SUCCEEDED : State.FAILED;
+            _remaining--;
+
+            if (failure == null)
+            {
+                LOGGER.info("startup task \"" + task.name + "\" completed in "
+                            + ((task.finishTime - task.runTime) / 1000000) + " ms"
+                            + " (started at " + ((task.runTime - _startTime) / 1000000) + " ms"
+                            + (task.onEventThread ? ", on event thread)" : ")"));
+                for (Task dependent : task.dependents)
+                {
+                    if ((dependent.state == State.WAITING) && (--dependent.pending == 0))
+                        ready.add(dependent);
+                }
+            }
+            else
+            {
+                LOGGER.log(Level.SEVERE, "startup task \"" + task.name + "\" failed", failure);
+                skipDependents(task);
+            }
+
+            done = (_remaining == 0);
+            if (done)
+                LOGGER.info("startup completed in " + ((System.nanoTime() - _startTime) / 1000000) + " ms");
+        }
+
+        if (failure != null)
+            notifyFailure(task.name, failure);
+        dispatch(ready);
+        if (done)
+            completed();
+    }
+
+
+    /**
+     *  Marks all (transitive) dependents of a failed task as skipped. Must be
+     *  called while synchronized.
+     */
+    private void skipDependents(Task task)
+    {
+        for (Task dependent : task.dependents)
+        {
+            if (dependent.state != State.WAITING)
+                continue;
+            dependent.state = State.SKIPPED;
+            _remaining--;
+            LOGGER.warning("startup task \"" + dependent.name + "\" skipped: "
+                           + "depends on failed task \"" + task.name + "\"");
+            skipDependents(dependent);
+        }
+    }
+
+
+    private void notifyFailure(final String name, final Throwable cause)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                onTaskFailed(name, cause);
+            }
+        });
+    }
+
+
+    private void completed()
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                onComplete();
+            }
+        });
+    }
+
+
+    /**
+     *  Information about a single task. All mutable fields are guarded by
+     *  the sequence's lock.
+     */
+    private static class Task
+    {
+        public String name;
+        public Step step;
+        public boolean onEventThread;
+        public String[] dependsOn;
+        public List<Task> dependents = new ArrayList<Task>();
+        public int pending;
+        public State state = State.WAITING;
+        public long runTime;
+        public long finishTime;
+
+        public Task(String name, Step step, boolean onEventThread, String[] dependsOn)
+        {
+            this.name = name;
+            this.step = step;
+            this.onEventThread = onEventThread;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
@@ -33,6 +33,10 @@ import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.border.Border;
 
+import net.sf.swinglib.dialog.DialogPool;
+import net.sf.swinglib.layout.CompactGridConstraints;
+import net.sf.swinglib.layout.CompactGridLayout;
+
 /**
  *  Static methods and constants that help build UI objects with a
  *  consistent appearance.
@@ -52,6 +56,8 @@ public class UIHelper {
      */
     public final static Color HIGHLIGHT_COLOR = new Color(255, 240, 240);
 
+    private static DialogPool _dialogPool;
+
 //----------------------------------------------------------------------------
 //  Factories for standard spacing objects
 //----------------------------------------------------------------------------
@@ -89,48 +95,26 @@ public class UIHelper {
 //----------------------------------------------------------------------------
     /**
      *  Builds a standard modal input dialog, with content and buttons to
-     *  accept or cancel that content.
+     *  accept or cancel that content. The content fills the dialog above a
+     *  right-aligned row of buttons; it may use any layout manager.
      */
     public static JDialog newModalDialog(
             JFrame owner, String title,
             JPanel content, JButton... buttons) {
-        java.awt.GridBagConstraints gridBagConstraints;
-
-        int i = 0;
+        // one column for glue that takes all extra width, then one for each
+        // button; the content spans all of them and takes extra height
+        JPanel panel = new JPanel(new CompactGridLayout(
+                buttons.length + 1, STANDARD_SPACE * 3 / 2, STANDARD_SPACE * 3 / 2));
+        panel.setBorder(dialogBorder());
+        panel.add(content, new CompactGridConstraints(buttons.length + 1, 1.0, 1.0));
+        panel.add(Box.createHorizontalGlue(), new CompactGridConstraints(1, 1.0, 0.0));
         for (JButton b : buttons) {
-            i++;
             b.setPreferredSize(new java.awt.Dimension(100, 24));
-            gridBagConstraints = new java.awt.GridBagConstraints();
-            gridBagConstraints.gridx = (i + 2);
-            gridBagConstraints.anchor = java.awt.GridBagConstraints.LINE_END;
-            gridBagConstraints.weighty = 1.0;
-            gridBagConstraints.insets = new java.awt.Insets(3, 10, 3, 10);
-            content.add(b, gridBagConstraints);
+            panel.add(b);
         }
 
-
-//        
-//        
-//        JPanel buttonPanel = new JPanel();
-//        buttonPanel.setLayout(new BoxLayout(buttonPanel, BoxLayout.X_AXIS));
-//        buttonPanel.setAlignmentX(0.0f);
-//        buttonPanel.add(Box.createHorizontalGlue());
-//        for (int ii = 0 ; ii < buttons.length ; ii++)
-//        {
-//            if (ii > 0)
-//                buttonPanel.add(interButtonSpace());
-//            buttonPanel.add(buttons[ii]);
-//        }
-//
-//        JPanel panel = new JPanel();
-//        panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
-//        panel.setBorder(dialogBorder());
-//        panel.add(content);
-//        panel.add(Box.createVerticalStrut(18));
-//        panel.add(buttonPanel);
-//
         JDialog theDialog = new JDialog(owner, title, true);
-        theDialog.setContentPane(content);
+        theDialog.setContentPane(panel);
         theDialog.pack();
         return theDialog;
     }
@@ -149,6 +133,21 @@ public class UIHelper {
         return newModalDialog(owner, title, content, buttons);
     }
 
+    /**
+     *  Returns the application-wide dialog pool, creating it on first use.
+     *  Register dialog types (typically built with {@link #newModalDialog})
+     *  at startup, call {@link DialogPool#startPrewarming} once the main
+     *  window is showing, and use {@link
+     *  net.sf.swinglib.actions.DialogCloseAction} to recycle the dialogs.
+     *  Must be called on the event thread.
+     */
+    public static DialogPool getDialogPool() {
+        if (_dialogPool == null) {
+            _dialogPool = new DialogPool();
+        }
+        return _dialogPool;
+    }
+
 //----------------------------------------------------------------------------
 //  Factories to be sorted later...
 //----------------------------------------------------------------------------
@@ -19,6 +19,8 @@ import java.awt.event.ActionEvent;
 import javax.swing.AbstractAction;
 import javax.swing.JDialog;
 
+import net.sf.swinglib.dialog.DialogPool;
+
 
 /**
  *  When invoked, this action hides or disposes the associated dialog.
@@ -30,7 +32,9 @@ import javax.swing.JDialog;
  *  <p>
  *  When to dispose versus hide: dispose dialogs that are infrequently used;
  *  this will free system resources. However, when you dispose a dialog you
- *  need to <code>pack()</code> it before displaying it again.
+ *  need to <code>pack()</code> it before displaying it again. Dialogs that
+ *  come from a {@link DialogPool} should instead be recycled: the action
+ *  releases them to the pool, which hides and resets them.
  */
 public class DialogCloseAction
 extends AbstractAction
@@ -39,6 +43,7 @@ extends AbstractAction
 
     private JDialog _dialog;
     private boolean _dispose;
+    private DialogPool _pool;
 
 
     /**
@@ -61,6 +66,17 @@ extends AbstractAction
     }
 
 
+    /**
+     *  Constructs an action that will release the dialog to a pool. The
+     *  dialog is typically set after acquiring it from the pool.
+     */
+    public DialogCloseAction(DialogPool pool, JDialog dialog, String name)
+    {
+        this(dialog, name, false);
+        _pool = pool;
+    }
+
+
     /**
      *  Sets the dialog associated with this action. This allows you to create
      *  the dialog with {@link net.sf.swinglib.UIHelper#newModalDialog} and
@@ -74,7 +90,9 @@ extends AbstractAction
 
     public void actionPerformed(ActionEvent ignored)
     {
-        if (_dispose)
+        if (_pool != null)
+            _pool.release(_dialog);
+        else if (_dispose)
             _dialog.dispose();
         else
             _dialog.setVisible(false);
@@ -0,0 +1,284 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.components;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+
+/**
+ *  A panel that doesn't construct its content until it's first displayed
+ *  (for example, a tab that the user may never visit), so that the time to
+ *  display an application's main window depends on what's visible rather
+ *  than on the size of the entire UI.
+ *  <p>
+ *  Content is constructed by a {@link ContentBuilder}, which may divide the
+ *  work into steps. When the panel becomes showing, any remaining steps are
+ *  run immediately. Alternatively, {@link #preload} queues the panel to be
+ *  built in the background: whenever the event queue is empty, the preloader
+ *  runs builder steps for a short time slice, then yields to user input.
+ *  Queued panels are built in the order that they were queued. The queue
+ *  holds panels weakly, so a panel that's discarded before it's built is
+ *  simply dropped. If a step throws during preloading, the exception is
+ *  logged and the panel is removed from the queue; it remains unbuilt, and
+ *  its builder is run again (throwing to the caller) when it's shown.
+ *  <p>
+ *  Until built, the panel is empty, so has a small preferred size; if that's
+ *  a problem (for example, because a tabbed pane sizes itself to its largest
+ *  tab), set an explicit preferred size.
+ *  <p>
+ *  All methods must be called on the event thread.
+ */
+public class LazyPanel
+extends JPanel
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     *  Constructs the content of a {@link LazyPanel}. Subclasses that can
+     *  divide construction into short steps override {@link #buildStep};
+     *  others simply implement {@link #build}.
+     */
+    public static abstract class ContentBuilder
+    {
+        private Component _content;
+
+        /**
+         *  Builds the entire content. Called by the default implementation
+         *  of {@link #buildStep}.
+         */
+        protected abstract Component build();
+
+
+        /**
+         *  Performs one step of construction, returning <code>true</code> if
+         *  construction is complete (at which point {@link #getContent} must
+         *  return the content). Steps should take no more than a few
+         *  milliseconds. The default implementation calls {@link #build}.
+         */
+        protected boolean buildStep()
+        {
+            _content = build();
+            return true;
+        }
+
+
+        /**
+         *  Returns the constructed content.
+         */
+        protected Component getContent()
+        {
+            return _content;
+        }
+    }
+
+
+    /**
+     *  The length of time that the preloader runs builder steps before
+     *  yielding, in milliseconds.
+     */
+    public final static int PRELOAD_TIME_SLICE = 10;
+
+    /**
+     *  The interval at which the preloader checks for an idle event queue,
+     *  in milliseconds.
+     */
+    private final static int PRELOAD_INTERVAL = 20;
+
+    private final static Logger LOGGER = Logger.getLogger(LazyPanel.class.getName());
+
+    private static LinkedList<WeakReference<LazyPanel>> _preloadQueue = new LinkedList<WeakReference<LazyPanel>>();
+    private static Timer _preloadTimer;
+
+
+//----------------------------------------------------------------------------
+//  Instance data and constructors
+//----------------------------------------------------------------------------
+
+    private ContentBuilder _builder;
+
+
+    /**
+     *  Creates a panel whose content will be constructed by the passed
+     *  builder, and added in the center of a <code>BorderLayout</code>.
+     */
+    public LazyPanel(ContentBuilder builder)
+    {
+        super(new BorderLayout());
+        _builder = builder;
+        addHierarchyListener(new HierarchyListener()
+        {
+            public void hierarchyChanged(HierarchyEvent e)
+            {
+                if (((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) && isShowing())
+                {
+                    removeHierarchyListener(this);
+                    ensureBuilt();
+                }
+            }
+        });
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns <code>true</code> if the content has been constructed.
+     */
+    public boolean isBuilt()
+    {
+        return _builder == null;
+    }
+
+
+    /**
+     *  Constructs the content now, if it hasn't been already. Called
+     *  automatically when the panel becomes showing.
+     */
+    public void ensureBuilt()
+    {
+        if (isBuilt())
+            return;
+
+        dequeue(this);
+        while (!_builder.buildStep())
+        {
+            // keep going
+        }
+        install();
+    }
+
+
+    /**
+     *  Queues this panel to be built in the background, if it hasn't been
+     *  built already.
+     */
+    public void preload()
+    {
+        if (isBuilt() || isQueued(this))
+            return;
+
+        _preloadQueue.addLast(new WeakReference<LazyPanel>(this));
+        if (_preloadTimer == null)
+        {
+            _preloadTimer = new Timer(PRELOAD_INTERVAL, new ActionListener()
+            {
+                public void actionPerformed(ActionEvent e)
+                {
+                    preloadSlice();
+                }
+            });
+        }
+        _preloadTimer.start();
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private void install()
+    {
+        Component content = _builder.getContent();
+        _builder = null;
+        if (content != null)
+            add(content, BorderLayout.CENTER);
+        revalidate();
+        repaint();
+    }
+
+
+    private static boolean isQueued(LazyPanel panel)
+    {
+        for (WeakReference<LazyPanel> ref : _preloadQueue)
+        {
+            if (ref.get() == panel)
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     *  Removes a panel from the preload queue, along with any entries whose
+     *  panels have been collected.
+     */
+    private static void dequeue(LazyPanel panel)
+    {
+        for (Iterator<WeakReference<LazyPanel>> itx = _preloadQueue.iterator() ; itx.hasNext() ; )
+        {
+            LazyPanel queued = itx.next().get();
+            if ((queued == null) || (queued == panel))
+                itx.remove();
+        }
+    }
+
+
+    /**
+     *  Called by the preload timer: if the event queue is empty, runs builder
+     *  steps for queued panels until the time slice is used up.
+     */
+    private static void preloadSlice()
+    {
+        EventQueue queue = Toolkit.getDefaultToolkit().getSystemEventQueue();
+        if (queue.peekEvent() != null)
+            return;
+
+        long deadline = System.nanoTime() + PRELOAD_TIME_SLICE * 1000000L;
+        while (!_preloadQueue.isEmpty() && (System.nanoTime() < deadline))
+        {
+            LazyPanel panel = _preloadQueue.getFirst().get();
+            if (panel == null)
+            {
+                _preloadQueue.removeFirst();
+                continue;
+            }
+
+            try
+            {
+                if (panel._builder.buildStep())
+                {
+                    _preloadQueue.removeFirst();
+                    panel.install();
+                }
+            }
+            catch (RuntimeException ex)
+            {
+                _preloadQueue.removeFirst();
+                LOGGER.log(Level.WARNING, "unable to preload " + panel._builder.getClass().getName()
+                                          + "; it will be built when shown", ex);
+            }
+        }
+
+        if (_preloadQueue.isEmpty())
+            _preloadTimer.stop();
+    }
+}
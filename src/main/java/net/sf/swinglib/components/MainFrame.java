@@ -20,16 +20,21 @@ import java.awt.event.WindowListener;
 
 import javax.swing.JFrame;
 
+import net.sf.swinglib.InstrumentedEventQueue;
+import net.sf.swinglib.MemoryManager;
+
 
 /**
  *  A <code>JFrame</code> that adds some commonly-used features:
  *  <ul>
  *  <li> By default, clicking the close box will exit the application (an
  *       alternate constructor allows an explicit listener).
- *  <li> Iconifying the frame will initiate garbage collection. This will
- *       compact the active pages in the heap, which should reduce paging
- *       when the application is de-iconified.
+ *  <li> Iconifying the frame asks the application's caches to release memory
+ *       (see {@link MemoryManager}), so that the application doesn't hold
+ *       memory that the user's other applications may need.
  *  </ul>
+ *  To find out what's making the frame unresponsive, install an {@link
+ *  InstrumentedEventQueue} before creating it.
  */
 public class MainFrame
 extends JFrame
@@ -49,7 +54,7 @@ extends JFrame
             @Override
             public void windowIconified(WindowEvent e)
             {
-                System.gc();
+                MemoryManager.getInstance().trim(MemoryManager.TrimLevel.BACKGROUND);
             }
         });
     }
@@ -0,0 +1,635 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.components;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.Insets;
+import java.awt.KeyboardFocusManager;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+
+/**
+ *  A panel that displays a very large form -- a grid of components with a
+ *  fixed number of columns, laid out like {@link
+ *  net.sf.swinglib.layout.CompactGridLayout} -- without creating components
+ *  for every row. It must be placed in a scroll pane, and creates (or takes
+ *  from a pool of recycled components) only those components that are in
+ *  rows at or near the visible area. As the panel scrolls, rows that leave
+ *  the visible area are unbound and returned to the pool. Memory use and
+ *  layout time therefore depend on the size of the viewport, not the size
+ *  of the form.
+ *  <p>
+ *  The panel gets its components from a {@link CellBinder}, which creates
+ *  components for a column and binds them to (and unbinds them from) a row.
+ *  Components are only reused within the same column.
+ *  <p>
+ *  As with <code>CompactGridLayout</code>, the width of a column is the widest
+ *  preferred width of its components, and all rows have the height of the
+ *  tallest component (unless a fixed row height is given at construction).
+ *  Since the panel can't afford to measure every row, it measures a sample
+ *  of up to {@link #DEFAULT_SAMPLE_SIZE} evenly-spaced rows (all rows, for a
+ *  smaller form), by binding a pooled component for each column to each
+ *  sampled row; these components are not added to the panel, so measuring
+ *  doesn't change what's displayed. The sample is taken when the panel is
+ *  first sized, and again after {@link #rowsChanged}; it's an estimate, so a
+ *  row that wasn't sampled may hold a component that's wider than its column
+ *  (it is clipped), but the columns do not change as the panel scrolls. A
+ *  column may widen when {@link #rowChanged} rebinds a row with wider data.
+ *  Each component is displayed at its preferred size (limited by its cell),
+ *  left-aligned and vertically centered.
+ *  <p>
+ *  A row containing the focused component is never recycled, so that
+ *  scrolling doesn't lose the user's place (or in-progress edit).
+ */
+public class VirtualGridPanel
+extends JPanel
+implements Scrollable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     *  Creates and binds the components displayed by a {@link
+     *  VirtualGridPanel}. All methods are called on the event thread.
+     */
+    public interface CellBinder
+    {
+        /**
+         *  Returns the number of rows in the form.
+         */
+        public int getRowCount();
+
+
+        /**
+         *  Creates a new component for the specified column. May return
+         *  <code>null</code> if the column is always empty.
+         */
+        public Component createComponent(int col);
+
+
+        /**
+         *  Configures a component to display the specified row. This is also
+         *  called (followed by {@link #unbind}) to measure rows with a
+         *  component that is not displayed.
+         */
+        public void bind(Component comp, int row, int col);
+
+
+        /**
+         *  Called before a component is removed from a row (for example, to
+         *  save its contents).
+         */
+        public void unbind(Component comp, int row, int col);
+    }
+
+
+    /**
+     *  The default number of rows realized above and below the visible area.
+     */
+    public final static int DEFAULT_OVERSCAN = 5;
+
+    /**
+     *  The maximum number of rows measured to size the columns and rows.
+     */
+    public final static int DEFAULT_SAMPLE_SIZE = 200;
+
+
+//----------------------------------------------------------------------------
+//  Instance data and constructors
+//----------------------------------------------------------------------------
+
+    private CellBinder _binder;
+    private int _cols;
+    private int _hGap;
+    private int _vGap;
+    private boolean _fixedHeight;
+    private int _rowHeight;
+    private int _overscan = DEFAULT_OVERSCAN;
+
+    private int[] _colWidths;
+    private boolean _measured;
+    private Map<Integer,Component[]> _realized = new HashMap<Integer,Component[]>();
+    private List<List<Component>> _pool = new ArrayList<List<Component>>();
+
+    private JViewport _viewport;
+    private ChangeListener _viewportListener = new ChangeListener()
+    {
+        public void stateChanged(ChangeEvent e)
+        {
+            realize();
+        }
+    };
+
+
+    /**
+     *  Creates a panel with estimated row heights.
+     *
+     *  @param  binder  Supplies the components.
+     *  @param  cols    Number of columns.
+     *  @param  hGap    Horizontal gap between components, in pixels.
+     *  @param  vGap    Vertical gap between components, in pixels.
+     */
+    public VirtualGridPanel(CellBinder binder, int cols, int hGap, int vGap)
+    {
+        this(binder, cols, hGap, vGap, 0);
+    }
+
+
+    /**
+     *  Creates a panel with uniform row heights.
+     *
+     *  @param  binder      Supplies the components.
+     *  @param  cols        Number of columns.
+     *  @param  hGap        Horizontal gap between components, in pixels.
+     *  @param  vGap        Vertical gap between components, in pixels.
+     *  @param  rowHeight   The height of every row, in pixels; 0 to estimate
+     *                      it from a sample of rows.
+     */
+    public VirtualGridPanel(CellBinder binder, int cols, int hGap, int vGap, int rowHeight)
+    {
+        super(null);
+        if (cols <= 0)
+            throw new IllegalArgumentException("invalid column count: " + cols);
+
+        _binder = binder;
+        _cols = cols;
+        _hGap = hGap;
+        _vGap = vGap;
+        _fixedHeight = rowHeight > 0;
+        _rowHeight = rowHeight;
+        _colWidths = new int[cols];
+        for (int col = 0 ; col < cols ; col++)
+        {
+            _pool.add(new ArrayList<Component>());
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Sets the number of rows realized above and below the visible area.
+     */
+    public void setOverscan(int rows)
+    {
+        _overscan = rows;
+        realize();
+    }
+
+
+    /**
+     *  Returns the number of rows that currently have components.
+     */
+    public int getRealizedRowCount()
+    {
+        return _realized.size();
+    }
+
+
+    /**
+     *  Returns the component at the specified row and column, if that row
+     *  is realized; <code>null</code> otherwise.
+     */
+    public Component getCellComponent(int row, int col)
+    {
+        Component[] comps = _realized.get(Integer.valueOf(row));
+        return (comps != null) ? comps[col] : null;
+    }
+
+
+    /**
+     *  Rebinds the components of a single row, if it's realized. Call this
+     *  when the data for that row changes. If the row's components are now
+     *  wider (or taller) than their cells, the columns (or rows) grow.
+     */
+    public void rowChanged(int row)
+    {
+        Component[] comps = _realized.get(Integer.valueOf(row));
+        if (comps == null)
+            return;
+
+        for (int col = 0 ; col < _cols ; col++)
+        {
+            if (comps[col] != null)
+                _binder.bind(comps[col], row, col);
+        }
+        if (measure(comps))
+            relayout();
+        else
+            position(row, comps);
+    }
+
+
+    /**
+     *  Unbinds and recycles every realized row, measures a new sample of rows,
+     *  then realizes the visible rows again. Call this when rows are added or
+     *  removed, or the data changes wholesale.
+     */
+    public void rowsChanged()
+    {
+        for (Iterator<Map.Entry<Integer,Component[]>> itx = _realized.entrySet().iterator() ; itx.hasNext() ; )
+        {
+            Map.Entry<Integer,Component[]> entry = itx.next();
+            recycle(entry.getKey().intValue(), entry.getValue());
+            itx.remove();
+        }
+        _measured = false;
+        revalidate();
+        realize();
+    }
+
+
+//----------------------------------------------------------------------------
+//  Component overrides
+//----------------------------------------------------------------------------
+
+    @Override
+    public void addNotify()
+    {
+        super.addNotify();
+        Container parent = getParent();
+        if (parent instanceof JViewport)
+        {
+            _viewport = (JViewport)parent;
+            _viewport.addChangeListener(_viewportListener);
+        }
+    }
+
+
+    @Override
+    public void removeNotify()
+    {
+        if (_viewport != null)
+        {
+            _viewport.removeChangeListener(_viewportListener);
+            _viewport = null;
+        }
+        super.removeNotify();
+    }
+
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        if (isPreferredSizeSet())
+            return super.getPreferredSize();
+
+        measureSample();
+
+        Insets insets = getInsets();
+        int width = insets.left + insets.right + (_cols - 1) * _hGap;
+        for (int col = 0 ; col < _cols ; col++)
+        {
+            width += _colWidths[col];
+        }
+        int rows = _binder.getRowCount();
+        int height = insets.top + insets.bottom
+                   + rows * _rowHeight + Math.max(0, rows - 1) * _vGap;
+        return new Dimension(width, height);
+    }
+
+
+    /**
+     *  Positions the realized rows. Rows are realized as the viewport changes
+     *  (rather than here, since that adds and removes components); if the
+     *  panel is laid out without such a change, and the visible rows haven't
+     *  been realized, they're realized after layout completes.
+     */
+    @Override
+    public void doLayout()
+    {
+        measureSample();
+        for (Map.Entry<Integer,Component[]> entry : _realized.entrySet())
+        {
+            position(entry.getKey().intValue(), entry.getValue());
+        }
+
+        int[] range = visibleRange();
+        for (int row = range[0] ; row <= range[1] ; row++)
+        {
+            if (!_realized.containsKey(Integer.valueOf(row)))
+            {
+                SwingUtilities.invokeLater(new Runnable()
+                {
+                    public void run()
+                    {
+                        realize();
+                    }
+                });
+                break;
+            }
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Scrollable
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the preferred width, and the height of (at most) 20 rows.
+     */
+    public Dimension getPreferredScrollableViewportSize()
+    {
+        Dimension size = getPreferredSize();
+        size.height = Math.min(size.height, 20 * (_rowHeight + _vGap));
+        return size;
+    }
+
+
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction)
+    {
+        measureSample();
+        return (orientation == SwingConstants.VERTICAL)
+             ? Math.max(1, _rowHeight + _vGap)
+             : Math.max(1, visibleRect.width / 10);
+    }
+
+
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction)
+    {
+        return (orientation == SwingConstants.VERTICAL)
+             ? visibleRect.height
+             : visibleRect.width;
+    }
+
+
+    public boolean getScrollableTracksViewportWidth()
+    {
+        return false;
+    }
+
+
+    public boolean getScrollableTracksViewportHeight()
+    {
+        return false;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Realizes the rows in and around the visible area, and recycles all
+     *  others (except a row holding the focus).
+     */
+    private void realize()
+    {
+        measureSample();
+        int rowCount = _binder.getRowCount();
+        int[] range = visibleRange();
+        int first = range[0];
+        int last = range[1];
+
+        boolean changed = false;
+        for (Iterator<Map.Entry<Integer,Component[]>> itx = _realized.entrySet().iterator() ; itx.hasNext() ; )
+        {
+            Map.Entry<Integer,Component[]> entry = itx.next();
+            int row = entry.getKey().intValue();
+            if ((row >= first) && (row <= last) && (row < rowCount))
+                continue;
+            if ((row < rowCount) && hasFocus(entry.getValue()))
+                continue;
+            recycle(row, entry.getValue());
+            itx.remove();
+            changed = true;
+        }
+
+        for (int row = first ; row <= last ; row++)
+        {
+            if (!_realized.containsKey(Integer.valueOf(row)))
+            {
+                realizeRow(row);
+                changed = true;
+            }
+        }
+
+        // added components must be validated
+        if (changed)
+            revalidate();
+        repaint();
+    }
+
+
+    /**
+     *  Returns the first and last rows to be realized: those in the visible
+     *  area, plus overscan. If nothing is visible, the last is less than the
+     *  first.
+     */
+    private int[] visibleRange()
+    {
+        Rectangle visible = getVisibleRect();
+        int rowCount = _binder.getRowCount();
+        int pitch = Math.max(1, _rowHeight + _vGap);
+        int top = getInsets().top;
+
+        int first = 0;
+        int last = -1;
+        if ((rowCount > 0) && (visible.height > 0))
+        {
+            first = Math.max(0, (visible.y - top) / pitch - _overscan);
+            last = Math.min(rowCount - 1, (visible.y + visible.height - top) / pitch + _overscan);
+        }
+        return new int[] { first, last };
+    }
+
+
+    /**
+     *  Sizes the columns and (unless fixed) rows from a sample of rows, if
+     *  that hasn't been done since the rows last changed. Each column's
+     *  sample is measured with a component from its pool, which is not added
+     *  to the panel, and is returned to the pool afterward.
+     */
+    private void measureSample()
+    {
+        if (_measured)
+            return;
+        _measured = true;
+
+        Arrays.fill(_colWidths, 0);
+        if (!_fixedHeight)
+            _rowHeight = 0;
+
+        int rowCount = _binder.getRowCount();
+        int samples = Math.min(rowCount, DEFAULT_SAMPLE_SIZE);
+        for (int col = 0 ; col < _cols ; col++)
+        {
+            Component comp = takeComponent(col);
+            if (comp == null)
+                continue;
+            for (int ii = 0 ; ii < samples ; ii++)
+            {
+                int row = (samples < rowCount)
+                        ? (int)((long)ii * (rowCount - 1) / (samples - 1))
+                        : ii;
+                _binder.bind(comp, row, col);
+                Dimension size = comp.getPreferredSize();
+                _binder.unbind(comp, row, col);
+                _colWidths[col] = Math.max(_colWidths[col], size.width);
+                if (!_fixedHeight)
+                    _rowHeight = Math.max(_rowHeight, size.height);
+            }
+            _pool.get(col).add(comp);
+        }
+    }
+
+
+    /**
+     *  Takes a component for the specified column from the pool, creating it
+     *  if the pool is empty. Returns <code>null</code> if the column is
+     *  always empty.
+     */
+    private Component takeComponent(int col)
+    {
+        List<Component> pool = _pool.get(col);
+        return pool.isEmpty()
+             ? _binder.createComponent(col)
+             : pool.remove(pool.size() - 1);
+    }
+
+
+    /**
+     *  Creates or reuses components for a row, binds them, and positions
+     *  them.
+     */
+    private void realizeRow(int row)
+    {
+        Component[] comps = new Component[_cols];
+        for (int col = 0 ; col < _cols ; col++)
+        {
+            Component comp = takeComponent(col);
+            if (comp == null)
+                continue;
+            _binder.bind(comp, row, col);
+            add(comp);
+            comps[col] = comp;
+        }
+        _realized.put(Integer.valueOf(row), comps);
+        position(row, comps);
+    }
+
+
+    /**
+     *  Unbinds a row's components, removes them from the panel, and returns
+     *  them to the pool. Does not remove the row from the realized map.
+     */
+    private void recycle(int row, Component[] comps)
+    {
+        for (int col = 0 ; col < _cols ; col++)
+        {
+            Component comp = comps[col];
+            if (comp == null)
+                continue;
+            _binder.unbind(comp, row, col);
+            remove(comp);
+            _pool.get(col).add(comp);
+        }
+    }
+
+
+    /**
+     *  Updates the column widths (and estimated row height) to account for a
+     *  rebound row's components, returning <code>true</code> if any grew.
+     */
+    private boolean measure(Component[] comps)
+    {
+        boolean grew = false;
+        for (int col = 0 ; col < _cols ; col++)
+        {
+            if (comps[col] == null)
+                continue;
+            Dimension size = comps[col].getPreferredSize();
+            if (size.width > _colWidths[col])
+            {
+                _colWidths[col] = size.width;
+                grew = true;
+            }
+            if (!_fixedHeight && (size.height > _rowHeight))
+            {
+                _rowHeight = size.height;
+                grew = true;
+            }
+        }
+        return grew;
+    }
+
+
+    private void position(int row, Component[] comps)
+    {
+        Insets insets = getInsets();
+        int x = insets.left;
+        int y = insets.top + row * (_rowHeight + _vGap);
+        for (int col = 0 ; col < _cols ; col++)
+        {
+            Component comp = comps[col];
+            if (comp != null)
+            {
+                Dimension size = comp.getPreferredSize();
+                int width = Math.min(size.width, _colWidths[col]);
+                int height = Math.min(size.height, _rowHeight);
+                comp.setBounds(x, y + (_rowHeight - height) / 2, width, height);
+            }
+            x += _colWidths[col] + _hGap;
+        }
+    }
+
+
+    /**
+     *  Called when a column or the row height grows: repositions every
+     *  realized row, and asks the scroll pane to pick up the new size.
+     */
+    private void relayout()
+    {
+        for (Map.Entry<Integer,Component[]> entry : _realized.entrySet())
+        {
+            position(entry.getKey().intValue(), entry.getValue());
+        }
+        revalidate();
+        repaint();
+    }
+
+
+    private static boolean hasFocus(Component[] comps)
+    {
+        Component focused = KeyboardFocusManager.getCurrentKeyboardFocusManager().getFocusOwner();
+        if (focused == null)
+            return false;
+        for (Component comp : comps)
+        {
+            if ((comp == focused)
+                    || ((comp instanceof Container) && ((Container)comp).isAncestorOf(focused)))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,372 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.dialog;
+
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.swing.JDialog;
+import javax.swing.Timer;
+
+import net.sf.swinglib.MemoryManager;
+
+
+/**
+ *  Holds pre-built, packed, dialogs so that they can be displayed without
+ *  the cost of construction. Each type of dialog is registered with a
+ *  {@link DialogFactory}, which builds new instances and resets used ones.
+ *  <p>
+ *  {@link #acquire} returns an idle dialog of the requested type (building
+ *  one if there are none), and {@link #release} (typically called from a
+ *  {@link net.sf.swinglib.actions.DialogCloseAction}) hides the dialog,
+ *  resets it, and returns it to the pool. Calling {@link #startPrewarming}
+ *  builds dialogs in the background: whenever the event queue is empty, the
+ *  pool builds one dialog for a type that has fewer idle instances than
+ *  requested at registration, until all types are satisfied.
+ *  <p>
+ *  The number of idle dialogs is bounded; when a released dialog would exceed
+ *  that bound, the least-recently-released idle dialog is disposed. The pool
+ *  registers with the {@link MemoryManager}: when the application is
+ *  iconified, it disposes idle dialogs beyond each type's prewarm count (so
+ *  that the common dialogs are still fast when the user returns); when memory
+ *  is short, it disposes all idle dialogs and pauses prewarming. Idle dialogs
+ *  may also be disposed by calling {@link #evictIdle}.
+ *  <p>
+ *  The pool only weakly references dialogs that are in use, so a dialog
+ *  that is disposed rather than released is simply forgotten. All methods
+ *  must be called on the event thread.
+ */
+public class DialogPool
+implements MemoryManager.Trimmable
+{
+    /**
+     *  Builds and resets the dialogs of one type.
+     */
+    public interface DialogFactory
+    {
+        /**
+         *  Builds a new dialog. The pool will pack it if necessary.
+         */
+        public JDialog createDialog();
+
+
+        /**
+         *  Restores a released dialog to its initial state (for example,
+         *  clearing fields), so that it can be handed out again.
+         */
+        public void resetDialog(JDialog dialog);
+    }
+
+
+    /**
+     *  The default bound on idle dialogs.
+     */
+    public final static int DEFAULT_MAX_IDLE = 8;
+
+    /**
+     *  The interval at which the prewarming timer checks for an idle event
+     *  queue, in milliseconds.
+     */
+    private final static int PREWARM_INTERVAL = 50;
+
+
+//----------------------------------------------------------------------------
+//  Instance data and constructors
+//----------------------------------------------------------------------------
+
+    private int _maxIdle;
+    private Map<Object,Registration> _registrations = new HashMap<Object,Registration>();
+    private Map<JDialog,Registration> _owned = new WeakHashMap<JDialog,Registration>();
+    private LinkedList<JDialog> _idle = new LinkedList<JDialog>();   // oldest first
+    private Timer _prewarmTimer;
+
+
+    /**
+     *  Creates a pool that holds up to {@link #DEFAULT_MAX_IDLE} idle dialogs.
+     */
+    public DialogPool()
+    {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+
+    /**
+     *  Creates a pool that holds up to the specified number of idle dialogs
+     *  (of all types).
+     */
+    public DialogPool(int maxIdle)
+    {
+        _maxIdle = maxIdle;
+        MemoryManager.getInstance().register(this);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Registers a type of dialog.
+     *
+     *  @param  type        Identifies the type; any object with a suitable
+     *                      <code>equals()</code> (often the controller class).
+     *  @param  factory     Builds and resets dialogs of this type.
+     *  @param  prewarm     The number of idle instances to build in advance.
+     *
+     *  @throws IllegalStateException if the type is already registered.
+     */
+    public void register(Object type, DialogFactory factory, int prewarm)
+    {
+        if (_registrations.containsKey(type))
+            throw new IllegalStateException("already registered: " + type);
+        _registrations.put(type, new Registration(factory, prewarm));
+        if (_prewarmTimer != null)
+            _prewarmTimer.start();
+    }
+
+
+    /**
+     *  Returns a dialog of the specified type: an idle instance if one is
+     *  available, otherwise a newly built one. The dialog is packed but not
+     *  visible; the caller should position and show it.
+     *
+     *  @throws IllegalArgumentException if the type is not registered.
+     */
+    public JDialog acquire(Object type)
+    {
+        Registration reg = _registrations.get(type);
+        if (reg == null)
+            throw new IllegalArgumentException("not registered: " + type);
+
+        JDialog dialog = null;
+        for (Iterator<JDialog> itx = _idle.descendingIterator() ; itx.hasNext() ; )
+        {
+            JDialog candidate = itx.next();
+            if (_owned.get(candidate) == reg)
+            {
+                itx.remove();
+                reg.idleCount--;
+                dialog = candidate;
+                break;
+            }
+        }
+
+        if (dialog == null)
+            dialog = build(reg);
+
+        if ((_prewarmTimer != null) && (reg.idleCount < reg.prewarm))
+            _prewarmTimer.start();
+        return dialog;
+    }
+
+
+    /**
+     *  Hides a dialog, resets it, and returns it to the pool, disposing the
+     *  least-recently-released idle dialog if the pool is then over its bound.
+     *  A dialog that did not come from this pool is simply disposed; a dialog
+     *  that's already idle is ignored.
+     */
+    public void release(JDialog dialog)
+    {
+        dialog.setVisible(false);
+        Registration reg = _owned.get(dialog);
+        if (reg == null)
+        {
+            dialog.dispose();
+            return;
+        }
+        if (_idle.contains(dialog))
+            return;
+
+        reg.factory.resetDialog(dialog);
+        _idle.addLast(dialog);
+        reg.idleCount++;
+        trim(_maxIdle);
+    }
+
+
+    /**
+     *  Disposes all idle dialogs. Dialogs that are in use are unaffected, and
+     *  will return to the pool when released. Prewarming, if started, will
+     *  rebuild idle dialogs.
+     */
+    public void evictIdle()
+    {
+        trim(0);
+    }
+
+
+    /**
+     *  At {@link MemoryManager.TrimLevel#BACKGROUND}, disposes the idle dialogs
+     *  of each type beyond its prewarm count, oldest first. At {@link
+     *  MemoryManager.TrimLevel#CRITICAL}, disposes all idle dialogs and pauses
+     *  prewarming, which resumes when a dialog is next acquired.
+     */
+    public void trimMemory(MemoryManager.TrimLevel level)
+    {
+        if (level != MemoryManager.TrimLevel.CRITICAL)
+        {
+            trimSurplus();
+            return;
+        }
+
+        evictIdle();
+        if (_prewarmTimer != null)
+            _prewarmTimer.stop();
+    }
+
+
+    /**
+     *  Returns the number of idle dialogs in the pool.
+     */
+    public int getIdleCount()
+    {
+        return _idle.size();
+    }
+
+
+    /**
+     *  Starts building the registered dialogs' prewarm instances whenever the
+     *  event queue is idle. Typically called at the end of application
+     *  startup. Prewarming continues (as needed) until {@link
+     *  #stopPrewarming} is called.
+     */
+    public void startPrewarming()
+    {
+        if (_prewarmTimer == null)
+        {
+            _prewarmTimer = new Timer(PREWARM_INTERVAL, new ActionListener()
+            {
+                public void actionPerformed(ActionEvent e)
+                {
+                    prewarmOne();
+                }
+            });
+        }
+        _prewarmTimer.start();
+    }
+
+
+    /**
+     *  Stops prewarming. Idle dialogs remain in the pool.
+     */
+    public void stopPrewarming()
+    {
+        if (_prewarmTimer != null)
+        {
+            _prewarmTimer.stop();
+            _prewarmTimer = null;
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private JDialog build(Registration reg)
+    {
+        JDialog dialog = reg.factory.createDialog();
+        if (!dialog.isDisplayable())
+            dialog.pack();
+        _owned.put(dialog, reg);
+        return dialog;
+    }
+
+
+    /**
+     *  Called by the prewarming timer: if the event queue is empty, builds a
+     *  single dialog for the first type that needs one. Stops the timer when
+     *  no type needs a dialog.
+     */
+    private void prewarmOne()
+    {
+        EventQueue queue = Toolkit.getDefaultToolkit().getSystemEventQueue();
+        if (queue.peekEvent() != null)
+            return;
+
+        for (Registration reg : _registrations.values())
+        {
+            if ((reg.idleCount < reg.prewarm) && (_idle.size() < _maxIdle))
+            {
+                JDialog dialog = build(reg);
+                _idle.addLast(dialog);
+                reg.idleCount++;
+                return;
+            }
+        }
+        _prewarmTimer.stop();
+    }
+
+
+    /**
+     *  Disposes idle dialogs, oldest first, until no more than the specified
+     *  number remain.
+     */
+    private void trim(int size)
+    {
+        while (_idle.size() > size)
+        {
+            JDialog dialog = _idle.removeFirst();
+            _owned.remove(dialog).idleCount--;
+            dialog.dispose();
+        }
+    }
+
+
+    /**
+     *  Disposes idle dialogs, oldest first, until no type has more than its
+     *  prewarm count.
+     */
+    private void trimSurplus()
+    {
+        for (Iterator<JDialog> itx = _idle.iterator() ; itx.hasNext() ; )
+        {
+            JDialog dialog = itx.next();
+            Registration reg = _owned.get(dialog);
+            if (reg.idleCount > reg.prewarm)
+            {
+                itx.remove();
+                _owned.remove(dialog);
+                reg.idleCount--;
+                dialog.dispose();
+            }
+        }
+    }
+
+
+    /**
+     *  Information about a registered type.
+     */
+    private static class Registration
+    {
+        public DialogFactory factory;
+        public int prewarm;
+        public int idleCount;
+
+        public Registration(DialogFactory factory, int prewarm)
+        {
+            this.factory = factory;
+            this.prewarm = prewarm;
+        }
+    }
+}
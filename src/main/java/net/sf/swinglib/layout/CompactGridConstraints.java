@@ -0,0 +1,134 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.layout;
+
+
+/**
+ *  Constraints for a component in a {@link CompactGridLayout}: the number of
+ *  columns that it spans, and how it shares any extra space in the container.
+ *  Instances are immutable, so may be shared between components.
+ *  <p>
+ *  Extra width (the container's width beyond its preferred width) is divided
+ *  between columns in proportion to their weight, which is the largest
+ *  horizontal weight of a single-column component in the column. A spanning
+ *  component's weight goes to the weighted columns that it spans, or to the
+ *  last of them if none are weighted. Extra height is divided between rows
+ *  in the same way. A component with a non-zero weight is stretched to
+ *  fill its cell in that direction; other components are displayed at their
+ *  preferred size, positioned by the layout's alignment.
+ */
+public class CompactGridConstraints
+{
+    /**
+     *  The constraints used for components added without any: a single
+     *  column, no stretch.
+     */
+    public final static CompactGridConstraints DEFAULT = new CompactGridConstraints(1, 0, 0);
+
+
+    private int _span;
+    private double _weightX;
+    private double _weightY;
+
+
+    /**
+     *  Creates an instance.
+     *
+     *  @param  span        The number of columns occupied by the component.
+     *                      If the component won't fit in the remaining columns
+     *                      of the current row, it starts a new row.
+     *  @param  weightX     The component's share of extra width; 0 to remain
+     *                      at preferred width.
+     *  @param  weightY     The component's share of extra height; 0 to remain
+     *                      at preferred height.
+     *
+     *  @throws IllegalArgumentException if the span is less than 1 or either
+     *          weight is negative.
+     */
+    public CompactGridConstraints(int span, double weightX, double weightY)
+    {
+        if (span < 1)
+            throw new IllegalArgumentException("invalid span: " + span);
+        if ((weightX < 0) || (weightY < 0))
+            throw new IllegalArgumentException("weights may not be negative");
+
+        _span = span;
+        _weightX = weightX;
+        _weightY = weightY;
+    }
+
+
+    /**
+     *  Convenience method for a component that spans columns without
+     *  stretching.
+     */
+    public static CompactGridConstraints span(int span)
+    {
+        return new CompactGridConstraints(span, 0, 0);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Accessors
+//----------------------------------------------------------------------------
+
+    public int getSpan()
+    {
+        return _span;
+    }
+
+
+    public double getWeightX()
+    {
+        return _weightX;
+    }
+
+
+    public double getWeightY()
+    {
+        return _weightY;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Object overrides
+//----------------------------------------------------------------------------
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof CompactGridConstraints))
+            return false;
+        CompactGridConstraints that = (CompactGridConstraints)obj;
+        return (_span == that._span)
+            && (_weightX == that._weightX)
+            && (_weightY == that._weightY);
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+        return _span * 31 + (int)(_weightX * 17) + (int)(_weightY * 13);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "CompactGridConstraints[span=" + _span
+             + ", weightX=" + _weightX + ", weightY=" + _weightY + "]";
+    }
+}
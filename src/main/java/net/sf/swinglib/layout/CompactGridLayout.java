@@ -17,7 +17,13 @@ package net.sf.swinglib.layout;
 import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
+import java.awt.Insets;
 import java.awt.LayoutManager2;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 /**
@@ -31,6 +37,12 @@ import java.awt.LayoutManager2;
  *       are added to the container, going across and then down (ie, row 0
  *       column 0, followed by row 0 column 1) . You do not need to specify an
  *       explicit constraints object for a component.
+ *  <LI> Optionally, a {@link CompactGridConstraints} may be specified when
+ *       adding a component, to make it span multiple columns and/or stretch to
+ *       fill extra space. A spanning component that needs more width than its
+ *       columns provide widens them (the weighted columns, or if none, the
+ *       last). Unlike <code>GridBagLayout</code>, these constraints are
+ *       resolved in a single pass over the components.
  *  <LI> The preferred width of a column is found by taking the maximum preferred
  *       width of all components in the column. The preferred height of a column
  *       is found by taking the maximum preferred height of all components in
@@ -39,8 +51,9 @@ import java.awt.LayoutManager2;
  *       dimensions of the components.
  *  <LI> Each component is laid out at its preferred height and width, if there
  *       is room in the cell; components are not stretched to fit the height and
- *       width of their cell. This layout manager is used for forms, and stretching
- *       all components to same size gives a very unnatural appearance.
+ *       width of their cell unless given a weight. This layout manager is used
+ *       for forms, and stretching all components to same size gives a very
+ *       unnatural appearance.
  *  <LI> If the layout manager does not have room for all rows and columns, it
  *       will reduce each to its minimum height or width. It will not attempt
  *       to reduce components below their minimum width, which means that
@@ -49,6 +62,18 @@ import java.awt.LayoutManager2;
  *       horizontal and vertical alignment. The layout manager will provide a
  *       way to override for all components, since forms typically use a left/
  *       center alignment.
+ *  <LI> The minimum and preferred size of each component is cached, and is
+ *       only re-measured when the component is invalidated (which Swing does
+ *       whenever a component's size-related properties change) or moves to
+ *       a different grid position. The exception is a component whose size
+ *       has been set explicitly (<CODE>setPreferredSize()</CODE> does not
+ *       invalidate it), which is re-measured each time the layout is
+ *       invalidated. Only the rows and columns that hold a
+ *       component whose size actually changed are recalculated, so changing
+ *       one field on a large form is cheap.
+ *  <LI> The bounds computed for the last few container sizes are also cached,
+ *       so that resizing a window back and forth replays them rather than
+ *       recalculating. This cache is discarded whenever the grid changes.
  *  </UL>
  ******************************************************************************
  * @version    1.0
@@ -72,16 +97,58 @@ implements LayoutManager2
     private float   _xAlignment;            // horizontal alignment within cell
     private float   _yAlignment;            // vertical alignment within cell
 
-    private int[]   _minRowHeights;         // minimum height of each row
-    private int[]   _prfRowHeights;         // preferred height of each row
+    private Map<Component,CompactGridConstraints> _constraints
+            = new HashMap<Component,CompactGridConstraints>();
+
+    private boolean _valid;                 // false after invalidateLayout()
+
+    // the following describe each "slot" (component position), as of the
+    // last call to recalculate()
+
+    private Component[] _comps = new Component[0];
+    private Dimension[] _minSizes = new Dimension[0];
+    private Dimension[] _prfSizes = new Dimension[0];
+    private boolean[] _explicitSizes = new boolean[0];
+    private CompactGridConstraints[] _slotConstraints = new CompactGridConstraints[0];
+    private int[]   _slotRows = new int[0];
+    private int[]   _slotCols = new int[0];
+    private int[]   _rowStarts = new int[1];    // first slot of each row, plus end
+
+    private int[]   _minRowHeights = new int[0];    // minimum height of each row
+    private int[]   _prfRowHeights = new int[0];    // preferred height of each row
+    private double[] _rowWeights = new double[0];
+
+    private int[]   _baseMinColWidths;      // column sizes from single-column
+    private int[]   _basePrfColWidths;      // components only; these are
+    private double[] _baseColWeights;       // recalculated incrementally
+
     private int[]   _minColWidths;          // minimum width of each column
     private int[]   _prfColWidths;          // preferred width of each column
+    private double[] _colWeights;
 
     private int     _preferredHeight;       // these four include container insets
     private int     _preferredWidth;
     private int     _minimumHeight;
     private int     _minimumWidth;
 
+    private Insets  _insets = new Insets(0, 0, 0, 0);   // as of last recalculate()
+
+    // bounds computed by layoutContainer(), keyed by container size; cleared
+    // whenever recalculate() finds a change that would affect any bounds
+
+    private final static int LAYOUT_CACHE_SIZE = 8;
+
+    private Map<Long,int[]> _layoutCache = new LinkedHashMap<Long,int[]>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long,int[]> eldest)
+        {
+            return size() > LAYOUT_CACHE_SIZE;
+        }
+    };
+
 
     /** Basic constructor, which allows user to specify the number of columns
      *  and nothing else. Vertical and horizontal gaps both default to 0, and
@@ -125,6 +192,13 @@ implements LayoutManager2
         _vGap = vGap;
         _xAlignment = hAlign;
         _yAlignment = vAlign;
+
+        _baseMinColWidths = new int[cols];
+        _basePrfColWidths = new int[cols];
+        _baseColWeights   = new double[cols];
+        _minColWidths     = new int[cols];
+        _prfColWidths     = new int[cols];
+        _colWeights       = new double[cols];
     }
 
 
@@ -136,14 +210,18 @@ implements LayoutManager2
      *  constraints object.
      *
      *  @param  comp    The component to add.
-     *  @param  cons    A constraints object to go with this component. Since
-     *                  this layout manager does not use constraints, this
-     *                  parameter is ignored, and may be <CODE>null</CODE>
+     *  @param  cons    A {@link CompactGridConstraints}, or <CODE>null</CODE>
+     *                  to use the default constraints.
+     *
+     *  @throws IllegalArgumentException if passed an object that is not a
+     *          <CODE>CompactGridConstraints</CODE>, or that spans more
+     *          columns than the layout has.
      */
     public void addLayoutComponent( Component comp, Object cons )
     {
-        // in this revision, we don't keep track of constraints, so don't
-        // need to do anything in this method
+        if ((cons != null) && !(cons instanceof CompactGridConstraints))
+            throw new IllegalArgumentException("constraints must be CompactGridConstraints");
+        setConstraints(comp, (CompactGridConstraints)cons);
     }
 
 
@@ -166,22 +244,51 @@ implements LayoutManager2
      */
     public void removeLayoutComponent(Component comp)
     {
-        // we don't need to do anything since we just get the list of
-        // components from the container
+        // the list of components comes from the container, so all we need
+        // to forget is its constraints
+        _constraints.remove(comp);
     }
 
 
-    /** Invalidates the current cached information for this layout, and
-     *  recalculates the row heights and column widths.
+    /** Changes the constraints of a component. As with <CODE>GridBagLayout
+     *  </CODE>, the caller must then revalidate the container.
+     *
+     *  @param  comp    The component.
+     *  @param  cons    Its new constraints, <CODE>null</CODE> to use the
+     *                  default.
+     */
+    public void setConstraints( Component comp, CompactGridConstraints cons )
+    {
+        if ((cons != null) && (cons.getSpan() > _cols))
+            throw new IllegalArgumentException(
+                    "span (" + cons.getSpan() + ") exceeds column count (" + _cols + ")");
+
+        if ((cons == null) || cons.equals(CompactGridConstraints.DEFAULT))
+            _constraints.remove(comp);
+        else
+            _constraints.put(comp, cons);
+        _valid = false;
+    }
+
+
+    /** Returns the constraints of a component; never <CODE>null</CODE>.
+     */
+    public CompactGridConstraints getConstraints( Component comp )
+    {
+        CompactGridConstraints cons = _constraints.get(comp);
+        return (cons != null) ? cons : CompactGridConstraints.DEFAULT;
+    }
+
+
+    /** Invalidates the current cached information for this layout. The row
+     *  heights and column widths will be recalculated on next use, but only
+     *  for components that have themselves been invalidated.
      */
     public void invalidateLayout(Container target)
     {
         synchronized (target.getTreeLock())
         {
-            _minRowHeights = null;
-            _prfRowHeights = null;
-            _minColWidths  = null;
-            _prfColWidths  = null;
+            _valid = false;
         }
     }
 
@@ -211,15 +318,23 @@ implements LayoutManager2
 
 
     /** Returns the maximum size of this layout, which is the same as its
-     *  preferred size.
+     *  preferred size, unless there are weighted columns or rows (in which
+     *  case it's unbounded in that direction).
      */
     public Dimension maximumLayoutSize(Container target)
     {
-        return preferredLayoutSize(target);
+        synchronized (target.getTreeLock())
+        {
+            recalculate(target);
+            return new Dimension(
+                    (totalWeight(_colWeights) > 0) ? Integer.MAX_VALUE : _preferredWidth,
+                    (totalWeight(_rowWeights) > 0) ? Integer.MAX_VALUE : _preferredHeight);
+        }
     }
 
 
-    /** Lays out the container.
+    /** Lays out the container, using cached bounds if the container has
+     *  been laid out at its current size since the grid last changed.
      */
     public void layoutContainer(Container target)
     {
@@ -227,37 +342,19 @@ implements LayoutManager2
         {
             recalculate(target);
 
-            int row = 0;
-            int col = 0;
-            int x = target.getInsets().left;
-            int y = target.getInsets().top;
-
-            int rowHeight = calculateRowHeight(row);
-
-            for (int ii = 0 ; ii < target.getComponentCount() ; ii++)
+            int width = target.getWidth();
+            int height = target.getHeight();
+            Long key = Long.valueOf(((long)width << 32) | (height & 0xFFFFFFFFL));
+            int[] bounds = _layoutCache.get(key);
+            if (bounds == null)
             {
-                Component comp = target.getComponent(ii);
-                int compWidth = comp.getPreferredSize().width;
-                int compHeight = comp.getPreferredSize().height;
-
-                int colWidth = calculateColWidth(col);
-
-                int xOffset = (int)((colWidth - compWidth) * _xAlignment);
-                int yOffset = (int)((rowHeight - compHeight) * _yAlignment);
-
-                comp.setBounds(x, y, compWidth, compHeight);
-
-                x += colWidth + _hGap;;
+                bounds = calculateBounds(width, height);
+                _layoutCache.put(key, bounds);
+            }
 
-                if (++col == _cols)
-                {
-                    col = 0;
-                    row++;
-                    x = target.getInsets().left;
-                    y += rowHeight + _vGap;
-                    if (row < _rows)
-                        rowHeight = calculateRowHeight(row);
-                }
+            for (int ii = 0, jj = 0 ; ii < _comps.length ; ii++, jj += 4)
+            {
+                _comps[ii].setBounds(bounds[jj], bounds[jj + 1], bounds[jj + 2], bounds[jj + 3]);
             }
         }
     }
@@ -283,49 +380,188 @@ implements LayoutManager2
 //  Internal methods
 //----------------------------------------------------------------------------
 
+    /** Calculates the bounds of every component for a given container size,
+     *  as a flattened array of (x, y, width, height). Called only when those
+     *  bounds aren't already in the layout cache, so that repeated resizes
+     *  to a previously seen size simply replay the cached bounds.
+     */
+    private int[] calculateBounds( int width, int height )
+    {
+        int[] colWidths = distribute(_prfColWidths, _colWeights, width - _preferredWidth);
+        int[] rowHeights = distribute(_prfRowHeights, _rowWeights, height - _preferredHeight);
+
+        int[] colX = new int[_cols];
+        int x = _insets.left;
+        for (int col = 0 ; col < _cols ; col++)
+        {
+            colX[col] = x;
+            x += colWidths[col] + _hGap;
+        }
+
+        int[] bounds = new int[_comps.length * 4];
+        int y = _insets.top;
+        for (int row = 0 ; row < _rows ; row++)
+        {
+            int rowHeight = rowHeights[row];
+            for (int ii = _rowStarts[row] ; ii < _rowStarts[row + 1] ; ii++)
+            {
+                CompactGridConstraints cons = _slotConstraints[ii];
+                int col = _slotCols[ii];
+                int lastCol = col + cons.getSpan() - 1;
+                int cellWidth = colX[lastCol] + colWidths[lastCol] - colX[col];
+
+                int compWidth = (cons.getWeightX() > 0) ? cellWidth : _prfSizes[ii].width;
+                int compHeight = (cons.getWeightY() > 0) ? rowHeight : _prfSizes[ii].height;
+
+                int xOffset = Math.max(0, (int)((cellWidth - compWidth) * _xAlignment));
+                int yOffset = Math.max(0, (int)((rowHeight - compHeight) * _yAlignment));
+
+                bounds[ii * 4]     = colX[col] + xOffset;
+                bounds[ii * 4 + 1] = y + yOffset;
+                bounds[ii * 4 + 2] = compWidth;
+                bounds[ii * 4 + 3] = compHeight;
+            }
+            y += rowHeight + _vGap;
+        }
+        return bounds;
+    }
+
+
     /** Recalculates the row heights and column widths for this layout, based
      *  on the current components. This information is cached, and this method
-     *  doesn't actually do the calculation unless the cache is invalid.
+     *  doesn't actually do the calculation unless the cache is invalid. Even
+     *  then, it only measures components that are invalid or have moved, and
+     *  only recalculates the rows and columns where something has changed.
+     *  <P>
+     *  Components are placed in the same pass that measures them; a slot's
+     *  row and column must be recalculated if anything about it has changed
+     *  (its sizes, constraints, or position), whether because its component
+     *  changed or because a different component now occupies it. In that
+     *  case, both the old and new rows and columns are recalculated.
      */
     private void recalculate( Container target )
     {
-        if (_minRowHeights != null)
+        if (_valid)
             return;
 
         Component[] comps = target.getComponents();
-
-        int _rows = (comps.length / _cols)
-                  + (((comps.length % _cols) == 0) ? 0 : 1);
-
-        _minRowHeights   = new int[_rows];
-        _prfRowHeights   = new int[_rows];
-        _minColWidths    = new int[_cols];
-        _prfColWidths    = new int[_cols];
-
+        int count = comps.length;
+        int oldCount = _comps.length;
+        int oldRows = _rows;
+
+        Dimension[] minSizes = new Dimension[count];
+        Dimension[] prfSizes = new Dimension[count];
+        boolean[] explicitSizes = new boolean[count];
+        CompactGridConstraints[] slotConstraints = new CompactGridConstraints[count];
+        int[] slotRows = new int[count];
+        int[] slotCols = new int[count];
+        int[] rowStarts = new int[count + 1];
+
+        boolean[] dirtyRows = new boolean[Math.max(oldRows, count)];
+        boolean[] dirtyCols = new boolean[_cols];
+
+        Map<Component,Integer> oldIndexes = null;
         int row = 0;
         int col = 0;
-        for (int ii = 0 ; ii < comps.length ; ii++)
+        for (int ii = 0 ; ii < count ; ii++)
         {
-            _minRowHeights[row] = Math.max(_minRowHeights[row],
-                                           comps[ii].getMinimumSize().height);
-            _minColWidths[col]  = Math.max(_minColWidths[col],
-                                           comps[ii].getMinimumSize().width);
-            _prfRowHeights[row] = Math.max(_prfRowHeights[row],
-                                           comps[ii].getPreferredSize().height);
-            _prfColWidths[col]  = Math.max(_prfColWidths[col],
-                                           comps[ii].getPreferredSize().width);
-
-            if (++col == _cols)
+            Component comp = comps[ii];
+            int oldIndex = -1;
+            if ((ii < oldCount) && (comp == _comps[ii]))
+                oldIndex = ii;
+            else
+            {
+                if (oldIndexes == null)
+                    oldIndexes = indexComponents(_comps);
+                Integer idx = oldIndexes.get(comp);
+                if (idx != null)
+                    oldIndex = idx.intValue();
+            }
+
+            // a component that has just moved (because of an insert or
+            // remove) is not re-measured; nor is a valid component, unless
+            // its size is (or was) set explicitly -- setting it doesn't
+            // invalidate the component, but reading it is cheap
+            explicitSizes[ii] = comp.isPreferredSizeSet() || comp.isMinimumSizeSet();
+            if ((oldIndex >= 0) && comp.isValid()
+                    && !explicitSizes[ii] && !_explicitSizes[oldIndex])
+            {
+                minSizes[ii] = _minSizes[oldIndex];
+                prfSizes[ii] = _prfSizes[oldIndex];
+            }
+            else
+            {
+                minSizes[ii] = comp.getMinimumSize();
+                prfSizes[ii] = comp.getPreferredSize();
+            }
+
+            CompactGridConstraints cons = getConstraints(comp);
+            if (col + cons.getSpan() > _cols)
             {
                 col = 0;
                 row++;
             }
+            if (col == 0)
+                rowStarts[row] = ii;
+            slotConstraints[ii] = cons;
+            slotRows[ii] = row;
+            slotCols[ii] = col;
+            col += cons.getSpan();
+            if (col == _cols)
+            {
+                col = 0;
+                row++;
+            }
+
+            if ((ii >= oldCount)
+                    || (slotRows[ii] != _slotRows[ii])
+                    || (slotCols[ii] != _slotCols[ii])
+                    || !cons.equals(_slotConstraints[ii])
+                    || !minSizes[ii].equals(_minSizes[ii])
+                    || !prfSizes[ii].equals(_prfSizes[ii]))
+            {
+                markDirty(dirtyRows, dirtyCols, slotRows[ii], slotCols[ii], cons);
+                if (ii < oldCount)
+                    markDirty(dirtyRows, dirtyCols, _slotRows[ii], _slotCols[ii], _slotConstraints[ii]);
+            }
+        }
+
+        // slots that have been removed from the end of the container leave
+        // a hole in their row and column
+
+        for (int ii = count ; ii < oldCount ; ii++)
+        {
+            markDirty(dirtyRows, dirtyCols, _slotRows[ii], _slotCols[ii], _slotConstraints[ii]);
         }
 
-        _minimumHeight = _preferredHeight
-                       = target.getInsets().top + target.getInsets().bottom;
-        _minimumWidth  = _preferredWidth
-                       = target.getInsets().left + target.getInsets().right;
+        _rows = (col == 0) ? row : row + 1;
+        rowStarts[_rows] = count;
+
+        _comps = comps;
+        _minSizes = minSizes;
+        _prfSizes = prfSizes;
+        _explicitSizes = explicitSizes;
+        _slotConstraints = slotConstraints;
+        _slotRows = slotRows;
+        _slotCols = slotCols;
+        _rowStarts = rowStarts;
+
+        recalculateRows(dirtyRows);
+        recalculateColumns(dirtyCols);
+
+        // the layout cache remains valid if the structure of the grid is
+        // unchanged (as when the container is invalidated by a resize); the
+        // components themselves may have been rearranged, since the cached
+        // bounds are by slot
+
+        Insets insets = target.getInsets();
+        if ((count != oldCount) || !insets.equals(_insets)
+                || isAnySet(dirtyRows) || isAnySet(dirtyCols))
+            _layoutCache.clear();
+        _insets = insets;
+
+        _minimumHeight = _preferredHeight = insets.top + insets.bottom;
+        _minimumWidth  = _preferredWidth  = insets.left + insets.right;
 
         for (row = 0 ; row < _rows ; row++)
         {
@@ -339,29 +575,237 @@ implements LayoutManager2
             _minimumWidth += _minColWidths[col];
         }
 
-        _preferredHeight += (_rows - 1) * _vGap;
+        _preferredHeight += Math.max(0, _rows - 1) * _vGap;
         _preferredWidth  += (_cols - 1) * _hGap;
-        _minimumHeight   += (_rows - 1) * _vGap;
+        _minimumHeight   += Math.max(0, _rows - 1) * _vGap;
         _minimumWidth    += (_cols - 1) * _hGap;
+
+        _valid = true;
+    }
+
+
+    private static boolean isAnySet( boolean[] flags )
+    {
+        for (boolean flag : flags)
+        {
+            if (flag)
+                return true;
+        }
+        return false;
+    }
+
+
+    private static void markDirty( boolean[] dirtyRows, boolean[] dirtyCols,
+                                   int row, int col, CompactGridConstraints cons )
+    {
+        dirtyRows[row] = true;
+        for (int ii = 0 ; ii < cons.getSpan() ; ii++)
+        {
+            dirtyCols[col + ii] = true;
+        }
     }
 
 
-    /** Calculates the height of a row, scaling if necessary for an undersized
-     *  layout. This method is only called from <CODE>layoutContainer()</CODE>,
-     *  but I want to minimize code clutter in there.
+    /** Recalculates the height and weight of the dirty rows. Rows hold a
+     *  contiguous range of slots, so this is proportional to the number of
+     *  components in those rows.
      */
-    private int calculateRowHeight( int row )
+    private void recalculateRows( boolean[] dirtyRows )
     {
-        return _prfRowHeights[row];
+        if (_minRowHeights.length != _rows)
+        {
+            _minRowHeights = Arrays.copyOf(_minRowHeights, _rows);
+            _prfRowHeights = Arrays.copyOf(_prfRowHeights, _rows);
+            _rowWeights    = Arrays.copyOf(_rowWeights, _rows);
+        }
+
+        for (int row = 0 ; row < _rows ; row++)
+        {
+            if (!dirtyRows[row])
+                continue;
+            _minRowHeights[row] = 0;
+            _prfRowHeights[row] = 0;
+            _rowWeights[row] = 0;
+            for (int ii = _rowStarts[row] ; ii < _rowStarts[row + 1] ; ii++)
+            {
+                _minRowHeights[row] = Math.max(_minRowHeights[row], _minSizes[ii].height);
+                _prfRowHeights[row] = Math.max(_prfRowHeights[row], _prfSizes[ii].height);
+                _rowWeights[row] = Math.max(_rowWeights[row], _slotConstraints[ii].getWeightY());
+            }
+        }
     }
 
 
-    /** Calculates the width of a column, scaling if necessary for an undersized
-     *  layout. As with <CODE>calculateRowHeight()</CODE>, this method is only
-     *  called from <CODE>layoutContainer()</CODE>.
+    /** Recalculates the width and weight of the columns. The contribution of
+     *  single-column components is recalculated only for dirty columns (in
+     *  one pass over the slots); spanning components are then applied to
+     *  all columns, which is proportional to the number of such components.
      */
-    private int calculateColWidth( int col )
+    private void recalculateColumns( boolean[] dirtyCols )
     {
-        return _prfColWidths[col];
+        boolean anyDirty = false;
+        for (int col = 0 ; col < _cols ; col++)
+        {
+            if (dirtyCols[col])
+            {
+                anyDirty = true;
+                _baseMinColWidths[col] = 0;
+                _basePrfColWidths[col] = 0;
+                _baseColWeights[col] = 0;
+            }
+        }
+        if (!anyDirty)
+            return;
+
+        int spanCount = 0;
+        for (int ii = 0 ; ii < _comps.length ; ii++)
+        {
+            CompactGridConstraints cons = _slotConstraints[ii];
+            if (cons.getSpan() > 1)
+            {
+                spanCount++;
+                continue;
+            }
+            int col = _slotCols[ii];
+            if (!dirtyCols[col])
+                continue;
+            _baseMinColWidths[col] = Math.max(_baseMinColWidths[col], _minSizes[ii].width);
+            _basePrfColWidths[col] = Math.max(_basePrfColWidths[col], _prfSizes[ii].width);
+            _baseColWeights[col] = Math.max(_baseColWeights[col], cons.getWeightX());
+        }
+
+        System.arraycopy(_baseMinColWidths, 0, _minColWidths, 0, _cols);
+        System.arraycopy(_basePrfColWidths, 0, _prfColWidths, 0, _cols);
+        System.arraycopy(_baseColWeights, 0, _colWeights, 0, _cols);
+        if (spanCount == 0)
+            return;
+
+        for (int ii = 0 ; ii < _comps.length ; ii++)
+        {
+            CompactGridConstraints cons = _slotConstraints[ii];
+            int span = cons.getSpan();
+            if (span == 1)
+                continue;
+
+            int first = _slotCols[ii];
+            spreadWeight(first, span, cons.getWeightX());
+            widen(_minColWidths, first, span, _minSizes[ii].width);
+            widen(_prfColWidths, first, span, _prfSizes[ii].width);
+        }
+    }
+
+
+    /** Ensures that a range of columns has at least the specified total
+     *  weight. As with <CODE>GridBagLayout</CODE>, additional weight goes to
+     *  the already-weighted columns in proportion to their weight, or to the
+     *  last column if none are weighted.
+     */
+    private void spreadWeight( int first, int span, double weight )
+    {
+        double current = 0;
+        for (int col = first ; col < first + span ; col++)
+        {
+            current += _colWeights[col];
+        }
+        if (current >= weight)
+            return;
+
+        if (current == 0)
+        {
+            _colWeights[first + span - 1] = weight;
+            return;
+        }
+        for (int col = first ; col < first + span ; col++)
+        {
+            _colWeights[col] *= weight / current;
+        }
+    }
+
+
+    /** Ensures that a range of columns (plus the gaps between them) is at
+     *  least the specified width, giving any additional width to the weighted
+     *  columns in proportion to their weight, or to the last column if none
+     *  are weighted.
+     */
+    private void widen( int[] widths, int first, int span, int width )
+    {
+        int current = (span - 1) * _hGap;
+        double weight = 0;
+        for (int col = first ; col < first + span ; col++)
+        {
+            current += widths[col];
+            weight += _colWeights[col];
+        }
+        if (current >= width)
+            return;
+
+        int extra = width - current;
+        if (weight == 0)
+        {
+            widths[first + span - 1] += extra;
+            return;
+        }
+
+        int remaining = extra;
+        int lastWeighted = first;
+        for (int col = first ; col < first + span ; col++)
+        {
+            if (_colWeights[col] == 0)
+                continue;
+            int add = (int)(extra * _colWeights[col] / weight);
+            widths[col] += add;
+            remaining -= add;
+            lastWeighted = col;
+        }
+        widths[lastWeighted] += remaining;
+    }
+
+
+    /** Returns a copy of the passed sizes with extra space divided between
+     *  them in proportion to their weights. If there's no extra space, or
+     *  no weights, returns the passed array.
+     */
+    private static int[] distribute( int[] sizes, double[] weights, int extra )
+    {
+        double total = totalWeight(weights);
+        if ((extra <= 0) || (total == 0))
+            return sizes;
+
+        int[] result = sizes.clone();
+        int remaining = extra;
+        int lastWeighted = 0;
+        for (int ii = 0 ; ii < result.length ; ii++)
+        {
+            if (weights[ii] == 0)
+                continue;
+            int add = (int)(extra * weights[ii] / total);
+            result[ii] += add;
+            remaining -= add;
+            lastWeighted = ii;
+        }
+        result[lastWeighted] += remaining;
+        return result;
+    }
+
+
+    private static double totalWeight( double[] weights )
+    {
+        double total = 0;
+        for (double weight : weights)
+        {
+            total += weight;
+        }
+        return total;
+    }
+
+
+    private static Map<Component,Integer> indexComponents( Component[] comps )
+    {
+        Map<Component,Integer> indexes = new IdentityHashMap<Component,Integer>(comps.length * 4 / 3 + 1);
+        for (int ii = 0 ; ii < comps.length ; ii++)
+        {
+            indexes.put(comps[ii], Integer.valueOf(ii));
+        }
+        return indexes;
     }
 }
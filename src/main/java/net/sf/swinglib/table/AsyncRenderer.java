@@ -0,0 +1,355 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.awt.Component;
+import java.text.Format;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import javax.swing.JTable;
+
+import net.sf.swinglib.AsynchronousOperation;
+import net.sf.swinglib.MemoryManager;
+
+
+/**
+ *  A {@link FormattingRenderer} for cells whose displayed value is expensive
+ *  to derive from the cell's actual value (for example, a description that
+ *  must be looked up from a remote service, given a code held in the model).
+ *  Subclasses implement {@link #computeValue}, which is called on a
+ *  background thread; the renderer never blocks the event thread.
+ *  <p>
+ *  When asked to render a cell whose value has not yet been computed, the
+ *  renderer shows placeholder text and submits the computation to its
+ *  executor. Requests are de-duplicated: while a computation is running,
+ *  other cells with the same value simply wait for it. When the result
+ *  arrives, the renderer repaints only the cells that asked for it (located
+ *  by model row and column, so sorting in the meantime is harmless). The
+ *  result is then formatted and displayed like any other value.
+ *  <p>
+ *  Results are remembered in a bounded, least-recently-used cache keyed by
+ *  cell value, so cell values must be immutable and implement <code>equals()
+ *  </code> and <code>hashCode()</code>. A computation that throws is cached
+ *  as a failure, and displayed using the failure text, until the results are
+ *  cleared.
+ *  <p>
+ *  As with any renderer, instances should only be used on the event thread.
+ */
+public abstract class AsyncRenderer
+extends FormattingRenderer
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     *  The default number of computed results to remember.
+     */
+    public final static int DEFAULT_RESULT_CACHE_SIZE = 1024;
+
+    /**
+     *  Marks a computation that returned <code>null</code>.
+     */
+    private final static Object NULL_RESULT = new Object();
+
+    /**
+     *  Marks a computation that threw.
+     */
+    private final static Object FAILED = new Object();
+
+    private ExecutorService _executor;
+    private LinkedHashMap<Object,Object> _results;
+    private HashMap<Object,Set<PendingCell>> _pending = new HashMap<Object,Set<PendingCell>>();
+    private int _generation;
+    private String _placeholder = "...";
+    private String _failureText = "?";
+
+
+    /**
+     *  Creates a right-aligned instance.
+     *
+     *  @param  formatter   Used to format computed values.
+     *  @param  executor    Used to compute values.
+     */
+    public AsyncRenderer(Format formatter, ExecutorService executor)
+    {
+        this(formatter, Alignment.RIGHT, executor, DEFAULT_RESULT_CACHE_SIZE);
+    }
+
+
+    /**
+     *  Creates an instance with the specified alignment and cache size.
+     *
+     *  @param  formatter   Used to format computed values.
+     *  @param  alignment   Used to set the text alignment of this renderer.
+     *  @param  executor    Used to compute values.
+     *  @param  cacheSize   The maximum number of computed values to remember.
+     *                      This should be at least the number of distinct
+     *                      values that may be visible at one time.
+     */
+    public AsyncRenderer(Format formatter, Alignment alignment,
+                         ExecutorService executor, final int cacheSize)
+    {
+        super(formatter, alignment, DEFAULT_CACHE_SIZE);
+        _executor = executor;
+        _results = new LinkedHashMap<Object,Object>(cacheSize * 4 / 3 + 1, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object,Object> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+
+//----------------------------------------------------------------------------
+//  Subclasses override
+//----------------------------------------------------------------------------
+
+    /**
+     *  Computes the value to display for a cell, given the cell's value (which
+     *  is never <code>null</code>). Called on a thread from the executor, so
+     *  must be thread-safe. May return <code>null</code>, which is displayed
+     *  as an empty cell, or throw any exception.
+     */
+    protected abstract Object computeValue(Object value)
+    throws Exception;
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Sets the text displayed while a value is being computed.
+     */
+    public void setPlaceholder(String text)
+    {
+        _placeholder = text;
+    }
+
+
+    /**
+     *  Sets the text displayed if a computation throws.
+     */
+    public void setFailureText(String text)
+    {
+        _failureText = text;
+    }
+
+
+    /**
+     *  Discards all computed values (including failures), so that they will
+     *  be recomputed when next displayed. Computations that are running when
+     *  this is called will not update the cache, but their cells will still
+     *  be repainted.
+     */
+    public void clearResults()
+    {
+        _results.clear();
+        _generation++;
+    }
+
+
+    /**
+     *  In addition to discarding formatted text, discards computed values if
+     *  memory is short.
+     */
+    @Override
+    public void trimMemory(MemoryManager.TrimLevel level)
+    {
+        super.trimMemory(level);
+        if (level == MemoryManager.TrimLevel.CRITICAL)
+            clearResults();
+    }
+
+
+    /**
+     *  Returns <code>true</code> if the value for the passed cell value has
+     *  been computed (successfully or not).
+     */
+    public boolean isComputed(Object value)
+    {
+        return (value == null) || _results.containsKey(value);
+    }
+
+
+//----------------------------------------------------------------------------
+//  TableCellRenderer
+//----------------------------------------------------------------------------
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value,
+                                                   boolean isSelected, boolean hasFocus,
+                                                   int row, int column)
+    {
+        if (value == null)
+            return super.getTableCellRendererComponent(table, null, isSelected, hasFocus, row, column);
+
+        Object result = _results.get(value);
+        if (result == null)
+        {
+            request(table, value, row, column);
+            super.getTableCellRendererComponent(table, null, isSelected, hasFocus, row, column);
+            setText(_placeholder);
+            return this;
+        }
+        if (result == FAILED)
+        {
+            super.getTableCellRendererComponent(table, null, isSelected, hasFocus, row, column);
+            setText(_failureText);
+            return this;
+        }
+
+        return super.getTableCellRendererComponent(table, (result == NULL_RESULT) ? null : result,
+                                                   isSelected, hasFocus, row, column);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Records that a cell is waiting for a value, starting the computation
+     *  if it isn't already running.
+     */
+    private void request(JTable table, Object value, int viewRow, int viewCol)
+    {
+        PendingCell cell = new PendingCell(table,
+                                           table.convertRowIndexToModel(viewRow),
+                                           table.convertColumnIndexToModel(viewCol));
+        Set<PendingCell> cells = _pending.get(value);
+        if (cells != null)
+        {
+            cells.add(cell);
+            return;
+        }
+
+        cells = new LinkedHashSet<PendingCell>();
+        cells.add(cell);
+        _pending.put(value, cells);
+        _executor.execute(new Computation(value, _generation));
+    }
+
+
+    /**
+     *  Stores a result and repaints the cells that were waiting for it.
+     */
+    private void completed(Object value, Object result, int generation)
+    {
+        if (generation == _generation)
+            _results.put(value, result);
+
+        Set<PendingCell> cells = _pending.remove(value);
+        if (cells == null)
+            return;
+        for (PendingCell cell : cells)
+        {
+            cell.repaint();
+        }
+    }
+
+
+    /**
+     *  Identifies a cell that is waiting for a value, in model coordinates.
+     */
+    private static class PendingCell
+    {
+        private JTable _table;
+        private int _modelRow;
+        private int _modelCol;
+
+        public PendingCell(JTable table, int modelRow, int modelCol)
+        {
+            _table = table;
+            _modelRow = modelRow;
+            _modelCol = modelCol;
+        }
+
+        /**
+         *  Repaints the cell, if it's still in the table's view.
+         */
+        public void repaint()
+        {
+            if (_modelRow >= _table.getModel().getRowCount())
+                return;
+            int viewRow = _table.convertRowIndexToView(_modelRow);
+            int viewCol = _table.convertColumnIndexToView(_modelCol);
+            if ((viewRow >= 0) && (viewCol >= 0))
+                _table.repaint(_table.getCellRect(viewRow, viewCol, false));
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof PendingCell))
+                return false;
+            PendingCell that = (PendingCell)obj;
+            return (_table == that._table)
+                && (_modelRow == that._modelRow)
+                && (_modelCol == that._modelCol);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(_table) ^ (_modelRow * 31 + _modelCol);
+        }
+    }
+
+
+    /**
+     *  Computes a single value.
+     */
+    private class Computation
+    extends AsynchronousOperation<Object>
+    {
+        private Object _value;
+        private int _requestGeneration;
+
+        public Computation(Object value, int generation)
+        {
+            _value = value;
+            _requestGeneration = generation;
+        }
+
+        @Override
+        protected Object performOperation()
+        throws Exception
+        {
+            Object result = computeValue(_value);
+            return (result == null) ? NULL_RESULT : result;
+        }
+
+        @Override
+        protected void onSuccess(Object result)
+        {
+            completed(_value, result, _requestGeneration);
+        }
+
+        @Override
+        protected void onFailure(Throwable e)
+        {
+            completed(_value, FAILED, _requestGeneration);
+        }
+    }
+}
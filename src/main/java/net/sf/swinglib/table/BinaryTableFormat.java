@@ -0,0 +1,584 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+
+/**
+ *  Saves and restores an {@link ExpandingTableModel} using a compact binary
+ *  format. The format is columnar: each column is written as a single
+ *  section, in a form that depends on its content:
+ *  <ul>
+ *  <li> <code>Integer</code>, <code>Long</code>, and <code>Double</code>
+ *       columns are written as a bitmap of null cells followed by an array
+ *       of primitive values.
+ *  <li> Dictionary-encoded columns are written as their dictionary followed
+ *       by an array of codes.
+ *  <li> All other columns are written cell-by-cell using a tagged encoding
+ *       for common types, and serialization for anything else.
+ *  </ul>
+ *  Sections may optionally be compressed. Files are written and read using
+ *  a <code>FileChannel</code>, one section at a time; primitive sections are
+ *  copied in bulk from the section's buffer into arrays. Since sections are
+ *  independent, they may be decoded in parallel. Each section is stored into
+ *  the model as soon as it's decoded, so reading needs little more heap than
+ *  the model itself.
+ *  <p>
+ *  Sections are read into heap buffers rather than memory-mapped: a mapping
+ *  can't be released explicitly, and holds the file open (on Windows, locked
+ *  against deletion or replacement) until it is garbage-collected. The file
+ *  is closed when {@link #read} returns.
+ *  <p>
+ *  The file includes column names, column classes, and the set of encoded
+ *  columns. Computed columns are written as their (computed) values, and
+ *  are restored as ordinary columns; aggregates, heap budget, and sparse
+ *  storage are not retained.
+ *  <p>
+ *  The file starts with a magic number and version; a reader will reject a
+ *  file written by a newer version.
+ *  <p>
+ *  Instances are immutable, and may be shared between threads. The model
+ *  must not be modified while being written: call from the event thread,
+ *  or write a snapshot.
+ */
+public class BinaryTableFormat
+{
+    private final static int MAGIC = 0x53575442;        // "SWTB"
+    private final static short VERSION = 1;
+    private final static byte FLAG_COMPRESSED = 0x01;
+
+    private final static byte KIND_VALUES = 0;
+    private final static byte KIND_INT = 1;
+    private final static byte KIND_LONG = 2;
+    private final static byte KIND_DOUBLE = 3;
+    private final static byte KIND_DICTIONARY = 4;
+
+    /** size of the fixed preamble: magic, version, flags, header length */
+    private final static int PREAMBLE_SIZE = 4 + 2 + 1 + 4;
+
+    /** size of a section's prefix: kind, raw length, stored length */
+    private final static int SECTION_PREFIX_SIZE = 1 + 4 + 4;
+
+    private boolean _compress;
+
+
+    /**
+     *  Creates an instance that writes uncompressed files.
+     */
+    public BinaryTableFormat()
+    {
+        this(false);
+    }
+
+
+    /**
+     *  Creates an instance that optionally compresses the files that it
+     *  writes. Compression uses the fastest deflate setting; it typically
+     *  makes text columns much smaller, at the cost of slower writes and
+     *  reads. Either form of file may be read by either instance.
+     */
+    public BinaryTableFormat(boolean compress)
+    {
+        _compress = compress;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Writes the model to a file, replacing any existing content.
+     */
+    public void write(ExpandingTableModel model, File file)
+    throws IOException
+    {
+        int rowCount = model.getDataRowCount();
+        int colCount = model.getColumnCount();
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(rowCount);
+        header.writeInt(colCount);
+        for (int col = 0 ; col < colCount ; col++)
+        {
+            CellCodec.writeValue(header, model.getColumnName(col));
+            header.writeUTF(model.getColumnClass(col).getName());
+            header.writeBoolean(model.isDictionaryEncoded(col));
+        }
+        header.flush();
+
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            FileChannel channel = out.getChannel();
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE);
+            preamble.putInt(MAGIC)
+                    .putShort(VERSION)
+                    .put(_compress ? FLAG_COMPRESSED : 0)
+                    .putInt(headerBytes.size());
+            preamble.flip();
+            writeFully(channel, preamble);
+            writeFully(channel, ByteBuffer.wrap(headerBytes.toByteArray()));
+
+            for (int col = 0 ; col < colCount ; col++)
+            {
+                writeSection(channel, model, col, rowCount);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+
+    /**
+     *  Reads a file written by {@link #write}, returning a new model.
+     *
+     *  @throws IOException if unable to read the file, or if the file is not
+     *          in this format (or is a later version of it).
+     */
+    public ExpandingTableModel read(File file)
+    throws IOException
+    {
+        return read(file, null);
+    }
+
+
+    /**
+     *  Reads a file written by {@link #write}, returning a new model. Columns
+     *  are decoded in parallel, using the passed executor (which may be the
+     *  executor that is running the caller).
+     *
+     *  @throws IOException if unable to read the file, or if the file is not
+     *          in this format (or is a later version of it).
+     */
+    public ExpandingTableModel read(File file, ExecutorService executor)
+    throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            final FileChannel channel = in.getChannel();
+            ByteBuffer preamble = readFully(channel, 0, PREAMBLE_SIZE);
+            if (preamble.getInt() != MAGIC)
+                throw new IOException("not a table file: " + file);
+            short version = preamble.getShort();
+            if (version > VERSION)
+                throw new IOException("unsupported table file version: " + version);
+            final boolean compressed = (preamble.get() & FLAG_COMPRESSED) != 0;
+            int headerLength = preamble.getInt();
+
+            DataInputStream header = stream(readFully(channel, PREAMBLE_SIZE, headerLength), headerLength);
+            final int rowCount = header.readInt();
+            int colCount = header.readInt();
+            Object[] names = new Object[colCount];
+            Class<?>[] classes = new Class<?>[colCount];
+            boolean[] encoded = new boolean[colCount];
+            for (int col = 0 ; col < colCount ; col++)
+            {
+                names[col] = CellCodec.readValue(header);
+                classes[col] = classForName(header.readUTF());
+                encoded[col] = header.readBoolean();
+            }
+
+            // section prefixes are read sequentially, to find the positions
+            // of the sections; the sections themselves can then be decoded
+            // independently
+
+            final byte[] kinds = new byte[colCount];
+            final int[] rawLengths = new int[colCount];
+            final int[] storedLengths = new int[colCount];
+            final long[] positions = new long[colCount];
+            long position = PREAMBLE_SIZE + headerLength;
+            for (int col = 0 ; col < colCount ; col++)
+            {
+                ByteBuffer prefix = readFully(channel, position, SECTION_PREFIX_SIZE);
+                kinds[col] = prefix.get();
+                rawLengths[col] = prefix.getInt();
+                storedLengths[col] = prefix.getInt();
+                positions[col] = position + SECTION_PREFIX_SIZE;
+                position = positions[col] + storedLengths[col];
+            }
+
+            final ExpandingTableModel model = createModel(names, classes, encoded, rowCount);
+            try
+            {
+                ParallelScan.run(executor, colCount, 1, new ParallelScan.RangeTask()
+                {
+                    public void scan(int chunk, int start, int end)
+                    throws IOException
+                    {
+                        ByteBuffer data = readFully(channel, positions[start], storedLengths[start]);
+                        if (compressed)
+                            data = ByteBuffer.wrap(inflate(data.array(), rawLengths[start]));
+                        model.loadColumn(start, readSection(kinds[start], data, rawLengths[start], rowCount));
+                    }
+                });
+            }
+            catch (RuntimeException ex)
+            {
+                if (ex.getCause() instanceof IOException)
+                    throw (IOException)ex.getCause();
+                throw ex;
+            }
+
+            return model;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals -- writing
+//----------------------------------------------------------------------------
+
+    private void writeSection(FileChannel channel, ExpandingTableModel model, int col, int rowCount)
+    throws IOException
+    {
+        Class<?> klass = model.getColumnClass(col);
+        byte kind;
+        ByteBuffer raw;
+        if (model.getDictionary(col) != null)
+        {
+            kind = KIND_DICTIONARY;
+            raw = writeDictionary(model, col, rowCount);
+        }
+        else if ((klass == Integer.class) || (klass == Long.class) || (klass == Double.class))
+        {
+            kind = (klass == Integer.class) ? KIND_INT
+                 : (klass == Long.class) ? KIND_LONG
+                 : KIND_DOUBLE;
+            raw = writePrimitives(model, col, rowCount, kind);
+        }
+        else
+        {
+            kind = KIND_VALUES;
+            raw = writeValues(model, col, rowCount);
+        }
+
+        int rawLength = raw.remaining();
+        ByteBuffer stored = _compress ? deflate(raw) : raw;
+
+        ByteBuffer prefix = ByteBuffer.allocate(SECTION_PREFIX_SIZE);
+        prefix.put(kind).putInt(rawLength).putInt(stored.remaining());
+        prefix.flip();
+        writeFully(channel, prefix);
+        writeFully(channel, stored);
+    }
+
+
+    private static ByteBuffer writePrimitives(ExpandingTableModel model, int col, int rowCount, byte kind)
+    {
+        int words = (rowCount + 63) >>> 6;
+        int valueSize = (kind == KIND_INT) ? 4 : 8;
+        ByteBuffer buf = ByteBuffer.allocate(words * 8 + rowCount * valueSize);
+
+        long[] nulls = new long[words];
+        int valueStart = words * 8;
+        buf.position(valueStart);
+        for (int row = 0 ; row < rowCount ; row++)
+        {
+            Object value = model.getValueAt(row, col);
+            if (value == null)
+            {
+                nulls[row >>> 6] |= 1L << row;
+                value = Integer.valueOf(0);
+            }
+
+            Number num = (Number)value;
+            if (kind == KIND_INT)
+                buf.putInt(num.intValue());
+            else if (kind == KIND_LONG)
+                buf.putLong(num.longValue());
+            else
+                buf.putDouble(num.doubleValue());
+        }
+
+        buf.position(0);
+        buf.asLongBuffer().put(nulls);
+        buf.position(0);
+        return buf;
+    }
+
+
+    private static ByteBuffer writeDictionary(ExpandingTableModel model, int col, int rowCount)
+    throws IOException
+    {
+        ColumnDictionary dict = model.getDictionary(col);
+        int size = dict.size();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(size);
+        for (int code = 1 ; code < size ; code++)
+        {
+            CellCodec.writeValue(out, dict.decode(code));
+        }
+        out.flush();
+
+        boolean wide = size > 0xFFFF;
+        ByteBuffer buf = ByteBuffer.allocate(bos.size() + 1 + rowCount * (wide ? 4 : 2));
+        buf.put(bos.toByteArray());
+        buf.put(wide ? (byte)4 : (byte)2);
+        for (int row = 0 ; row < rowCount ; row++)
+        {
+            int code = model.getCode(row, col);
+            if (wide)
+                buf.putInt(code);
+            else
+                buf.putChar((char)code);
+        }
+        buf.flip();
+        return buf;
+    }
+
+
+    private static ByteBuffer writeValues(ExpandingTableModel model, int col, int rowCount)
+    throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(rowCount * 8 + 16);
+        DataOutputStream out = new DataOutputStream(bos);
+        for (int row = 0 ; row < rowCount ; row++)
+        {
+            CellCodec.writeValue(out, model.getValueAt(row, col));
+        }
+        out.flush();
+        return ByteBuffer.wrap(bos.toByteArray());
+    }
+
+
+    private static ByteBuffer deflate(ByteBuffer raw)
+    throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(raw.remaining() / 4 + 16);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        DeflaterOutputStream out = new DeflaterOutputStream(bos, deflater, 64 * 1024);
+        out.write(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining());
+        out.close();
+        deflater.end();
+        return ByteBuffer.wrap(bos.toByteArray());
+    }
+
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf)
+    throws IOException
+    {
+        while (buf.hasRemaining())
+        {
+            channel.write(buf);
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals -- reading
+//----------------------------------------------------------------------------
+
+    /**
+     *  Reads part of the file into a heap buffer. Positional reads don't
+     *  change the channel's position, so sections may be read concurrently.
+     */
+    private static ByteBuffer readFully(FileChannel channel, long position, int length)
+    throws IOException
+    {
+        if (position + length > channel.size())
+            throw new IOException("table file is truncated");
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining())
+        {
+            if (channel.read(buf, position + buf.position()) < 0)
+                throw new IOException("table file is truncated");
+        }
+        buf.flip();
+        return buf;
+    }
+
+
+    /**
+     *  Returns a stream over the next bytes of a heap buffer, without copying
+     *  them.
+     */
+    private static DataInputStream stream(ByteBuffer buf, int length)
+    {
+        return new DataInputStream(new ByteArrayInputStream(
+                buf.array(), buf.arrayOffset() + buf.position(), length));
+    }
+
+
+    private static byte[] inflate(byte[] stored, int rawLength)
+    throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(stored);
+            byte[] raw = new byte[rawLength];
+            int count = 0;
+            while ((count < rawLength) && !inflater.finished())
+            {
+                int inflated = inflater.inflate(raw, count, rawLength - count);
+                if ((inflated == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                count += inflated;
+            }
+            if (count != rawLength)
+                throw new IOException("table file is corrupt: compressed section is truncated");
+            return raw;
+        }
+        catch (DataFormatException ex)
+        {
+            throw new IOException("table file is corrupt", ex);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+
+    private static Class<?> classForName(String name)
+    throws IOException
+    {
+        try
+        {
+            return Class.forName(name);
+        }
+        catch (ClassNotFoundException ex)
+        {
+            throw new IOException("unable to load column class", ex);
+        }
+    }
+
+
+    /**
+     *  Decodes a section into an array of cell values for the column.
+     */
+    private static Object[] readSection(byte kind, ByteBuffer data, int rawLength, int rowCount)
+    throws IOException
+    {
+        Object[] values = new Object[rowCount];
+        switch (kind)
+        {
+            case KIND_INT :
+            case KIND_LONG :
+            case KIND_DOUBLE :
+                long[] nulls = new long[(rowCount + 63) >>> 6];
+                data.asLongBuffer().get(nulls);
+                data.position(data.position() + nulls.length * 8);
+                if (kind == KIND_INT)
+                {
+                    int[] ints = new int[rowCount];
+                    data.asIntBuffer().get(ints);
+                    for (int row = 0 ; row < rowCount ; row++)
+                    {
+                        if (!isNull(nulls, row))
+                            values[row] = Integer.valueOf(ints[row]);
+                    }
+                }
+                else if (kind == KIND_LONG)
+                {
+                    long[] longs = new long[rowCount];
+                    data.asLongBuffer().get(longs);
+                    for (int row = 0 ; row < rowCount ; row++)
+                    {
+                        if (!isNull(nulls, row))
+                            values[row] = Long.valueOf(longs[row]);
+                    }
+                }
+                else
+                {
+                    double[] doubles = new double[rowCount];
+                    data.asDoubleBuffer().get(doubles);
+                    for (int row = 0 ; row < rowCount ; row++)
+                    {
+                        if (!isNull(nulls, row))
+                            values[row] = Double.valueOf(doubles[row]);
+                    }
+                }
+                return values;
+
+            case KIND_DICTIONARY :
+                DataInputStream dictIn = stream(data, rawLength);
+                Object[] dict = new Object[dictIn.readInt()];
+                for (int code = 1 ; code < dict.length ; code++)
+                {
+                    dict[code] = CellCodec.readValue(dictIn);
+                }
+                boolean wide = dictIn.readByte() == 4;
+                for (int row = 0 ; row < rowCount ; row++)
+                {
+                    values[row] = dict[wide ? dictIn.readInt() : dictIn.readChar()];
+                }
+                return values;
+
+            case KIND_VALUES :
+                DataInputStream in = stream(data, rawLength);
+                for (int row = 0 ; row < rowCount ; row++)
+                {
+                    values[row] = CellCodec.readValue(in);
+                }
+                return values;
+
+            default :
+                throw new IOException("table file is corrupt: invalid section kind " + kind);
+        }
+    }
+
+
+    private static boolean isNull(long[] nulls, int row)
+    {
+        return (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+
+    /**
+     *  Creates a model with the file's columns and the right number of empty
+     *  rows, ready for {@link ExpandingTableModel#loadColumn}.
+     */
+    private static ExpandingTableModel createModel(Object[] names, Class<?>[] classes, boolean[] encoded,
+                                                   int rowCount)
+    {
+        ExpandingTableModel model = new ExpandingTableModel(new Object[0][], names, classes);
+        model.setWidth(names.length);
+        for (int col = 0 ; col < encoded.length ; col++)
+        {
+            if (encoded[col])
+                model.setDictionaryEncoded(col, true);
+        }
+        model.addRows(Collections.nCopies(rowCount, new Object[0]));
+        return model;
+    }
+}
@@ -0,0 +1,59 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import javax.swing.RowFilter;
+import javax.swing.table.TableModel;
+
+
+/**
+ *  A <code>RowFilter</code> that includes the rows set in a precomputed
+ *  {@link RowBitmap}. The per-row test is a single bit lookup, so the
+ *  sorter's filtering pass costs almost nothing; the actual work happens
+ *  when the bitmap is evaluated (see {@link TableFilter}).
+ *  <p>
+ *  Rows past the end of the bitmap are included. These are rows that were
+ *  added to the model after the bitmap was computed (including the "phantom"
+ *  row of an {@link ExpandingTableModel}), and hiding them would make it
+ *  impossible to see new data.
+ */
+public class BitmapRowFilter
+extends RowFilter<TableModel,Integer>
+{
+    private RowBitmap _bitmap;
+
+
+    public BitmapRowFilter(RowBitmap bitmap)
+    {
+        _bitmap = bitmap;
+    }
+
+
+    /**
+     *  Returns the bitmap used by this filter.
+     */
+    public RowBitmap getBitmap()
+    {
+        return _bitmap;
+    }
+
+
+    @Override
+    public boolean include(Entry<? extends TableModel,? extends Integer> entry)
+    {
+        int row = entry.getIdentifier().intValue();
+        return (row >= _bitmap.size()) || _bitmap.get(row);
+    }
+}
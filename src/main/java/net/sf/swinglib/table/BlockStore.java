@@ -0,0 +1,1368 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+
+/**
+ *  Cell storage for {@link ExpandingTableModel}. Rows are grouped into blocks
+ *  of {@link #BLOCK_SIZE}; within a block, each column is held in its own
+ *  array. An ordinary column is an <code>Object[]</code>; a dictionary-encoded
+ *  column is a <code>char[]</code> of codes, widened to <code>int[]</code>
+ *  if its dictionary outgrows 16 bits.
+ *  <p>
+ *  The arrays of the last block grow as rows are appended, so a small model
+ *  does not pay for a full block.
+ *  <p>
+ *  If given a heap budget, the store estimates the size of each block, and
+ *  when the total exceeds the budget writes the least-recently-used blocks
+ *  to a temporary file (cells are written using {@link CellCodec}) and
+ *  releases their arrays. A spilled block is read back when next accessed.
+ *  Blocks that are unchanged since they were last written are simply
+ *  released. Dictionaries always remain on the heap.
+ *  <p>
+ *  Modifications are synchronized. Reads are only synchronized when there's
+ *  a budget (since a read may load a block); without one, a read is a pair
+ *  of array accesses.
+ *  <p>
+ *  A read-only snapshot (see {@link #snapshot}) shares the store's blocks
+ *  rather than copying them. Each snapshot starts a new epoch; a block that
+ *  belongs to an earlier epoch may be visible to a snapshot, so it's copied
+ *  (and the copy replaces it in the store) before it is first modified. The
+ *  snapshot keeps the original, which is never modified again and therefore
+ *  may be read from any thread. Snapshots of a store with a budget read
+ *  shared blocks through the store, since they may be spilled.
+ *  <p>
+ *  With a budget, a block that is replaced or removed while a snapshot may
+ *  still read it is retired: it remains in the LRU list, so counts against
+ *  the budget and may be spilled (keeping its own extent of the spill file),
+ *  until every snapshot that could read it has been disposed or garbage
+ *  collected. Its extent is then freed for reuse. Without a budget, such a
+ *  block is simply left to the snapshots that refer to it.
+ *  <p>
+ *  This class does no bounds checking beyond that done by the JVM; the model
+ *  is responsible for passing valid rows and columns.
+ */
+final class BlockStore
+extends CellStore
+{
+    private static final long serialVersionUID = 1L;
+
+    final static int BLOCK_SHIFT = 12;
+    final static int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    final static int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private final static int MAX_CHAR_CODES = 1 << 16;
+
+    private final static byte KIND_OBJECT = 0;
+    private final static byte KIND_CHAR = 1;
+    private final static byte KIND_INT = 2;
+
+    private int _width;
+    private int _size;
+    private transient ArrayList<Block> _blocks = new ArrayList<Block>();
+    private ArrayList<ColumnDictionary> _dictionaries = new ArrayList<ColumnDictionary>();
+
+    // copy-on-write: blocks created before the current epoch, and the block
+    // list itself if shared, may be visible to a snapshot; the owner is the
+    // store that manages spilling (for a snapshot, the store it was taken of)
+
+    private transient int _epoch;
+    private transient boolean _blocksShared;
+    private transient BlockStore _owner = this;
+
+    // the snapshots that haven't been disposed or collected, and (with a
+    // budget) the retired blocks that one of them may still read
+
+    private transient ArrayList<SnapshotRef> _snapshots = new ArrayList<SnapshotRef>();
+    private transient ReferenceQueue<BlockStore> _collected = new ReferenceQueue<BlockStore>();
+    private transient ArrayList<Block> _retired = new ArrayList<Block>();
+
+    // spill management: a budget of 0 means unlimited, in which case there's
+    // no spill file and the LRU list isn't maintained
+
+    private long _budget;
+    private File _spillDir;
+    private transient volatile SpillFile _spill;
+    private transient LinkedHashMap<Block,Block> _lru;
+    private transient Block _mru;
+    private transient long _residentBytes;
+
+
+    public BlockStore(int width)
+    {
+        setWidth(width);
+    }
+
+
+    /**
+     *  Creates an instance holding a copy of another store's cells.
+     */
+    public BlockStore(CellStore src)
+    {
+        this(src.width());
+        for (int row = 0 ; row < src.size() ; row++)
+        {
+            addRow();
+            for (int col = 0 ; col < _width ; col++)
+            {
+                Object value = src.get(row, col);
+                if (value != null)
+                    set(row, col, value);
+            }
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Cell access
+//----------------------------------------------------------------------------
+
+    @Override
+    public int size()
+    {
+        return _size;
+    }
+
+
+    @Override
+    public int width()
+    {
+        return _width;
+    }
+
+
+    @Override
+    public Object get(int row, int col)
+    {
+        Object data = columns(row >>> BLOCK_SHIFT)[col];
+        int idx = row & BLOCK_MASK;
+        if (data instanceof Object[])
+            return ((Object[])data)[idx];
+        return _dictionaries.get(col).decode(code(data, idx));
+    }
+
+
+    @Override
+    public synchronized Object set(int row, int col, Object value)
+    {
+        Block block = writable(row >>> BLOCK_SHIFT);
+        Object data = block.columns[col];
+        int idx = row & BLOCK_MASK;
+        if (data instanceof Object[])
+        {
+            Object[] values = (Object[])data;
+            Object oldValue = values[idx];
+            values[idx] = value;
+            adjust(block, CellCodec.estimateSize(value) - CellCodec.estimateSize(oldValue));
+            return oldValue;
+        }
+
+        ColumnDictionary dict = _dictionaries.get(col);
+        Object oldValue = dict.decode(code(data, idx));
+        int code = dict.encode(value);
+        if ((code >= MAX_CHAR_CODES) && (data instanceof char[]))
+        {
+            widenCodes(col);
+            data = resident(block, true)[col];
+        }
+        if (data instanceof char[])
+            ((char[])data)[idx] = (char)code;
+        else
+            ((int[])data)[idx] = code;
+        return oldValue;
+    }
+
+
+    @Override
+    public synchronized int addRow()
+    {
+        checkWritable();
+        int row = _size;
+        int idx = row & BLOCK_MASK;
+        if (idx == 0)
+        {
+            Block block = createBlock();
+            ownBlocks().add(block);
+            if (_spill != null)
+            {
+                admit(block);
+                trim(block);
+            }
+        }
+
+        Block block = _blocks.get(row >>> BLOCK_SHIFT);
+        resident(block, true);
+        if (idx >= block.capacity)
+        {
+            block = writable(row >>> BLOCK_SHIFT);
+            long oldBytes = arrayBytes(block);
+            block.grow(Math.min(BLOCK_SIZE, block.capacity * 2));
+            adjust(block, arrayBytes(block) - oldBytes);
+        }
+
+        _size++;
+        return row;
+    }
+
+
+    /**
+     *  Writes directly into the arrays of plain columns, rather than going
+     *  through {@link #set}; this is a large part of the cost of a bulk load.
+     */
+    @Override
+    public synchronized void appendRows(List<Object[]> rows)
+    {
+        for (Object[] rowData : rows)
+        {
+            int row = addRow();
+            Object[] columns = (_spill == null) ? writable(row >>> BLOCK_SHIFT).columns : null;
+            int idx = row & BLOCK_MASK;
+            for (int col = 0 ; col < rowData.length ; col++)
+            {
+                Object value = rowData[col];
+                if (value == null)
+                    continue;
+                if ((columns != null) && (columns[col] instanceof Object[]))
+                    ((Object[])columns[col])[idx] = value;
+                else
+                    set(row, col, value);
+            }
+        }
+    }
+
+
+    /**
+     *  Moves existing rows with <code>System.arraycopy()</code>, a block
+     *  segment at a time, rather than cell by cell.
+     */
+    @Override
+    public synchronized void insertRows(int index, List<Object[]> rows)
+    {
+        int count = rows.size();
+        int oldSize = _size;
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            addRow();
+        }
+        copyRows(index, index + count, oldSize - index);
+        clearRows(index, index + count);
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            Object[] rowData = rows.get(ii);
+            for (int col = 0 ; col < rowData.length ; col++)
+            {
+                if (rowData[col] != null)
+                    set(index + ii, col, rowData[col]);
+            }
+        }
+    }
+
+
+    @Override
+    public synchronized void removeRows(int first, int count)
+    {
+        copyRows(first + count, first, _size - first - count);
+        truncate(_size - count);
+    }
+
+
+    @Override
+    public synchronized void truncate(int size)
+    {
+        checkWritable();
+        if (size >= _size)
+            return;
+
+        int blockCount = (size + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        clearRows(size, Math.min(_size, blockCount << BLOCK_SHIFT));
+        ArrayList<Block> blocks = ownBlocks();
+        while (blocks.size() > blockCount)
+        {
+            retire(blocks.remove(blocks.size() - 1));
+        }
+        _size = size;
+    }
+
+
+    /**
+     *  Builds the new arrangement of rows in fresh blocks, copying runs of
+     *  kept rows with <code>System.arraycopy()</code>; each row is copied
+     *  once, however many ranges change. Blocks that are entirely unaffected
+     *  (those before the first change, if it's not at the start of a block)
+     *  are retained as-is. The replaced blocks are left untouched and retired,
+     *  so remain valid for any snapshot that refers to them.
+     */
+    @Override
+    public synchronized void splice(int[] deleted, int[] inserted, List<Object[]> rows)
+    {
+        checkWritable();
+        int newSize = _size - deleted.length + inserted.length;
+        ArrayList<Block> newBlocks = new ArrayList<Block>((newSize + BLOCK_MASK) >>> BLOCK_SHIFT);
+        boolean[] retained = new boolean[_blocks.size()];
+
+        int src = 0;
+        int del = 0;
+        int ins = 0;
+        for (int dst = 0 ; dst < newSize ; )
+        {
+            int end = Math.min(newSize, dst + BLOCK_SIZE);
+            int nextDelete = (del < deleted.length) ? deleted[del] : Integer.MAX_VALUE;
+            int nextInsert = (ins < inserted.length) ? inserted[ins] : Integer.MAX_VALUE;
+            if ((src == dst) && (nextDelete >= end) && (nextInsert >= end)
+                    && ((end - dst == BLOCK_SIZE) || (newSize == _size)))
+            {
+                retained[dst >>> BLOCK_SHIFT] = true;
+                newBlocks.add(_blocks.get(dst >>> BLOCK_SHIFT));
+                src = end;
+                dst = end;
+                continue;
+            }
+
+            Block block = createBlock();
+            int capacity = block.capacity;
+            while (capacity < end - dst)
+            {
+                capacity *= 2;
+            }
+            block.grow(capacity);
+
+            while (dst < end)
+            {
+                if ((ins < inserted.length) && (inserted[ins] == dst))
+                {
+                    // left empty, filled below
+                    ins++;
+                    dst++;
+                    continue;
+                }
+                while ((del < deleted.length) && (deleted[del] == src))
+                {
+                    del++;
+                    src++;
+                }
+
+                nextDelete = (del < deleted.length) ? deleted[del] : Integer.MAX_VALUE;
+                nextInsert = (ins < inserted.length) ? inserted[ins] : Integer.MAX_VALUE;
+                int len = Math.min(end, nextInsert) - dst;
+                len = Math.min(len, nextDelete - src);
+                len = Math.min(len, BLOCK_SIZE - (src & BLOCK_MASK));
+                Object[] srcColumns = columns(src >>> BLOCK_SHIFT);
+                for (int col = 0 ; col < _width ; col++)
+                {
+                    System.arraycopy(srcColumns[col], src & BLOCK_MASK,
+                                     block.columns[col], dst & BLOCK_MASK, len);
+                }
+                src += len;
+                dst += len;
+            }
+
+            newBlocks.add(block);
+            if (_spill != null)
+            {
+                admit(block);
+                trim(block);
+            }
+        }
+
+        for (int ii = 0 ; ii < retained.length ; ii++)
+        {
+            if (!retained[ii])
+                retire(_blocks.get(ii));
+        }
+        _blocks = newBlocks;
+        _blocksShared = false;
+        _size = newSize;
+
+        for (int ii = 0 ; ii < inserted.length ; ii++)
+        {
+            Object[] rowData = rows.get(ii);
+            for (int col = 0 ; col < rowData.length ; col++)
+            {
+                if (rowData[col] != null)
+                    set(inserted[ii], col, rowData[col]);
+            }
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Column structure
+//----------------------------------------------------------------------------
+
+    @Override
+    public synchronized void setWidth(int width)
+    {
+        checkWritable();
+        for (int ii = 0 ; ii < _blocks.size() ; ii++)
+        {
+            Block block = writable(ii);
+            block.setWidth(width);
+            reestimate(block);
+        }
+
+        while (_dictionaries.size() > width)
+        {
+            _dictionaries.remove(_dictionaries.size() - 1);
+        }
+        while (_dictionaries.size() < width)
+        {
+            _dictionaries.add(null);
+        }
+
+        _width = width;
+    }
+
+
+    @Override
+    public ColumnDictionary getDictionary(int col)
+    {
+        return _dictionaries.get(col);
+    }
+
+
+    @Override
+    public int getCode(int row, int col)
+    {
+        return code(columns(row >>> BLOCK_SHIFT)[col], row & BLOCK_MASK);
+    }
+
+
+    @Override
+    public synchronized void setEncoded(int col, boolean encoded)
+    {
+        checkWritable();
+        if (encoded == (_dictionaries.get(col) != null))
+            return;
+
+        if (encoded)
+        {
+            // build the dictionary first, so we know how wide the codes are
+            ColumnDictionary dict = new ColumnDictionary();
+            for (Block block : _blocks)
+            {
+                for (Object value : (Object[])resident(block, false)[col])
+                {
+                    dict.encode(value);
+                }
+            }
+
+            boolean wide = dict.size() > MAX_CHAR_CODES;
+            for (int ii = 0 ; ii < _blocks.size() ; ii++)
+            {
+                Block block = writable(ii);
+                Object[] values = (Object[])block.columns[col];
+                char[] charCodes = wide ? null : new char[block.capacity];
+                int[] intCodes = wide ? new int[block.capacity] : null;
+                for (int jj = 0 ; jj < values.length ; jj++)
+                {
+                    int code = dict.lookup(values[jj]);
+                    if (wide)
+                        intCodes[jj] = code;
+                    else
+                        charCodes[jj] = (char)code;
+                }
+                block.columns[col] = wide ? (Object)intCodes : (Object)charCodes;
+                reestimate(block);
+            }
+            _dictionaries.set(col, dict);
+        }
+        else
+        {
+            ColumnDictionary dict = _dictionaries.get(col);
+            for (int ii = 0 ; ii < _blocks.size() ; ii++)
+            {
+                Block block = writable(ii);
+                Object data = block.columns[col];
+                Object[] values = new Object[block.capacity];
+                for (int jj = 0 ; jj < values.length ; jj++)
+                {
+                    values[jj] = dict.decode(code(data, jj));
+                }
+                block.columns[col] = values;
+                reestimate(block);
+            }
+            _dictionaries.set(col, null);
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Snapshots
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns a read-only store holding the current contents of this store.
+     *  This takes constant time: the snapshot shares this store's blocks, and
+     *  a block is copied only when this store next modifies it. Taking a
+     *  snapshot of a snapshot returns the same object.
+     */
+    @Override
+    public synchronized CellStore snapshot()
+    {
+        if (_owner != this)
+            return this;
+
+        BlockStore snapshot = new BlockStore(0);
+        snapshot._width = _width;
+        snapshot._size = _size;
+        snapshot._blocks = _blocks;
+        snapshot._dictionaries = new ArrayList<ColumnDictionary>(_dictionaries);
+        snapshot._owner = this;
+
+        pollCollected();
+        _snapshots.add(new SnapshotRef(snapshot, _epoch, _collected));
+        _blocksShared = true;
+        _epoch++;
+        return snapshot;
+    }
+
+
+    /**
+     *  For a snapshot, tells the store that it was taken from that the
+     *  snapshot will no longer be read, so that blocks retired since it was
+     *  taken may be freed. Does nothing for the store itself.
+     */
+    @Override
+    public void dispose()
+    {
+        BlockStore owner = _owner;
+        if (owner == this)
+            return;
+
+        synchronized (owner)
+        {
+            for (Iterator<SnapshotRef> itx = owner._snapshots.iterator() ; itx.hasNext() ; )
+            {
+                SnapshotRef ref = itx.next();
+                if (ref.get() == this)
+                {
+                    ref.clear();
+                    itx.remove();
+                    owner.sweepRetired();
+                    return;
+                }
+            }
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Heap budget
+//----------------------------------------------------------------------------
+
+    /**
+     *  Sets the approximate number of bytes that resident blocks may occupy
+     *  before the least-recently-used blocks are spilled to disk. A budget of
+     *  0 disables spilling, and reads any spilled blocks back into memory.
+     *
+     *  @param  budget      The budget, in bytes.
+     *  @param  directory   The directory for the spill file; <code>null</code>
+     *                      uses the system's temporary directory. Ignored if
+     *                      the store already has a spill file.
+     *
+     *  @throws IOException if unable to create the spill file.
+     */
+    @Override
+    public synchronized void setBudget(long budget, File directory)
+    throws IOException
+    {
+        checkWritable();
+        if (budget < 0)
+            throw new IllegalArgumentException("invalid heap budget: " + budget);
+
+        if ((budget == 0) && (_spill != null))
+        {
+            _budget = Long.MAX_VALUE;
+            for (Block block : _blocks)
+            {
+                resident(block, false);
+            }
+            for (Block block : _retired)
+            {
+                resident(block, false);
+                block.detached = true;
+            }
+            _retired.clear();
+            _spill.close();
+            _spill = null;
+            _lru = null;
+            _mru = null;
+            _residentBytes = 0;
+            _spillDir = null;
+        }
+        else if ((budget > 0) && (_spill == null))
+        {
+            _spill = new SpillFile(directory);
+            _spillDir = directory;
+            _lru = new LinkedHashMap<Block,Block>(16, 0.75f, true);
+            _residentBytes = 0;
+            for (Block block : _blocks)
+            {
+                block.offset = -1;
+                block.length = 0;
+                admit(block);
+            }
+        }
+
+        _budget = budget;
+        trim(null);
+    }
+
+
+    @Override
+    public long getBudget()
+    {
+        return _budget;
+    }
+
+
+    /**
+     *  Spills every resident block except the most recently used. Does nothing
+     *  if there's no budget, or for a snapshot (whose blocks are managed by
+     *  the store that it was taken from).
+     */
+    @Override
+    public synchronized void releaseMemory()
+    {
+        if ((_spill == null) || (_owner != this))
+            return;
+
+        for (Iterator<Block> itx = _lru.keySet().iterator() ; itx.hasNext() ; )
+        {
+            Block block = itx.next();
+            if (block == _mru)
+                continue;
+            spill(block);
+            itx.remove();
+        }
+    }
+
+
+    /**
+     *  Returns the estimated size of the blocks currently held in memory; 0 if
+     *  there is no budget.
+     */
+    public synchronized long getResidentBytes()
+    {
+        return _residentBytes;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals -- block access
+//----------------------------------------------------------------------------
+
+    private static int code(Object data, int idx)
+    {
+        return (data instanceof char[])
+               ? ((char[])data)[idx]
+               : ((int[])data)[idx];
+    }
+
+
+    /**
+     *  Returns the column arrays of a block for reading. Without a budget this
+     *  is just a field access (the arrays are never released). A snapshot
+     *  goes through the store that owns its blocks.
+     */
+    private Object[] columns(int blockIdx)
+    {
+        Block block = _blocks.get(blockIdx);
+        BlockStore owner = _owner;
+        if (owner._spill == null)
+        {
+            Object[] columns = block.columns;
+            if (columns != null)
+                return columns;
+        }
+
+        synchronized (owner)
+        {
+            return owner.resident(block, false);
+        }
+    }
+
+
+    /**
+     *  Returns a block that may be modified, first replacing it with a copy
+     *  if it may be visible to a snapshot. The block is resident and marked
+     *  as modified. Must be called while synchronized.
+     */
+    private Block writable(int blockIdx)
+    {
+        checkWritable();
+        Block block = _blocks.get(blockIdx);
+        if (block.epoch == _epoch)
+        {
+            resident(block, true);
+            return block;
+        }
+
+        // the copy gets its own extent of the spill file when spilled; the
+        // original keeps its extent until retired
+        resident(block, false);
+        Block copy = block.copy();
+        copy.epoch = _epoch;
+        ownBlocks().set(blockIdx, copy);
+        if (_spill != null)
+            admit(copy);
+        retire(block);
+        trim(copy);
+        return copy;
+    }
+
+
+    /**
+     *  Creates an empty block belonging to the current epoch, with the column
+     *  arrays appropriate to each column's encoding.
+     */
+    private Block createBlock()
+    {
+        Block block = new Block(_width);
+        for (int col = 0 ; col < _width ; col++)
+        {
+            ColumnDictionary dict = _dictionaries.get(col);
+            if (dict != null)
+                block.columns[col] = (dict.size() > MAX_CHAR_CODES)
+                                   ? (Object)new int[block.capacity]
+                                   : (Object)new char[block.capacity];
+        }
+        block.epoch = _epoch;
+        return block;
+    }
+
+
+    /**
+     *  Called for a block that has been removed from the store, or replaced
+     *  by a copy. If a live snapshot may read the block, it's kept: without a
+     *  budget it's detached (held only by the snapshots), while with a budget
+     *  it stays in the LRU list, spilled or not, until {@link #sweepRetired}
+     *  finds that no snapshot can read it. Otherwise it's freed immediately.
+     *  Must be called while synchronized.
+     */
+    private void retire(Block block)
+    {
+        block.retiredAt = _epoch;
+        pollCollected();
+        if (!isVisible(block))
+            free(block);
+        else if (_spill == null)
+            block.detached = true;
+        else
+            _retired.add(block);
+    }
+
+
+    /**
+     *  Determines whether a retired block may be read by a live snapshot:
+     *  one taken after the block was created, and before it was retired.
+     */
+    private boolean isVisible(Block block)
+    {
+        for (SnapshotRef ref : _snapshots)
+        {
+            if ((ref.epoch >= block.epoch) && (ref.epoch < block.retiredAt))
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     *  Removes garbage-collected snapshots, freeing any retired blocks that
+     *  are no longer visible.
+     */
+    private void pollCollected()
+    {
+        boolean changed = false;
+        for (Reference<?> ref = _collected.poll() ; ref != null ; ref = _collected.poll())
+        {
+            _snapshots.remove(ref);
+            changed = true;
+        }
+        if (changed)
+            sweepRetired();
+    }
+
+
+    /**
+     *  Frees the retired blocks that no live snapshot can read.
+     */
+    private void sweepRetired()
+    {
+        for (Iterator<Block> itx = _retired.iterator() ; itx.hasNext() ; )
+        {
+            Block block = itx.next();
+            if (!isVisible(block))
+            {
+                free(block);
+                itx.remove();
+            }
+        }
+    }
+
+
+    /**
+     *  Releases a block that no longer belongs to the store and can't be read
+     *  by any snapshot: its place in the LRU list and its spill extent.
+     */
+    private void free(Block block)
+    {
+        if (_spill == null)
+            return;
+
+        if (_lru.remove(block) != null)
+            _residentBytes -= block.bytes;
+        if (block == _mru)
+            _mru = null;
+        if (block.offset >= 0)
+            _spill.free(block.offset, block.length);
+        block.offset = -1;
+        block.length = 0;
+        block.columns = null;
+    }
+
+
+    /**
+     *  Returns the block list for modification, copying it if it's shared
+     *  with a snapshot.
+     */
+    private ArrayList<Block> ownBlocks()
+    {
+        if (_blocksShared)
+        {
+            _blocks = new ArrayList<Block>(_blocks);
+            _blocksShared = false;
+        }
+        return _blocks;
+    }
+
+
+    private void checkWritable()
+    {
+        if (_owner != this)
+            throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+
+    /**
+     *  Ensures that a block is in memory and marks it as most-recently-used,
+     *  returning its column arrays. If the caller will modify the block, it
+     *  must pass <code>modify</code>, so that the block is rewritten when next
+     *  spilled. Must be called while synchronized.
+     */
+    private Object[] resident(Block block, boolean modify)
+    {
+        if ((_spill == null) || block.detached)
+            return block.columns;
+
+        boolean loaded = false;
+        if (block.columns == null)
+        {
+            load(block);
+            loaded = true;
+        }
+        else if (block != _mru)
+        {
+            _lru.get(block);
+        }
+        _mru = block;
+
+        if (modify)
+            block.dirty = true;
+        if (loaded)
+            trim(block);
+        return block.columns;
+    }
+
+
+    /**
+     *  Adds a newly created block to the LRU list and resident total.
+     */
+    private void admit(Block block)
+    {
+        block.bytes = estimate(block);
+        block.dirty = true;
+        _residentBytes += block.bytes;
+        _lru.put(block, block);
+        _mru = block;
+    }
+
+
+    /**
+     *  Updates a resident block's size estimate, spilling other blocks if
+     *  that puts us over budget.
+     */
+    private void adjust(Block block, long delta)
+    {
+        if (_spill == null)
+            return;
+
+        block.bytes += delta;
+        _residentBytes += delta;
+        trim(block);
+    }
+
+
+    private void reestimate(Block block)
+    {
+        if (_spill != null)
+            adjust(block, estimate(block) - block.bytes);
+    }
+
+
+    /**
+     *  Spills least-recently-used blocks until under budget. Never spills the
+     *  passed block (which the caller is about to use).
+     */
+    private void trim(Block keep)
+    {
+        if (_spill == null)
+            return;
+
+        pollCollected();
+        Iterator<Block> itx = _lru.keySet().iterator();
+        while ((_residentBytes > _budget) && itx.hasNext())
+        {
+            Block block = itx.next();
+            if (block == keep)
+                continue;
+
+            spill(block);
+            itx.remove();
+            if (block == _mru)
+                _mru = null;
+        }
+    }
+
+
+    private void spill(Block block)
+    {
+        if (block.dirty || (block.offset < 0))
+        {
+            try
+            {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(block.length + 64);
+                writeColumns(new DataOutputStream(bos), block.columns);
+                byte[] data = bos.toByteArray();
+                if (data.length > block.length)
+                {
+                    // outgrew its extent (or has none): move to a new one
+                    if (block.offset >= 0)
+                        _spill.free(block.offset, block.length);
+                    block.offset = -1;
+                    block.length = data.length;
+                }
+                block.offset = _spill.write(block.offset, data, data.length);
+                block.dirty = false;
+            }
+            catch (IOException ex)
+            {
+                throw new IllegalStateException("unable to spill block", ex);
+            }
+        }
+
+        block.columns = null;
+        _residentBytes -= block.bytes;
+    }
+
+
+    private void load(Block block)
+    {
+        block.columns = readSpilled(block);
+        block.bytes = estimate(block);
+        _residentBytes += block.bytes;
+        _lru.put(block, block);
+    }
+
+
+    private Object[] readSpilled(Block block)
+    {
+        try
+        {
+            byte[] data = _spill.read(block.offset, block.length);
+            return readColumns(new DataInputStream(new ByteArrayInputStream(data)), block.capacity);
+        }
+        catch (IOException ex)
+        {
+            throw new IllegalStateException("unable to read spilled block", ex);
+        }
+    }
+
+
+    /**
+     *  Copies a range of rows to another position, which may overlap. The
+     *  copy proceeds one block segment at a time, in the direction that
+     *  doesn't overwrite rows before they're copied. Within a column, all
+     *  blocks hold the same kind of array, so codes are copied as-is.
+     */
+    private void copyRows(int src, int dst, int count)
+    {
+        boolean forward = dst < src;
+        int done = 0;
+        while (done < count)
+        {
+            // for a backward copy, positions are the ends of the segment
+            int srcPos = forward ? src + done : src + count - done - 1;
+            int dstPos = forward ? dst + done : dst + count - done - 1;
+            int srcIdx = srcPos & BLOCK_MASK;
+            int dstIdx = dstPos & BLOCK_MASK;
+            int len = forward
+                    ? Math.min(count - done, BLOCK_SIZE - Math.max(srcIdx, dstIdx))
+                    : Math.min(count - done, Math.min(srcIdx, dstIdx) + 1);
+            if (!forward)
+            {
+                srcIdx -= len - 1;
+                dstIdx -= len - 1;
+            }
+
+            // the source must be fetched first: making the destination
+            // resident may spill the source, but not the reverse
+            Object[] srcColumns = columns(srcPos >>> BLOCK_SHIFT);
+            Block dstBlock = writable(dstPos >>> BLOCK_SHIFT);
+            for (int col = 0 ; col < _width ; col++)
+            {
+                System.arraycopy(srcColumns[col], srcIdx, dstBlock.columns[col], dstIdx, len);
+            }
+            reestimate(dstBlock);
+            done += len;
+        }
+    }
+
+
+    /**
+     *  Sets all cells in a range of rows (end exclusive) to <code>null</code>.
+     */
+    private void clearRows(int start, int end)
+    {
+        for (int row = start ; row < end ; )
+        {
+            int idx = row & BLOCK_MASK;
+            int len = Math.min(end - row, BLOCK_SIZE - idx);
+            Block block = writable(row >>> BLOCK_SHIFT);
+            for (Object data : block.columns)
+            {
+                if (data instanceof Object[])
+                    Arrays.fill((Object[])data, idx, idx + len, null);
+                else if (data instanceof char[])
+                    Arrays.fill((char[])data, idx, idx + len, (char)0);
+                else
+                    Arrays.fill((int[])data, idx, idx + len, 0);
+            }
+            reestimate(block);
+            row += len;
+        }
+    }
+
+
+    /**
+     *  Converts a column's codes from <code>char</code> to <code>int</code>
+     *  in all blocks.
+     */
+    private void widenCodes(int col)
+    {
+        for (int ii = 0 ; ii < _blocks.size() ; ii++)
+        {
+            Block block = writable(ii);
+            Object data = block.columns[col];
+            if (data instanceof char[])
+            {
+                char[] oldCodes = (char[])data;
+                int[] newCodes = new int[oldCodes.length];
+                for (int jj = 0 ; jj < oldCodes.length ; jj++)
+                {
+                    newCodes[jj] = oldCodes[jj];
+                }
+                block.columns[col] = newCodes;
+                reestimate(block);
+            }
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals -- size estimates and binary form
+//----------------------------------------------------------------------------
+
+    /**
+     *  Estimates the heap size of a block's arrays, excluding cell values.
+     */
+    private static long arrayBytes(Block block)
+    {
+        long bytes = 32 + 16 + 4L * block.columns.length;
+        for (Object data : block.columns)
+        {
+            int cellBytes = (data instanceof char[]) ? 2 : 4;
+            bytes += 16 + (long)cellBytes * block.capacity;
+        }
+        return bytes;
+    }
+
+
+    private static long estimate(Block block)
+    {
+        long bytes = arrayBytes(block);
+        for (Object data : block.columns)
+        {
+            if (data instanceof Object[])
+            {
+                for (Object value : (Object[])data)
+                {
+                    bytes += CellCodec.estimateSize(value);
+                }
+            }
+        }
+        return bytes;
+    }
+
+
+    /**
+     *  Writes a block's columns: the column count, then for each column a kind
+     *  byte followed by one entry per row of the block's capacity.
+     */
+    private static void writeColumns(DataOutputStream out, Object[] columns)
+    throws IOException
+    {
+        out.writeInt(columns.length);
+        for (Object data : columns)
+        {
+            if (data instanceof Object[])
+            {
+                out.writeByte(KIND_OBJECT);
+                for (Object value : (Object[])data)
+                {
+                    CellCodec.writeValue(out, value);
+                }
+            }
+            else if (data instanceof char[])
+            {
+                out.writeByte(KIND_CHAR);
+                for (char code : (char[])data)
+                {
+                    out.writeChar(code);
+                }
+            }
+            else
+            {
+                out.writeByte(KIND_INT);
+                for (int code : (int[])data)
+                {
+                    out.writeInt(code);
+                }
+            }
+        }
+        out.flush();
+    }
+
+
+    private static Object[] readColumns(DataInputStream in, int capacity)
+    throws IOException
+    {
+        Object[] columns = new Object[in.readInt()];
+        for (int col = 0 ; col < columns.length ; col++)
+        {
+            byte kind = in.readByte();
+            if (kind == KIND_OBJECT)
+            {
+                Object[] values = new Object[capacity];
+                for (int ii = 0 ; ii < capacity ; ii++)
+                {
+                    values[ii] = CellCodec.readValue(in);
+                }
+                columns[col] = values;
+            }
+            else if (kind == KIND_CHAR)
+            {
+                char[] codes = new char[capacity];
+                for (int ii = 0 ; ii < capacity ; ii++)
+                {
+                    codes[ii] = in.readChar();
+                }
+                columns[col] = codes;
+            }
+            else
+            {
+                int[] codes = new int[capacity];
+                for (int ii = 0 ; ii < capacity ; ii++)
+                {
+                    codes[ii] = in.readInt();
+                }
+                columns[col] = codes;
+            }
+        }
+        return columns;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Serialization -- blocks are written one at a time in their binary form,
+//  so that spilled blocks don't have to be loaded all at once; on read, the
+//  budget is applied as blocks arrive
+//----------------------------------------------------------------------------
+
+    private synchronized void writeObject(ObjectOutputStream out)
+    throws IOException
+    {
+        out.defaultWriteObject();
+        out.writeInt(_blocks.size());
+        for (int ii = 0 ; ii < _blocks.size() ; ii++)
+        {
+            out.writeInt(_blocks.get(ii).capacity);
+            writeColumns(new DataOutputStream(out), columns(ii));
+        }
+    }
+
+
+    private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        _owner = this;
+        _blocks = new ArrayList<Block>();
+        _snapshots = new ArrayList<SnapshotRef>();
+        _collected = new ReferenceQueue<BlockStore>();
+        _retired = new ArrayList<Block>();
+        if (_budget > 0)
+        {
+            _spill = new SpillFile(_spillDir);
+            _lru = new LinkedHashMap<Block,Block>(16, 0.75f, true);
+        }
+
+        int count = in.readInt();
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            Block block = new Block(0);
+            block.capacity = in.readInt();
+            block.columns = readColumns(new DataInputStream(in), block.capacity);
+            _blocks.add(block);
+            if (_spill != null)
+            {
+                admit(block);
+                trim(block);
+            }
+        }
+    }
+
+
+    /**
+     *  Tracks a snapshot, and the epoch of the blocks it can see, without
+     *  keeping it reachable.
+     */
+    private static class SnapshotRef
+    extends WeakReference<BlockStore>
+    {
+        public int epoch;
+
+        public SnapshotRef(BlockStore snapshot, int snapshotEpoch, ReferenceQueue<BlockStore> queue)
+        {
+            super(snapshot, queue);
+            epoch = snapshotEpoch;
+        }
+    }
+
+
+    /**
+     *  A group of up to <code>BLOCK_SIZE</code> rows, stored by column. All
+     *  column arrays have the same length (the block's capacity). While the
+     *  block is spilled its column arrays are <code>null</code>; it records
+     *  the location of its data in the spill file. A block that has been
+     *  retired (see {@link BlockStore#retire}) without a budget is detached:
+     *  it is only referenced by snapshots, and is never spilled.
+     */
+    private static class Block
+    {
+        public Object[] columns;
+        public int capacity;
+        public int epoch;
+        public int retiredAt;
+        public boolean detached;
+
+        public long bytes;
+        public boolean dirty;
+        public long offset = -1;
+        public int length;
+
+        public Block(int width)
+        {
+            capacity = 16;
+            columns = new Object[0];
+            setWidth(width);
+        }
+
+        public void setWidth(int width)
+        {
+            Object[] newColumns = new Object[width];
+            System.arraycopy(columns, 0, newColumns, 0, Math.min(width, columns.length));
+            for (int col = columns.length ; col < width ; col++)
+            {
+                newColumns[col] = new Object[capacity];
+            }
+            columns = newColumns;
+        }
+
+        public Block copy()
+        {
+            Block copy = new Block(0);
+            copy.capacity = capacity;
+            copy.columns = new Object[columns.length];
+            for (int col = 0 ; col < columns.length ; col++)
+            {
+                Object data = columns[col];
+                if (data instanceof Object[])
+                    copy.columns[col] = ((Object[])data).clone();
+                else if (data instanceof char[])
+                    copy.columns[col] = ((char[])data).clone();
+                else
+                    copy.columns[col] = ((int[])data).clone();
+            }
+            return copy;
+        }
+
+        public void grow(int newCapacity)
+        {
+            for (int col = 0 ; col < columns.length ; col++)
+            {
+                Object data = columns[col];
+                Object newData;
+                if (data instanceof Object[])
+                    newData = new Object[newCapacity];
+                else if (data instanceof char[])
+                    newData = new char[newCapacity];
+                else
+                    newData = new int[newCapacity];
+                System.arraycopy(data, 0, newData, 0, capacity);
+                columns[col] = newData;
+            }
+            capacity = newCapacity;
+        }
+    }
+}
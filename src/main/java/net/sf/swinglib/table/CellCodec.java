@@ -0,0 +1,247 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+
+
+/**
+ *  Reads and writes individual cell values in a compact binary form: a tag
+ *  byte followed by the value. The common cell types (strings, boxed
+ *  primitives, dates, and big numbers) have their own tags; anything else
+ *  is written using Java serialization, and must be <code>Serializable</code>.
+ */
+final class CellCodec
+{
+    /**
+     *  A placeholder that the model may store in place of a value (eg, to
+     *  mark an unevaluated computed cell). It is written as a tag, and read
+     *  back as the same instance.
+     */
+    final static Object PLACEHOLDER = new Object();
+
+    private final static int TAG_NULL = 0;
+    private final static int TAG_PLACEHOLDER = 1;
+    private final static int TAG_STRING = 2;
+    private final static int TAG_LONG_STRING = 3;
+    private final static int TAG_INTEGER = 4;
+    private final static int TAG_LONG = 5;
+    private final static int TAG_DOUBLE = 6;
+    private final static int TAG_FLOAT = 7;
+    private final static int TAG_SHORT = 8;
+    private final static int TAG_BYTE = 9;
+    private final static int TAG_BOOLEAN = 10;
+    private final static int TAG_CHARACTER = 11;
+    private final static int TAG_DATE = 12;
+    private final static int TAG_BIG_DECIMAL = 13;
+    private final static int TAG_BIG_INTEGER = 14;
+    private final static int TAG_SERIALIZED = 15;
+
+    /**
+     *  Strings up to this length are guaranteed to fit the 64k limit of
+     *  <code>writeUTF()</code> (at most 3 bytes per character).
+     */
+    private final static int MAX_UTF_LENGTH = 65535 / 3;
+
+
+    private CellCodec()
+    {
+        // all methods are static
+    }
+
+
+    public static void writeValue(DataOutput out, Object value)
+    throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(TAG_NULL);
+        }
+        else if (value == PLACEHOLDER)
+        {
+            out.writeByte(TAG_PLACEHOLDER);
+        }
+        else if (value instanceof String)
+        {
+            String str = (String)value;
+            if (str.length() <= MAX_UTF_LENGTH)
+            {
+                out.writeByte(TAG_STRING);
+                out.writeUTF(str);
+            }
+            else
+            {
+                out.writeByte(TAG_LONG_STRING);
+                out.writeInt(str.length());
+                out.writeChars(str);
+            }
+        }
+        else if (value.getClass() == Integer.class)
+        {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt(((Integer)value).intValue());
+        }
+        else if (value.getClass() == Long.class)
+        {
+            out.writeByte(TAG_LONG);
+            out.writeLong(((Long)value).longValue());
+        }
+        else if (value.getClass() == Double.class)
+        {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Double)value).doubleValue());
+        }
+        else if (value.getClass() == Float.class)
+        {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat(((Float)value).floatValue());
+        }
+        else if (value.getClass() == Short.class)
+        {
+            out.writeByte(TAG_SHORT);
+            out.writeShort(((Short)value).shortValue());
+        }
+        else if (value.getClass() == Byte.class)
+        {
+            out.writeByte(TAG_BYTE);
+            out.writeByte(((Byte)value).byteValue());
+        }
+        else if (value.getClass() == Boolean.class)
+        {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean(((Boolean)value).booleanValue());
+        }
+        else if (value.getClass() == Character.class)
+        {
+            out.writeByte(TAG_CHARACTER);
+            out.writeChar(((Character)value).charValue());
+        }
+        else if (value.getClass() == Date.class)
+        {
+            out.writeByte(TAG_DATE);
+            out.writeLong(((Date)value).getTime());
+        }
+        else if (value.getClass() == BigDecimal.class)
+        {
+            out.writeByte(TAG_BIG_DECIMAL);
+            out.writeUTF(value.toString());
+        }
+        else if (value.getClass() == BigInteger.class)
+        {
+            out.writeByte(TAG_BIG_INTEGER);
+            out.writeUTF(value.toString());
+        }
+        else
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(value);
+            oos.close();
+            byte[] bytes = bos.toByteArray();
+            out.writeByte(TAG_SERIALIZED);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+
+    public static Object readValue(DataInput in)
+    throws IOException
+    {
+        int tag = in.readByte();
+        switch (tag)
+        {
+            case TAG_NULL :
+                return null;
+            case TAG_PLACEHOLDER :
+                return PLACEHOLDER;
+            case TAG_STRING :
+                return in.readUTF();
+            case TAG_LONG_STRING :
+                char[] chars = new char[in.readInt()];
+                for (int ii = 0 ; ii < chars.length ; ii++)
+                {
+                    chars[ii] = in.readChar();
+                }
+                return new String(chars);
+            case TAG_INTEGER :
+                return Integer.valueOf(in.readInt());
+            case TAG_LONG :
+                return Long.valueOf(in.readLong());
+            case TAG_DOUBLE :
+                return Double.valueOf(in.readDouble());
+            case TAG_FLOAT :
+                return Float.valueOf(in.readFloat());
+            case TAG_SHORT :
+                return Short.valueOf(in.readShort());
+            case TAG_BYTE :
+                return Byte.valueOf(in.readByte());
+            case TAG_BOOLEAN :
+                return Boolean.valueOf(in.readBoolean());
+            case TAG_CHARACTER :
+                return Character.valueOf(in.readChar());
+            case TAG_DATE :
+                return new Date(in.readLong());
+            case TAG_BIG_DECIMAL :
+                return new BigDecimal(in.readUTF());
+            case TAG_BIG_INTEGER :
+                return new BigInteger(in.readUTF());
+            case TAG_SERIALIZED :
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try
+                {
+                    return ois.readObject();
+                }
+                catch (ClassNotFoundException ex)
+                {
+                    throw new IOException("unable to read cell value", ex);
+                }
+                finally
+                {
+                    ois.close();
+                }
+            default :
+                throw new IOException("invalid cell tag: " + tag);
+        }
+    }
+
+
+    /**
+     *  Estimates the heap consumed by a value, excluding the reference to it.
+     *  This is deliberately rough: it's used to decide when a heap budget
+     *  has been exceeded, not to account for every byte.
+     */
+    public static int estimateSize(Object value)
+    {
+        if ((value == null) || (value == PLACEHOLDER))
+            return 0;
+        if (value instanceof String)
+            return 40 + 2 * ((String)value).length();
+        if ((value instanceof BigDecimal) || (value instanceof BigInteger))
+            return 64;
+        return 16;
+    }
+}
@@ -0,0 +1,33 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+
+/**
+ *  Converts cell values to display text. Unlike <code>java.text.Format</code>,
+ *  implementations must be thread-safe, so that text can be produced ahead of
+ *  time by a background thread (see {@link FormatPrefetcher}) as well as by a
+ *  renderer on the event thread.
+ *  <p>
+ *  To use an existing <code>Format</code>, wrap it in a {@link
+ *  ThreadLocalFormatter}.
+ */
+public interface CellFormatter
+{
+    /**
+     *  Returns the text for a non-<code>null</code> value.
+     */
+    public String format(Object value);
+}
@@ -0,0 +1,312 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+
+/**
+ *  Cell storage for {@link ExpandingTableModel}: a grid of values that grows
+ *  by appending rows. Dictionary encoding and heap budgets are optional
+ *  capabilities; the default implementations of those methods describe a
+ *  store that doesn't support them.
+ *  <p>
+ *  Stores do no bounds checking; the model is responsible for passing valid
+ *  rows and columns.
+ */
+abstract class CellStore
+implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     *  Returns the number of rows in the store.
+     */
+    public abstract int size();
+
+
+    /**
+     *  Returns the number of columns in the store.
+     */
+    public abstract int width();
+
+
+    public abstract Object get(int row, int col);
+
+
+    /**
+     *  Stores a value, returning the previous value.
+     */
+    public abstract Object set(int row, int col, Object value);
+
+
+    /**
+     *  Appends a row of <code>null</code>s, returning its index.
+     */
+    public abstract int addRow();
+
+
+    /**
+     *  Appends rows holding the passed values. Rows may be shorter than the
+     *  store's width, but not longer.
+     */
+    public void appendRows(List<Object[]> rows)
+    {
+        for (Object[] rowData : rows)
+        {
+            int row = addRow();
+            for (int col = 0 ; col < rowData.length ; col++)
+            {
+                if (rowData[col] != null)
+                    set(row, col, rowData[col]);
+            }
+        }
+    }
+
+
+    /**
+     *  Inserts rows holding the passed values before the specified row (which
+     *  may be the current size, to append). Rows may be shorter than the
+     *  store's width, but not longer.
+     */
+    public void insertRows(int index, List<Object[]> rows)
+    {
+        int count = rows.size();
+        int oldSize = size();
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            addRow();
+        }
+        for (int row = oldSize - 1 ; row >= index ; row--)
+        {
+            for (int col = 0 ; col < width() ; col++)
+            {
+                set(row + count, col, get(row, col));
+            }
+        }
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            Object[] rowData = rows.get(ii);
+            for (int col = 0 ; col < width() ; col++)
+            {
+                set(index + ii, col, (col < rowData.length) ? rowData[col] : null);
+            }
+        }
+    }
+
+
+    /**
+     *  Removes the specified number of rows, starting with the specified row.
+     */
+    public void removeRows(int first, int count)
+    {
+        int size = size();
+        for (int row = first + count ; row < size ; row++)
+        {
+            for (int col = 0 ; col < width() ; col++)
+            {
+                set(row - count, col, get(row, col));
+            }
+        }
+        truncate(size - count);
+    }
+
+
+    /**
+     *  Deletes and inserts rows in a single operation, which takes time
+     *  proportional to the size of the store no matter how many ranges are
+     *  changed (whereas a series of {@link #removeRows} and {@link
+     *  #insertRows} calls moves the following rows once for each range).
+     *  Rows may be shorter than the store's width, but not longer.
+     *  <p>
+     *  The default implementation moves each row (at most) once, cell by
+     *  cell.
+     *
+     *  @param  deleted     Indexes of the rows to delete, in the current
+     *                      arrangement, in ascending order.
+     *  @param  inserted    Indexes of the rows to insert, in the resulting
+     *                      arrangement, in ascending order.
+     *  @param  rows        The values of the inserted rows, corresponding to
+     *                      <code>inserted</code>.
+     */
+    public void splice(int[] deleted, int[] inserted, List<Object[]> rows)
+    {
+        int oldSize = size();
+        int newSize = oldSize - deleted.length + inserted.length;
+        int[] newIndexes = newRowIndexes(oldSize, deleted, inserted);
+        for (int row = oldSize ; row < newSize ; row++)
+        {
+            addRow();
+        }
+
+        // kept rows keep their order, so rows moving up can be moved in
+        // ascending order, and rows moving down in descending order, without
+        // overwriting a row that hasn't yet been moved
+        for (int row = 0 ; row < oldSize ; row++)
+        {
+            if ((newIndexes[row] >= 0) && (newIndexes[row] < row))
+                copyRow(row, newIndexes[row]);
+        }
+        for (int row = oldSize - 1 ; row >= 0 ; row--)
+        {
+            if (newIndexes[row] > row)
+                copyRow(row, newIndexes[row]);
+        }
+
+        for (int ii = 0 ; ii < inserted.length ; ii++)
+        {
+            Object[] rowData = rows.get(ii);
+            for (int col = 0 ; col < width() ; col++)
+            {
+                set(inserted[ii], col, (col < rowData.length) ? rowData[col] : null);
+            }
+        }
+        truncate(newSize);
+    }
+
+
+    /**
+     *  Removes rows from the end of the store, leaving the specified number.
+     */
+    public abstract void truncate(int size);
+
+
+    /**
+     *  Adds or removes columns at the end of each row. New columns are filled
+     *  with <code>null</code> and are not encoded.
+     */
+    public abstract void setWidth(int width);
+
+
+    /**
+     *  Returns a store holding the current contents of this one, which is not
+     *  affected by subsequent changes to this one and may be read from any
+     *  thread. The snapshot may not support modification.
+     */
+    public abstract CellStore snapshot();
+
+
+    /**
+     *  Called on a snapshot that will no longer be read, so that the store it
+     *  was taken from may release anything kept only for it. Snapshots that
+     *  are never disposed are released once garbage-collected. The default
+     *  implementation does nothing.
+     */
+    public void dispose()
+    {
+        // nothing kept
+    }
+
+
+    /**
+     *  Returns the dictionary for a column, <code>null</code> if the column
+     *  is not encoded.
+     */
+    public ColumnDictionary getDictionary(int col)
+    {
+        return null;
+    }
+
+
+    /**
+     *  Returns the dictionary code for a cell in an encoded column.
+     */
+    public int getCode(int row, int col)
+    {
+        throw new UnsupportedOperationException("dictionary encoding not supported");
+    }
+
+
+    /**
+     *  Converts a column between plain and dictionary-encoded storage. Does
+     *  nothing if the column is already in the requested form.
+     */
+    public void setEncoded(int col, boolean encoded)
+    {
+        if (encoded)
+            throw new UnsupportedOperationException("dictionary encoding not supported");
+    }
+
+
+    /**
+     *  Sets the approximate number of bytes of heap that the store may use,
+     *  0 for unlimited.
+     */
+    public void setBudget(long budget, File directory)
+    throws IOException
+    {
+        if (budget != 0)
+            throw new UnsupportedOperationException("heap budget not supported");
+    }
+
+
+    public long getBudget()
+    {
+        return 0;
+    }
+
+
+    /**
+     *  For {@link #splice}, returns the resulting index of each current row,
+     *  -1 if the row is deleted.
+     */
+    static int[] newRowIndexes(int size, int[] deleted, int[] inserted)
+    {
+        int[] newIndexes = new int[size];
+        int del = 0;
+        int ins = 0;
+        int dst = 0;
+        for (int row = 0 ; row < size ; row++)
+        {
+            if ((del < deleted.length) && (deleted[del] == row))
+            {
+                newIndexes[row] = -1;
+                del++;
+                continue;
+            }
+            while ((ins < inserted.length) && (inserted[ins] == dst))
+            {
+                ins++;
+                dst++;
+            }
+            newIndexes[row] = dst++;
+        }
+        return newIndexes;
+    }
+
+
+    private void copyRow(int src, int dst)
+    {
+        for (int col = 0 ; col < width() ; col++)
+        {
+            set(dst, col, get(src, col));
+        }
+    }
+
+
+    /**
+     *  Releases as much heap as possible without losing data (for example,
+     *  by spilling everything to disk). The default implementation does
+     *  nothing.
+     */
+    public void releaseMemory()
+    {
+        // default implementation does nothing
+    }
+}
@@ -0,0 +1,540 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ *  A trigram index over the string form of an {@link ExpandingTableModel}'s
+ *  cells, which supports case-insensitive substring search ("find as you
+ *  type"). Instances are created by {@link ExpandingTableModel#indexText},
+ *  and are updated by the model as cells change.
+ *  <p>
+ *  For every three-character sequence (trigram) that appears in a cell, the
+ *  index holds a sorted list of the rows containing it. A search for text
+ *  of three or more characters intersects the lists for the text's trigrams,
+ *  and then verifies each candidate row by examining its cells, so that the
+ *  result holds exactly those cells that contain the text. Cell text is
+ *  padded with a marker at each end, so cells of one or two characters are
+ *  indexed, and shorter search text is matched using all trigrams that
+ *  contain it.
+ *  <p>
+ *  Successive searches narrow: if the search text extends the previous
+ *  search text, and the model hasn't changed, only the previous result is
+ *  examined. This is the usual pattern when searching as the user types.
+ *  <p>
+ *  Changed cells are indexed as they change, but a row is not removed from
+ *  the list of a trigram that no longer appears in it (verification filters
+ *  these out); appended rows are indexed as they're added. Inserting or
+ *  removing rows elsewhere in the model renumbers the rows that follow, so
+ *  causes the index to be rebuilt on the next search. Computed columns are
+ *  not indexed.
+ *  <p>
+ *  Not thread-safe; use on the event thread (or whichever thread modifies
+ *  the model).
+ */
+public class CellTextIndex
+{
+    /**
+     *  Pads the start and end of each cell's text.
+     */
+    private final static char MARKER = '\0';
+
+    private ExpandingTableModel _model;
+    private LongObjectMap<Postings> _postings;
+    private boolean _valid;
+    private int _indexedRows;
+    private int _version;
+
+    private String _lastQuery;
+    private int _lastVersion;
+    private List<Cell> _lastResult;
+
+
+    CellTextIndex(ExpandingTableModel model)
+    {
+        _model = model;
+        rebuild();
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the cells whose text contains the passed text (ignoring case),
+     *  in row order and then column order. An empty search returns an empty
+     *  list.
+     */
+    public List<Cell> find(String text)
+    {
+        String query = lowerCase(text);
+        if (query.length() == 0)
+            return Collections.emptyList();
+        if (!_valid)
+            rebuild();
+
+        List<Cell> result;
+        if ((_lastQuery != null) && (_lastVersion == _version) && query.contains(_lastQuery))
+            result = narrow(_lastResult, query);
+        else
+            result = verify(candidates(query), query);
+
+        _lastQuery = query;
+        _lastVersion = _version;
+        _lastResult = result;
+        return Collections.unmodifiableList(result);
+    }
+
+
+    /**
+     *  Returns the number of distinct trigrams in the index.
+     */
+    public int getTrigramCount()
+    {
+        if (!_valid)
+            rebuild();
+        return _postings.size();
+    }
+
+
+//----------------------------------------------------------------------------
+//  Updates from the model
+//----------------------------------------------------------------------------
+
+    /**
+     *  Indexes the new value of a cell. Called after the model is updated.
+     */
+    void cellChanged(int row, int col)
+    {
+        _version++;
+        if (!_valid)
+            return;
+        if (row >= _indexedRows)
+        {
+            rowsAppended();
+            return;
+        }
+
+        Object value = _model.getValueAt(row, col);
+        if (value == null)
+            return;
+
+        String text = String.valueOf(value);
+        long[] trigrams = new long[text.length() + 2];
+        int count = trigrams(text, trigrams, 0);
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            postings(trigrams[ii]).insert(row);
+        }
+    }
+
+
+    /**
+     *  Indexes rows that have been added to the end of the model.
+     */
+    void rowsAppended()
+    {
+        _version++;
+        if (!_valid)
+            return;
+
+        long[] trigrams = new long[64];
+        int rowCount = _model.getDataRowCount();
+        for (int row = _indexedRows ; row < rowCount ; row++)
+        {
+            trigrams = indexRow(row, trigrams);
+        }
+        _indexedRows = rowCount;
+    }
+
+
+    /**
+     *  Discards the index, because rows have been inserted or removed. It will
+     *  be rebuilt on the next search.
+     */
+    void invalidate()
+    {
+        _version++;
+        _valid = false;
+        _postings = null;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals -- building
+//----------------------------------------------------------------------------
+
+    private void rebuild()
+    {
+        _postings = new LongObjectMap<Postings>();
+        _indexedRows = 0;
+        _valid = true;
+        rowsAppended();
+    }
+
+
+    /**
+     *  Adds a row to the lists for all of its trigrams. The passed array is
+     *  reused between rows; it's returned, since it may be replaced by a
+     *  larger array.
+     */
+    private long[] indexRow(int row, long[] trigrams)
+    {
+        int count = 0;
+        for (int col = 0 ; col < _model.getColumnCount() ; col++)
+        {
+            if (_model.getComputedColumn(col) != null)
+                continue;
+            Object value = _model.getValueAt(row, col);
+            if (value == null)
+                continue;
+
+            String text = String.valueOf(value);
+            if (count + text.length() + 2 > trigrams.length)
+                trigrams = Arrays.copyOf(trigrams, Math.max(trigrams.length * 2, count + text.length() + 2));
+            count = trigrams(text, trigrams, count);
+        }
+
+        // rows are indexed in order, so each is appended to its lists
+        Arrays.sort(trigrams, 0, count);
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            if ((ii == 0) || (trigrams[ii] != trigrams[ii - 1]))
+                postings(trigrams[ii]).insert(row);
+        }
+        return trigrams;
+    }
+
+
+    /**
+     *  Writes the trigrams of the passed text, padded and lowercased, into the
+     *  array starting at the specified position, returning the new position.
+     *  The array must have room for the text's length plus two.
+     */
+    private static int trigrams(String text, long[] trigrams, int pos)
+    {
+        if (pos + text.length() + 2 > trigrams.length)
+            throw new IllegalArgumentException("trigram buffer too small");
+
+        int len = text.length() + 2;
+        for (int ii = 0 ; ii < len - 2 ; ii++)
+        {
+            trigrams[pos++] = trigram(paddedChar(text, ii),
+                                      paddedChar(text, ii + 1),
+                                      paddedChar(text, ii + 2));
+        }
+        return pos;
+    }
+
+
+    private static char paddedChar(String text, int idx)
+    {
+        return ((idx == 0) || (idx > text.length()))
+               ? MARKER
+               : Character.toLowerCase(text.charAt(idx - 1));
+    }
+
+
+    private static long trigram(char c0, char c1, char c2)
+    {
+        return ((long)c0 << 32) | ((long)c1 << 16) | c2;
+    }
+
+
+    private Postings postings(long trigram)
+    {
+        Postings postings = _postings.get(trigram);
+        if (postings == null)
+        {
+            postings = new Postings();
+            _postings.put(trigram, postings);
+        }
+        return postings;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals -- searching
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the sorted candidate rows for a query. For a query of three or
+     *  more characters, this is the intersection of the lists for its
+     *  trigrams; for a shorter query, it's the union of the lists for all
+     *  trigrams that contain the query.
+     */
+    private int[] candidates(String query)
+    {
+        if (query.length() >= 3)
+        {
+            ArrayList<Postings> lists = new ArrayList<Postings>();
+            for (int ii = 0 ; ii + 3 <= query.length() ; ii++)
+            {
+                Postings postings = _postings.get(trigram(query.charAt(ii), query.charAt(ii + 1), query.charAt(ii + 2)));
+                if (postings == null)
+                    return new int[0];
+                lists.add(postings);
+            }
+            return intersect(lists);
+        }
+
+        int[] rows = new int[16];
+        int count = 0;
+        for (int slot = 0 ; slot < _postings.capacity() ; slot++)
+        {
+            Postings postings = _postings.valueAt(slot);
+            if ((postings == null) || !contains(_postings.keyAt(slot), query))
+                continue;
+            if (count + postings.size > rows.length)
+                rows = Arrays.copyOf(rows, Math.max(rows.length * 2, count + postings.size));
+            System.arraycopy(postings.rows, 0, rows, count, postings.size);
+            count += postings.size;
+        }
+        Arrays.sort(rows, 0, count);
+        int unique = 0;
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            if ((unique == 0) || (rows[ii] != rows[unique - 1]))
+                rows[unique++] = rows[ii];
+        }
+        return Arrays.copyOf(rows, unique);
+    }
+
+
+    /**
+     *  Intersects sorted row lists, starting with the shortest and probing
+     *  the others with binary search.
+     */
+    private static int[] intersect(List<Postings> lists)
+    {
+        Postings shortest = lists.get(0);
+        for (Postings postings : lists)
+        {
+            if (postings.size < shortest.size)
+                shortest = postings;
+        }
+
+        int[] result = new int[shortest.size];
+        int count = 0;
+        for (int ii = 0 ; ii < shortest.size ; ii++)
+        {
+            int row = shortest.rows[ii];
+            boolean found = true;
+            for (Postings postings : lists)
+            {
+                if ((postings != shortest) && !postings.contains(row))
+                {
+                    found = false;
+                    break;
+                }
+            }
+            if (found)
+                result[count++] = row;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+
+    /**
+     *  Determines whether a trigram (including its markers) contains a query
+     *  of one or two characters.
+     */
+    private static boolean contains(long trigram, String query)
+    {
+        char c0 = (char)(trigram >>> 32);
+        char c1 = (char)(trigram >>> 16);
+        char c2 = (char)trigram;
+        if (query.length() == 1)
+        {
+            char q = query.charAt(0);
+            return (c0 == q) || (c1 == q) || (c2 == q);
+        }
+        char q0 = query.charAt(0);
+        char q1 = query.charAt(1);
+        return ((c0 == q0) && (c1 == q1)) || ((c1 == q0) && (c2 == q1));
+    }
+
+
+    /**
+     *  Examines the cells of candidate rows, returning those that contain the
+     *  query.
+     */
+    private List<Cell> verify(int[] rows, String query)
+    {
+        ArrayList<Cell> result = new ArrayList<Cell>();
+        int rowCount = _model.getDataRowCount();
+        int colCount = _model.getColumnCount();
+        for (int row : rows)
+        {
+            if (row >= rowCount)
+                continue;
+            for (int col = 0 ; col < colCount ; col++)
+            {
+                if ((_model.getComputedColumn(col) == null) && matches(row, col, query))
+                    result.add(new Cell(row, col));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     *  Filters the result of a previous query.
+     */
+    private List<Cell> narrow(List<Cell> cells, String query)
+    {
+        ArrayList<Cell> result = new ArrayList<Cell>();
+        for (Cell cell : cells)
+        {
+            if (matches(cell.getRow(), cell.getColumn(), query))
+                result.add(cell);
+        }
+        return result;
+    }
+
+
+    private boolean matches(int row, int col, String query)
+    {
+        Object value = _model.getValueAt(row, col);
+        return (value != null) && containsIgnoreCase(String.valueOf(value), query);
+    }
+
+
+    /**
+     *  Determines whether text contains a lowercased query, without creating
+     *  a lowercased copy of the text.
+     */
+    private static boolean containsIgnoreCase(String text, String query)
+    {
+        int last = text.length() - query.length();
+        for (int ii = 0 ; ii <= last ; ii++)
+        {
+            int jj = 0;
+            while ((jj < query.length())
+                    && (Character.toLowerCase(text.charAt(ii + jj)) == query.charAt(jj)))
+            {
+                jj++;
+            }
+            if (jj == query.length())
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     *  Lowercases one character at a time, the same way as indexed text.
+     */
+    private static String lowerCase(String text)
+    {
+        char[] chars = new char[text.length()];
+        for (int ii = 0 ; ii < chars.length ; ii++)
+        {
+            chars[ii] = Character.toLowerCase(text.charAt(ii));
+        }
+        return new String(chars);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Supporting classes
+//----------------------------------------------------------------------------
+
+    /**
+     *  The coordinates of a matching cell, in model terms.
+     */
+    public final static class Cell
+    {
+        private int _row;
+        private int _col;
+
+        public Cell(int row, int col)
+        {
+            _row = row;
+            _col = col;
+        }
+
+        public int getRow()
+        {
+            return _row;
+        }
+
+        public int getColumn()
+        {
+            return _col;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Cell))
+                return false;
+            Cell that = (Cell)obj;
+            return (_row == that._row) && (_col == that._col);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _row * 31 + _col;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "[" + _row + "," + _col + "]";
+        }
+    }
+
+
+    /**
+     *  A sorted list of rows. Rows are normally appended; a changed cell may
+     *  require insertion into the middle of the list.
+     */
+    private final static class Postings
+    {
+        public int[] rows = new int[4];
+        public int size;
+
+        public void insert(int row)
+        {
+            int idx = size;
+            if ((size > 0) && (rows[size - 1] >= row))
+            {
+                idx = Arrays.binarySearch(rows, 0, size, row);
+                if (idx >= 0)
+                    return;
+                idx = -idx - 1;
+            }
+
+            if (size == rows.length)
+                rows = Arrays.copyOf(rows, size * 2);
+            System.arraycopy(rows, idx, rows, idx + 1, size - idx);
+            rows[idx] = row;
+            size++;
+        }
+
+        public boolean contains(int row)
+        {
+            return Arrays.binarySearch(rows, 0, size, row) >= 0;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.math.BigInteger;
+import java.util.Comparator;
+import java.util.TreeMap;
+
+
+/**
+ *  Running aggregates (count, sum, mean, minimum, maximum) for a single column
+ *  of an {@link ExpandingTableModel}. Instances are created by {@link
+ *  ExpandingTableModel#trackAggregate}, and are updated by the model as cells
+ *  change; application code only reads them.
+ *  <p>
+ *  Count, sum, and mean are updated in constant time. Minimum and maximum are
+ *  maintained in a sorted multiset of the column's values, so are updated in
+ *  logarithmic time; be aware that this multiset holds one entry per distinct
+ *  value in the column.
+ *  <p>
+ *  Only non-<code>null</code> values are counted. Sum and mean consider only
+ *  numeric values; minimum and maximum consider all values, with numbers
+ *  compared by value, other <code>Comparable</code>s compared naturally, and
+ *  values of different classes ordered by class name (so that a column of
+ *  mixed types still has a well-defined extreme). Values that are neither
+ *  numbers nor <code>Comparable</code> are counted, but do not participate
+ *  in minimum and maximum.
+ *  <p>
+ *  Integral values are summed exactly, in a 128-bit accumulator, so a sum
+ *  that overflows <code>long</code> is reported as a <code>BigInteger</code>.
+ *  Floating-point sums are maintained with compensated (Neumaier) summation,
+ *  so that long sequences of edits do not accumulate rounding error.
+ */
+public class ColumnAggregate
+{
+    /**
+     *  The aggregate functions that are maintained. These are used to select
+     *  aggregates for display, for example by {@link SummaryRowModel}.
+     */
+    public static enum Function
+    {
+        COUNT
+        {
+            @Override
+            public Object valueOf(ColumnAggregate agg)
+            {
+                return Integer.valueOf(agg.getCount());
+            }
+        },
+
+        SUM
+        {
+            @Override
+            public Object valueOf(ColumnAggregate agg)
+            {
+                if (agg.getNumericCount() == 0)
+                    return null;
+                if (!agg.isIntegral())
+                    return Double.valueOf(agg.getSum());
+                return (agg._longCarry == 0)
+                       ? (Object)Long.valueOf(agg._longSum)
+                       : (Object)BigInteger.valueOf(agg._longCarry).shiftLeft(64)
+                                 .add(BigInteger.valueOf(agg._longSum));
+            }
+        },
+
+        MEAN
+        {
+            @Override
+            public Object valueOf(ColumnAggregate agg)
+            {
+                return (agg.getNumericCount() == 0)
+                       ? null
+                       : Double.valueOf(agg.getMean());
+            }
+        },
+
+        MIN
+        {
+            @Override
+            public Object valueOf(ColumnAggregate agg)
+            {
+                return agg.getMin();
+            }
+        },
+
+        MAX
+        {
+            @Override
+            public Object valueOf(ColumnAggregate agg)
+            {
+                return agg.getMax();
+            }
+        };
+
+        /**
+         *  Returns the value of this function for the passed aggregate, or
+         *  <code>null</code> if it is undefined (for example, the sum of a
+         *  column without any numbers).
+         */
+        public abstract Object valueOf(ColumnAggregate agg);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Instance variables and constructor
+//----------------------------------------------------------------------------
+
+    private int _col;
+    private int _count;
+    private int _numericCount;
+    private int _floatingCount;
+    private long _longSum;
+    private long _longCarry;            // in units of 2^64
+    private double _doubleSum;
+    private double _doubleComp;
+    private TreeMap<Object,int[]> _values;
+    private Object _min;
+    private Object _max;
+
+
+    ColumnAggregate(int col)
+    {
+        this(col, true);
+    }
+
+
+    /**
+     *  Creates an instance that either maintains the full multiset of values
+     *  (which allows values to be removed), or just running extremes (which
+     *  is much smaller, but only supports {@link #add} and {@link #merge};
+     *  it's used for per-group accumulators by {@link GroupBy}).
+     */
+    ColumnAggregate(int col, boolean removable)
+    {
+        _col = col;
+        if (removable)
+            _values = new TreeMap<Object,int[]>(VALUE_ORDER);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the model column that this aggregate summarizes.
+     */
+    public int getColumn()
+    {
+        return _col;
+    }
+
+
+    /**
+     *  Returns the number of non-<code>null</code> values in the column.
+     */
+    public int getCount()
+    {
+        return _count;
+    }
+
+
+    /**
+     *  Returns the number of numeric values in the column.
+     */
+    public int getNumericCount()
+    {
+        return _numericCount;
+    }
+
+
+    /**
+     *  Returns the sum of all numeric values in the column, 0 if there are
+     *  none. Integral values are summed exactly.
+     */
+    public double getSum()
+    {
+        return _longCarry * 0x1p64 + _longSum + (_doubleSum + _doubleComp);
+    }
+
+
+    /**
+     *  Returns the mean of all numeric values in the column, <code>NaN</code>
+     *  if there are none.
+     */
+    public double getMean()
+    {
+        return (_numericCount == 0)
+               ? Double.NaN
+               : getSum() / _numericCount;
+    }
+
+
+    /**
+     *  Returns the smallest value in the column, <code>null</code> if the
+     *  column is empty.
+     */
+    public Object getMin()
+    {
+        if (_values == null)
+            return _min;
+        return _values.isEmpty() ? null : _values.firstKey();
+    }
+
+
+    /**
+     *  Returns the largest value in the column, <code>null</code> if the
+     *  column is empty.
+     */
+    public Object getMax()
+    {
+        if (_values == null)
+            return _max;
+        return _values.isEmpty() ? null : _values.lastKey();
+    }
+
+
+    /**
+     *  Returns <code>true</code> if all numeric values in the column are
+     *  integral (so that the sum is exact, and is reported as a <code>Long
+     *  </code> or, if it overflows, a <code>BigInteger</code>).
+     */
+    public boolean isIntegral()
+    {
+        return _floatingCount == 0;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals -- called by the model
+//----------------------------------------------------------------------------
+
+    /**
+     *  Updates the aggregate to reflect a change in a single cell.
+     */
+    void update(Object oldValue, Object newValue)
+    {
+        if (oldValue != null)
+            remove(oldValue);
+        if (newValue != null)
+            add(newValue);
+    }
+
+
+    void add(Object value)
+    {
+        if (value == null)
+            return;
+
+        _count++;
+        if (value instanceof Number)
+            addNumber((Number)value, 1);
+        else if (!(value instanceof Comparable))
+            return;
+
+        if (_values == null)
+        {
+            if ((_min == null) || (compareValues(value, _min) < 0))
+                _min = value;
+            if ((_max == null) || (compareValues(value, _max) > 0))
+                _max = value;
+            return;
+        }
+
+        int[] count = _values.get(value);
+        if (count == null)
+            _values.put(value, new int[] { 1 });
+        else
+            count[0]++;
+    }
+
+
+    void remove(Object value)
+    {
+        if (value == null)
+            return;
+        if (_values == null)
+            throw new IllegalStateException("aggregate does not support removal");
+
+        _count--;
+        if (value instanceof Number)
+            addNumber((Number)value, -1);
+        else if (!(value instanceof Comparable))
+            return;
+
+        int[] count = _values.get(value);
+        if ((count != null) && (--count[0] == 0))
+            _values.remove(value);
+    }
+
+
+    void clear()
+    {
+        _count = 0;
+        _numericCount = 0;
+        _floatingCount = 0;
+        _longSum = 0;
+        _longCarry = 0;
+        _doubleSum = 0;
+        _doubleComp = 0;
+        _min = null;
+        _max = null;
+        if (_values != null)
+            _values.clear();
+    }
+
+
+    /**
+     *  Adds the values summarized by another aggregate to this one. Only
+     *  valid for aggregates that do not support removal.
+     */
+    void merge(ColumnAggregate that)
+    {
+        if (_values != null)
+            throw new IllegalStateException("cannot merge into a removable aggregate");
+
+        _count += that._count;
+        _numericCount += that._numericCount;
+        _floatingCount += that._floatingCount;
+        addLong(that._longSum);
+        _longCarry += that._longCarry;
+        _doubleSum += that._doubleSum;
+        _doubleComp += that._doubleComp;
+
+        Object thatMin = that.getMin();
+        if ((thatMin != null) && ((_min == null) || (compareValues(thatMin, _min) < 0)))
+            _min = thatMin;
+        Object thatMax = that.getMax();
+        if ((thatMax != null) && ((_max == null) || (compareValues(thatMax, _max) > 0)))
+            _max = thatMax;
+    }
+
+
+    /**
+     *  Compares two non-<code>null</code> values using the same ordering as
+     *  minimum and maximum.
+     */
+    static int compareValues(Object o1, Object o2)
+    {
+        return VALUE_ORDER.compare(o1, o2);
+    }
+
+
+    private void addNumber(Number value, int sign)
+    {
+        _numericCount += sign;
+        if (isIntegral(value))
+        {
+            long lv = value.longValue();
+            if ((sign < 0) && (lv == Long.MIN_VALUE))
+            {
+                // -MIN_VALUE doesn't fit in a long; it's 2^64 + MIN_VALUE
+                _longCarry++;
+                addLong(Long.MIN_VALUE);
+            }
+            else
+                addLong(sign * lv);
+            return;
+        }
+
+        _floatingCount += sign;
+        double dv = sign * value.doubleValue();
+        double sum = _doubleSum + dv;
+        if (Math.abs(_doubleSum) >= Math.abs(dv))
+            _doubleComp += (_doubleSum - sum) + dv;
+        else
+            _doubleComp += (dv - sum) + _doubleSum;
+        _doubleSum = sum;
+
+        if (_floatingCount == 0)
+        {
+            // all floating values removed; discard any residual error
+            _doubleSum = 0;
+            _doubleComp = 0;
+        }
+    }
+
+
+    /**
+     *  Adds to the integral sum, carrying into the high word on overflow (the
+     *  sum overflows if both operands have a different sign than the result).
+     */
+    private void addLong(long value)
+    {
+        long sum = _longSum + value;
+        if (((_longSum ^ sum) & (value ^ sum)) < 0)
+            _longCarry += (value < 0) ? -1 : 1;
+        _longSum = sum;
+    }
+
+
+    private static boolean isIntegral(Object value)
+    {
+        return (value instanceof Integer) || (value instanceof Long)
+            || (value instanceof Short) || (value instanceof Byte);
+    }
+
+
+    /**
+     *  Orders values for the min/max multiset: numbers by value (integral
+     *  numbers as longs, since large ones aren't exact as doubles), other
+     *  values of the same class by their natural order, everything else by
+     *  class.
+     */
+    private final static Comparator<Object> VALUE_ORDER = new Comparator<Object>()
+    {
+        @SuppressWarnings("unchecked")
+        public int compare(Object o1, Object o2)
+        {
+            if ((o1 instanceof Number) && (o2 instanceof Number))
+            {
+                Number n1 = (Number)o1;
+                Number n2 = (Number)o2;
+                int cmp = (isIntegral(n1) && isIntegral(n2))
+                        ? compareLongs(n1.longValue(), n2.longValue())
+                        : Double.compare(n1.doubleValue(), n2.doubleValue());
+                if ((cmp != 0) || (o1.getClass() == o2.getClass()))
+                    return cmp;
+            }
+            else if ((o1.getClass() == o2.getClass()) && (o1 instanceof Comparable))
+            {
+                return ((Comparable<Object>)o1).compareTo(o2);
+            }
+            return o1.getClass().getName().compareTo(o2.getClass().getName());
+        }
+
+        private int compareLongs(long v1, long v2)
+        {
+            return (v1 < v2) ? -1 : (v1 == v2) ? 0 : 1;
+        }
+    };
+
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("ColumnAggregate[col=").append(_col);
+        for (Function func : Function.values())
+        {
+            sb.append(", ").append(func.name().toLowerCase()).append("=").append(func.valueOf(this));
+        }
+        return sb.append("]").toString();
+    }
+
+}
@@ -0,0 +1,106 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+
+/**
+ *  The shared dictionary for a dictionary-encoded column: maps each distinct
+ *  value to a small integer code and back. Code 0 always represents <code>
+ *  null</code>; other codes are assigned in order of first appearance, and
+ *  never reused (a value that disappears from the column stays in the
+ *  dictionary).
+ *  <p>
+ *  Encoding is only performed by the thread that modifies the model (ie, the
+ *  event thread), but decoding may happen on any thread: the value array is
+ *  replaced (not modified in place) when it grows, and an entry is always
+ *  written before its code is published to a cell.
+ */
+final class ColumnDictionary
+implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private volatile Object[] _values = new Object[16];
+    private volatile int _size = 1;
+    private HashMap<Object,Integer> _codes = new HashMap<Object,Integer>();
+
+
+    public ColumnDictionary()
+    {
+        // code 0 is null; nothing to store
+    }
+
+
+    /**
+     *  Returns the number of codes, including the code for <code>null</code>.
+     */
+    public int size()
+    {
+        return _size;
+    }
+
+
+    /**
+     *  Returns the value for a code.
+     */
+    public Object decode(int code)
+    {
+        return _values[code];
+    }
+
+
+    /**
+     *  Returns the code for a value, adding it to the dictionary if necessary.
+     */
+    public int encode(Object value)
+    {
+        if (value == null)
+            return 0;
+
+        Integer code = _codes.get(value);
+        if (code != null)
+            return code.intValue();
+
+        int newCode = _size;
+        Object[] values = _values;
+        if (newCode == values.length)
+        {
+            Object[] newValues = new Object[values.length * 2];
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            values = newValues;
+        }
+        values[newCode] = value;
+        _values = values;
+        _codes.put(value, Integer.valueOf(newCode));
+        _size = newCode + 1;
+        return newCode;
+    }
+
+
+    /**
+     *  Returns the code for a value, -1 if it's not in the dictionary.
+     */
+    public int lookup(Object value)
+    {
+        if (value == null)
+            return 0;
+
+        Integer code = _codes.get(value);
+        return (code != null) ? code.intValue() : -1;
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.Serializable;
+
+
+/**
+ *  Defines a column of an {@link ExpandingTableModel} whose value is derived
+ *  from other columns in the same row (see {@link
+ *  ExpandingTableModel#setComputedColumn}). For example, an extended price:
+ *  <pre>
+ *      model.setComputedColumn(4, new ComputedColumn(2, 3)
+ *      {
+ *          public Object compute(Object[] inputs)
+ *          {
+ *              if ((inputs[0] == null) || (inputs[1] == null))
+ *                  return null;
+ *              return ((Number)inputs[0]).doubleValue() * ((Number)inputs[1]).intValue();
+ *          }
+ *      });
+ *  </pre>
+ *  The model calls {@link #compute} the first time a cell is read, and
+ *  remembers the result until one of that row's input cells changes. Inputs
+ *  may themselves be computed columns, as long as there are no cycles.
+ *  <p>
+ *  Implementations must be pure functions of their inputs: the model decides
+ *  when (and how often) to call them.
+ *  <p>
+ *  Computed columns are serialized with their model, so any state that an
+ *  implementation holds must be serializable. Note that an anonymous or
+ *  inner class also holds a reference to its enclosing instance: define it
+ *  in a static context (or as a static nested class), or serializing the
+ *  model will fail with <code>NotSerializableException</code> (unless the
+ *  enclosing object is itself serializable, in which case it's written with
+ *  the model).
+ */
+public abstract class ComputedColumn
+implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private int[] _inputs;
+
+
+    /**
+     *  @param  inputColumns    The model columns that are passed to {@link
+     *                          #compute}, in order.
+     */
+    protected ComputedColumn(int... inputColumns)
+    {
+        _inputs = inputColumns.clone();
+    }
+
+
+    /**
+     *  Returns the input columns for this computation.
+     */
+    public int[] getInputColumns()
+    {
+        return _inputs.clone();
+    }
+
+
+    /**
+     *  Computes the cell value from the current values of its input cells.
+     *
+     *  @param  inputs  The values of the input columns, in the order that
+     *                  they were passed to the constructor. Empty cells are
+     *                  passed as <code>null</code>.
+     *
+     *  @return The cell value; must be an instance of the model's class for
+     *          the column, or <code>null</code>.
+     */
+    public abstract Object compute(Object[] inputs);
+
+
+    /**
+     *  Used by the model to avoid copying the input array on each call.
+     */
+    int[] inputs()
+    {
+        return _inputs;
+    }
+}
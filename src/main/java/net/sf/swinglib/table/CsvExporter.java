@@ -0,0 +1,320 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import javax.swing.table.TableModel;
+
+
+/**
+ *  Writes the contents of a table model as delimited text (CSV, TSV), in a
+ *  form that can be read by {@link CsvImporter}. Fields are quoted only if
+ *  they are empty or contain the delimiter, a quote, or a line break; <code>
+ *  null</code> is written as an empty field, so that it can be distinguished
+ *  from an empty string (written as <code>""</code>). Records are separated
+ *  by a newline; for a single-column model, a <code>null</code> value is
+ *  written as a blank line, which the importer reads as <code>null</code>.
+ *  <p>
+ *  Values are written directly from the model into a reusable character
+ *  buffer, which is encoded into a byte buffer and written to a channel;
+ *  no per-row strings are created, and integral values are formatted without
+ *  creating strings at all. Other non-string values are written using their
+ *  <code>toString()</code>.
+ *  <p>
+ *  The model must not change while being exported: call from the event
+ *  thread, or export a snapshot. For an {@link ExpandingTableModel}, the
+ *  "phantom" row is not written.
+ *  <p>
+ *  Instances are immutable, and may be shared between threads.
+ */
+public class CsvExporter
+{
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private char _delimiter;
+    private boolean _writeHeader;
+    private Charset _charset;
+
+
+    /**
+     *  Creates an instance that writes comma-delimited UTF-8, with a header
+     *  line.
+     */
+    public CsvExporter()
+    {
+        this(',', true, Charset.forName("UTF-8"));
+    }
+
+
+    /**
+     *  Creates an instance with the specified format.
+     *
+     *  @param  delimiter   Field delimiter; typically comma or tab.
+     *  @param  writeHeader If <code>true</code>, the first record holds the
+     *                      column names.
+     *  @param  charset     The output character encoding.
+     */
+    public CsvExporter(char delimiter, boolean writeHeader, Charset charset)
+    {
+        if ((delimiter == '"') || (delimiter == '\n') || (delimiter == '\r'))
+            throw new IllegalArgumentException("invalid delimiter: " + delimiter);
+
+        _delimiter = delimiter;
+        _writeHeader = writeHeader;
+        _charset = charset;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Writes the model to a file, replacing any existing content.
+     */
+    public void export(TableModel model, File file)
+    throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            export(model, out.getChannel());
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+
+    /**
+     *  Writes the model to a channel. The channel is not closed.
+     */
+    public void export(TableModel model, WritableByteChannel channel)
+    throws IOException
+    {
+        int rowCount = (model instanceof ExpandingTableModel)
+                     ? ((ExpandingTableModel)model).getDataRowCount()
+                     : model.getRowCount();
+        int colCount = model.getColumnCount();
+
+        Output out = new Output(channel);
+        if (_writeHeader)
+        {
+            for (int col = 0 ; col < colCount ; col++)
+            {
+                if (col > 0)
+                    out.append(_delimiter);
+                out.appendField(model.getColumnName(col));
+            }
+            out.append('\n');
+        }
+
+        for (int row = 0 ; row < rowCount ; row++)
+        {
+            for (int col = 0 ; col < colCount ; col++)
+            {
+                if (col > 0)
+                    out.append(_delimiter);
+
+                Object value = model.getValueAt(row, col);
+                if (value == null)
+                    continue;
+                else if ((value instanceof Integer) || (value instanceof Long)
+                        || (value instanceof Short) || (value instanceof Byte))
+                    out.appendLong(((Number)value).longValue());
+                else
+                    out.appendField(value.toString());
+            }
+            out.append('\n');
+        }
+        out.close();
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Manages the character and byte buffers for a single export.
+     */
+    private class Output
+    {
+        private WritableByteChannel _channel;
+        private CharsetEncoder _encoder;
+        private char[] _chars = new char[BUFFER_SIZE];
+        private int _len;
+        private ByteBuffer _bytes;
+
+        public Output(WritableByteChannel channel)
+        {
+            _channel = channel;
+            _encoder = _charset.newEncoder()
+                       .onMalformedInput(CodingErrorAction.REPLACE)
+                       .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            _bytes = ByteBuffer.allocateDirect((int)(BUFFER_SIZE * _encoder.maxBytesPerChar()));
+        }
+
+        public void append(char c)
+        throws IOException
+        {
+            if (_len == _chars.length)
+                flush(false);
+            _chars[_len++] = c;
+        }
+
+        /**
+         *  Appends a field value, quoting it if necessary. An empty value is
+         *  always quoted, since an empty field is read as <code>null</code>.
+         */
+        public void appendField(String value)
+        throws IOException
+        {
+            boolean quote = (value.length() == 0);
+            for (int ii = 0 ; ii < value.length() ; ii++)
+            {
+                char c = value.charAt(ii);
+                if ((c == _delimiter) || (c == '"') || (c == '\n') || (c == '\r'))
+                {
+                    quote = true;
+                    break;
+                }
+            }
+
+            if (!quote)
+            {
+                appendChars(value);
+                return;
+            }
+
+            append('"');
+            for (int ii = 0 ; ii < value.length() ; ii++)
+            {
+                char c = value.charAt(ii);
+                if (c == '"')
+                    append('"');
+                append(c);
+            }
+            append('"');
+        }
+
+        /**
+         *  Appends an integral value, formatting directly into the buffer.
+         */
+        public void appendLong(long value)
+        throws IOException
+        {
+            if (value == Long.MIN_VALUE)
+            {
+                appendChars(String.valueOf(value));
+                return;
+            }
+
+            if (_len + 20 > _chars.length)
+                flush(false);
+            if (value < 0)
+            {
+                _chars[_len++] = '-';
+                value = -value;
+            }
+
+            int digits = 1;
+            for (long ii = value / 10 ; ii > 0 ; ii /= 10)
+            {
+                digits++;
+            }
+            for (int ii = _len + digits - 1 ; ii >= _len ; ii--)
+            {
+                _chars[ii] = (char)('0' + (value % 10));
+                value /= 10;
+            }
+            _len += digits;
+        }
+
+        public void close()
+        throws IOException
+        {
+            flush(true);
+        }
+
+        private void appendChars(String value)
+        throws IOException
+        {
+            int off = 0;
+            while (off < value.length())
+            {
+                if (_len == _chars.length)
+                    flush(false);
+                int count = Math.min(value.length() - off, _chars.length - _len);
+                value.getChars(off, off + count, _chars, _len);
+                _len += count;
+                off += count;
+            }
+        }
+
+        /**
+         *  Encodes the character buffer and writes the result. A trailing
+         *  partial surrogate pair is retained unless this is the end of input.
+         */
+        private void flush(boolean endOfInput)
+        throws IOException
+        {
+            CharBuffer cb = CharBuffer.wrap(_chars, 0, _len);
+            while (true)
+            {
+                CoderResult result = _encoder.encode(cb, _bytes, endOfInput);
+                if (result.isError())
+                    result.throwException();
+                if (result.isUnderflow())
+                    break;
+                drain();
+            }
+            if (endOfInput)
+            {
+                while (_encoder.flush(_bytes).isOverflow())
+                {
+                    drain();
+                }
+            }
+            drain();
+
+            int remaining = cb.remaining();
+            System.arraycopy(_chars, cb.position(), _chars, 0, remaining);
+            _len = remaining;
+        }
+
+        private void drain()
+        throws IOException
+        {
+            _bytes.flip();
+            while (_bytes.hasRemaining())
+            {
+                _channel.write(_bytes);
+            }
+            _bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,690 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.swing.SwingUtilities;
+
+import net.sf.swinglib.components.ProgressMonitor;
+
+
+/**
+ *  Reads delimited text files (CSV, TSV) into an {@link ExpandingTableModel}.
+ *  Fields may be quoted with double-quotes, in which case they may contain
+ *  delimiters, line breaks, and (doubled) quotes. An empty unquoted field is
+ *  read as <code>null</code>, and an empty quoted field (<code>""</code>) as
+ *  an empty string. Blank lines are ignored, unless the file has a single
+ *  column (as determined by its header, or by its first record), in which
+ *  case each is read as a <code>null</code>; this is how {@link CsvExporter}
+ *  writes such a row.
+ *  <p>
+ *  The file is read sequentially, in large chunks that are split at record
+ *  boundaries (taking quoted line breaks into account). Each chunk is parsed
+ *  on an <code>ExecutorService</code>, and the parsed chunks are appended to
+ *  the model in file order, using {@link ExpandingTableModel#addRows} on the
+ *  event thread. A limited number of chunks are in process at any time, and
+ *  a limited number waiting for the event thread, so memory use is bounded
+ *  by the model, not the importer (even if the event thread falls behind).
+ *  <p>
+ *  Fields are converted to the model's column class, which may be <code>
+ *  String</code>, <code>Object</code> (in which case the field is stored as
+ *  a string), any of the boxed numeric types, <code>Boolean</code>, <code>
+ *  BigDecimal</code>, or <code>BigInteger</code>.
+ *  <p>
+ *  The file's encoding must represent the delimiter, quote, and line breaks
+ *  as single bytes (this is true for UTF-8 and the ISO-8859 family).
+ *  <p>
+ *  Instances are immutable, and may be shared between threads.
+ */
+public class CsvImporter
+{
+    private final static int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private final static int DEFAULT_MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private final static int MAX_QUEUED_APPENDS = 2;
+    private final static byte QUOTE = '"';
+    private final static byte NEWLINE = '\n';
+
+    private char _delimiter;
+    private boolean _hasHeader;
+    private Charset _charset;
+    private int _chunkSize = DEFAULT_CHUNK_SIZE;
+    private int _maxRecordSize = DEFAULT_MAX_RECORD_SIZE;
+
+
+    /**
+     *  Creates an instance that reads comma-delimited UTF-8 files, with a
+     *  header line.
+     */
+    public CsvImporter()
+    {
+        this(',', true, Charset.forName("UTF-8"));
+    }
+
+
+    /**
+     *  Creates an instance with the specified format.
+     *
+     *  @param  delimiter   Field delimiter; typically comma or tab.
+     *  @param  hasHeader   If <code>true</code>, the first record holds the
+     *                      column names.
+     *  @param  charset     The file's character encoding.
+     */
+    public CsvImporter(char delimiter, boolean hasHeader, Charset charset)
+    {
+        if ((delimiter == '"') || (delimiter == '\n') || (delimiter == '\r') || (delimiter > 127))
+            throw new IllegalArgumentException("invalid delimiter: " + delimiter);
+
+        _delimiter = delimiter;
+        _hasHeader = hasHeader;
+        _charset = charset;
+    }
+
+
+    /**
+     *  Changes the approximate number of bytes in each parsed chunk. This is
+     *  intended for testing; the default is a few megabytes.
+     */
+    void setChunkSize(int chunkSize)
+    {
+        _chunkSize = chunkSize;
+    }
+
+
+    /**
+     *  Changes the maximum number of bytes in a single record; a larger record
+     *  causes the import to fail (rather than exhaust the heap). This is
+     *  intended for testing; the default is 64 megabytes.
+     */
+    void setMaxRecordSize(int maxRecordSize)
+    {
+        _maxRecordSize = maxRecordSize;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Reads a file and appends its records to the passed model. This method
+     *  should not be called on the event thread (although it will work): it
+     *  blocks until the entire file has been read and parsed, but rows are
+     *  added to the model (and so become visible) while it's running.
+     *
+     *  @param  model       The destination. If the file has a header, its
+     *                      values replace the model's column names.
+     *  @param  file        The source file.
+     *  @param  executor    Used to parse chunks in parallel; may be <code>
+     *                      null</code>, in which case they're parsed on the
+     *                      calling thread.
+     *  @param  progress    If not <code>null</code>, updated as chunks are
+     *                      added to the model.
+     *
+     *  @return The number of records added to the model (excluding header).
+     *
+     *  @throws IOException on any failure to read the file, if a field
+     *          can't be converted to its column's class, or if a single
+     *          record is larger than 64 megabytes. Rows that were parsed
+     *          before the failure remain in the model.
+     *  @throws RuntimeException if the model rejects a chunk of rows (for
+     *          example, if the file has a value in a computed column). Rows
+     *          from earlier chunks remain in the model.
+     */
+    public int importInto(ExpandingTableModel model, File file,
+                          ExecutorService executor, ProgressMonitor progress)
+    throws IOException
+    {
+        Class<?>[] classes = model.getColumnClasses();
+        for (int col = 0 ; col < classes.length ; col++)
+        {
+            if (!isSupported(classes[col]))
+                throw new IllegalArgumentException("unsupported column class: " + classes[col].getName());
+        }
+
+        int maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+        LinkedList<Future<Chunk>> inFlight = new LinkedList<Future<Chunk>>();
+        Publisher publisher = new Publisher(model, progress);
+
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            publisher.fileSize = channel.size();
+            long position = 0;
+            byte[] buf = new byte[_chunkSize];
+            int bufLen = 0;
+            boolean eof = false;
+            boolean first = true;
+
+            while (!eof || (bufLen > 0))
+            {
+                if (!eof && (bufLen < buf.length))
+                {
+                    int count = channel.read(ByteBuffer.wrap(buf, bufLen, buf.length - bufLen));
+                    if (count < 0)
+                        eof = true;
+                    else
+                        bufLen += count;
+                    if (!eof && (bufLen < buf.length))
+                        continue;
+                }
+
+                int boundary = eof ? bufLen : lastRecordEnd(buf, bufLen);
+                if (boundary <= 0)
+                {
+                    // a single record is larger than the buffer
+                    if (buf.length >= _maxRecordSize)
+                        throw new IOException("record at byte " + position
+                                              + " is larger than " + _maxRecordSize + " bytes");
+                    buf = Arrays.copyOf(buf, (int)Math.min(2L * buf.length, _maxRecordSize));
+                    continue;
+                }
+
+                byte[] next = new byte[Math.max(_chunkSize, bufLen - boundary)];
+                System.arraycopy(buf, boundary, next, 0, bufLen - boundary);
+                position += boundary;
+
+                Future<Chunk> future = submit(executor, new ChunkParser(buf, boundary, first && _hasHeader, classes, position));
+                inFlight.add(future);
+                if (inFlight.size() >= maxInFlight)
+                    publisher.publish(inFlight.removeFirst());
+
+                buf = next;
+                bufLen -= boundary;
+                first = false;
+            }
+
+            while (!inFlight.isEmpty())
+            {
+                publisher.publish(inFlight.removeFirst());
+            }
+            publisher.finish();
+        }
+        finally
+        {
+            for (Future<Chunk> future : inFlight)
+            {
+                future.cancel(true);
+            }
+            in.close();
+        }
+
+        return publisher.rowCount;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private static boolean isSupported(Class<?> klass)
+    {
+        return (klass == Object.class) || (klass == String.class) || (klass == Number.class)
+            || (klass == Integer.class) || (klass == Long.class)
+            || (klass == Short.class) || (klass == Byte.class)
+            || (klass == Double.class) || (klass == Float.class)
+            || (klass == Boolean.class)
+            || (klass == BigDecimal.class) || (klass == BigInteger.class);
+    }
+
+
+    /**
+     *  Returns the position just past the last unquoted newline in the buffer,
+     *  0 if there isn't one. The buffer must start at a record boundary.
+     *  <p>
+     *  This follows the parser's rules: a quote only starts a quoted field at
+     *  the start of the field, and within a quoted field a doubled quote does
+     *  not end it. A quote at the very end of the buffer may be either; but
+     *  as there's no newline after it, that doesn't change the result.
+     */
+    private int lastRecordEnd(byte[] buf, int len)
+    {
+        byte delimiter = (byte)_delimiter;
+        int boundary = 0;
+        boolean fieldStart = true;
+        boolean quoted = false;
+        for (int ii = 0 ; ii < len ; ii++)
+        {
+            byte b = buf[ii];
+            if (quoted)
+            {
+                if (b != QUOTE)
+                    continue;
+                if ((ii + 1 < len) && (buf[ii + 1] == QUOTE))
+                    ii++;
+                else
+                    quoted = false;
+            }
+            else if (b == NEWLINE)
+            {
+                boundary = ii + 1;
+                fieldStart = true;
+            }
+            else if (b == delimiter)
+            {
+                fieldStart = true;
+            }
+            else
+            {
+                quoted = fieldStart && (b == QUOTE);
+                fieldStart = false;
+            }
+        }
+        return boundary;
+    }
+
+
+    private static Future<Chunk> submit(ExecutorService executor, ChunkParser parser)
+    {
+        if (executor != null)
+            return executor.submit(parser);
+
+        FutureTask<Chunk> task = new FutureTask<Chunk>(parser);
+        task.run();
+        return task;
+    }
+
+
+    /**
+     *  Hands parsed chunks to the event thread, in file order. Appends run
+     *  asynchronously, but no more than {@link #MAX_QUEUED_APPENDS} may be
+     *  waiting at any time; a failure in one is rethrown to the importing
+     *  thread by the next call, and causes any that are still queued to be
+     *  skipped.
+     */
+    private static class Publisher
+    {
+        public long fileSize;
+        public int rowCount;
+
+        private ExpandingTableModel _model;
+        private ProgressMonitor _progress;
+        private int _width;
+        private int _queued;
+        private RuntimeException _failure;
+
+        public Publisher(ExpandingTableModel model, ProgressMonitor progress)
+        {
+            _model = model;
+            _progress = progress;
+        }
+
+        /**
+         *  Waits for a chunk to be parsed, and for room in the event thread's
+         *  queue, then queues its rows to be added to the model.
+         */
+        public void publish(Future<Chunk> future)
+        throws IOException
+        {
+            final Chunk chunk = parsed(future);
+            if (_width == 0)
+                _width = chunk.width;
+            if (chunk.blankLines > 0)
+                chunk.rows = resolveBlankLines(chunk.rows, chunk.blankLines, _width == 1);
+
+            Runnable append = new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        if (failure() == null)
+                            append(chunk);
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        failed(ex);
+                    }
+                    finally
+                    {
+                        appended();
+                    }
+                }
+            };
+            awaitQueued(MAX_QUEUED_APPENDS - 1);
+            if (SwingUtilities.isEventDispatchThread())
+            {
+                append(chunk);
+            }
+            else
+            {
+                synchronized (this)
+                {
+                    _queued++;
+                }
+                SwingUtilities.invokeLater(append);
+            }
+
+            if (_progress != null)
+                _progress.setProgress(0, (int)(chunk.endPosition * 1000 / Math.max(1, fileSize)), 1000);
+            rowCount += chunk.rows.size();
+        }
+
+        /**
+         *  Waits for all queued chunks to be added to the model.
+         */
+        public void finish()
+        throws IOException
+        {
+            awaitQueued(0);
+        }
+
+        private Chunk parsed(Future<Chunk> future)
+        throws IOException
+        {
+            try
+            {
+                return future.get();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while parsing", ex);
+            }
+            catch (ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException)cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                throw new IOException("unable to parse file", cause);
+            }
+        }
+
+        private void append(Chunk chunk)
+        {
+            if (chunk.header != null)
+            {
+                for (int col = 0 ; col < chunk.header.length ; col++)
+                {
+                    _model.setColumnName(col, chunk.header[col]);
+                }
+            }
+            _model.addRows(chunk.rows);
+        }
+
+        /**
+         *  Waits until no more than the specified number of appends are queued,
+         *  then throws if any append has failed.
+         */
+        private synchronized void awaitQueued(int count)
+        throws IOException
+        {
+            try
+            {
+                while ((_queued > count) && (_failure == null))
+                {
+                    wait();
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while adding rows", ex);
+            }
+            if (_failure != null)
+                throw _failure;
+        }
+
+        private synchronized RuntimeException failure()
+        {
+            return _failure;
+        }
+
+        private synchronized void failed(RuntimeException ex)
+        {
+            if (_failure == null)
+                _failure = ex;
+        }
+
+        private synchronized void appended()
+        {
+            _queued--;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     *  Replaces the <code>null</code> entries that mark blank lines with rows
+     *  holding a single <code>null</code>, or removes them.
+     */
+    private static List<Object[]> resolveBlankLines(List<Object[]> rows, int blankLines, boolean keep)
+    {
+        List<Object[]> result = new ArrayList<Object[]>(keep ? rows.size() : rows.size() - blankLines);
+        for (Object[] row : rows)
+        {
+            if (row != null)
+                result.add(row);
+            else if (keep)
+                result.add(new Object[1]);
+        }
+        return result;
+    }
+
+
+    /**
+     *  The result of parsing a chunk.
+     */
+    private static class Chunk
+    {
+        public Object[] header;
+        public List<Object[]> rows;         // blank lines are null
+        public int blankLines;
+        public int width;                   // of the header or first record
+        public long endPosition;
+    }
+
+
+    /**
+     *  Parses a chunk of the file. The chunk starts at a record boundary, and
+     *  ends just after a record's line break (or at end of file).
+     */
+    private class ChunkParser
+    implements Callable<Chunk>
+    {
+        private byte[] _bytes;
+        private int _length;
+        private boolean _header;
+        private Class<?>[] _classes;
+        private long _endPosition;
+
+        private String _text;
+        private int _pos;
+        private StringBuilder _quoted = new StringBuilder();
+
+        public ChunkParser(byte[] bytes, int length, boolean header, Class<?>[] classes, long endPosition)
+        {
+            _bytes = bytes;
+            _length = length;
+            _header = header;
+            _classes = classes;
+            _endPosition = endPosition;
+        }
+
+        public Chunk call()
+        throws IOException
+        {
+            _text = new String(_bytes, 0, _length, _charset);
+            _bytes = null;
+
+            Chunk chunk = new Chunk();
+            chunk.rows = new ArrayList<Object[]>(_length / 64);
+            chunk.endPosition = _endPosition;
+
+            ArrayList<String> fields = new ArrayList<String>();
+            while (_pos < _text.length())
+            {
+                fields.clear();
+                parseRecord(fields);
+                if ((fields.size() == 1) && (fields.get(0) == null))
+                {
+                    // blank line; resolved once the file's width is known
+                    chunk.rows.add(null);
+                    chunk.blankLines++;
+                    continue;
+                }
+                if (chunk.width == 0)
+                    chunk.width = fields.size();
+                if (_header && (chunk.header == null))
+                {
+                    chunk.header = fields.toArray();
+                    continue;
+                }
+
+                Object[] row = new Object[fields.size()];
+                for (int col = 0 ; col < row.length ; col++)
+                {
+                    row[col] = convert(fields.get(col), col);
+                }
+                chunk.rows.add(row);
+            }
+            return chunk;
+        }
+
+        /**
+         *  Parses the record starting at the current position, leaving the
+         *  position at the start of the next record.
+         */
+        private void parseRecord(List<String> fields)
+        {
+            int len = _text.length();
+            while (true)
+            {
+                String field;
+                if ((_pos < len) && (_text.charAt(_pos) == '"'))
+                {
+                    field = parseQuoted();
+                }
+                else
+                {
+                    int start = _pos;
+                    while ((_pos < len) && (_text.charAt(_pos) != _delimiter) && (_text.charAt(_pos) != '\n'))
+                    {
+                        _pos++;
+                    }
+                    int end = _pos;
+                    if ((end > start) && (_text.charAt(end - 1) == '\r'))
+                        end--;
+                    field = (end > start) ? _text.substring(start, end) : null;
+                }
+                fields.add(field);
+
+                if ((_pos >= len) || (_text.charAt(_pos) == '\n'))
+                {
+                    _pos++;
+                    return;
+                }
+                _pos++;     // delimiter
+            }
+        }
+
+        /**
+         *  Parses a quoted field, leaving the position at the following
+         *  delimiter or line break. Any text between the closing quote and
+         *  the delimiter is appended to the field.
+         */
+        private String parseQuoted()
+        {
+            int len = _text.length();
+            _quoted.setLength(0);
+            _pos++;
+            while (_pos < len)
+            {
+                char c = _text.charAt(_pos++);
+                if (c != '"')
+                    _quoted.append(c);
+                else if ((_pos < len) && (_text.charAt(_pos) == '"'))
+                    _quoted.append(_text.charAt(_pos++));
+                else
+                    break;
+            }
+            while ((_pos < len) && (_text.charAt(_pos) != _delimiter) && (_text.charAt(_pos) != '\n'))
+            {
+                char c = _text.charAt(_pos++);
+                if (c != '\r')
+                    _quoted.append(c);
+            }
+            return _quoted.toString();
+        }
+
+        private Object convert(String field, int col)
+        throws IOException
+        {
+            Class<?> klass = (col < _classes.length) ? _classes[col] : Object.class;
+            if ((field == null) || (klass == Object.class) || (klass == String.class))
+                return field;
+
+            String value = field.trim();
+            if (value.length() == 0)
+                return null;
+
+            try
+            {
+                if (klass == Integer.class)
+                    return Integer.valueOf(value);
+                if (klass == Long.class)
+                    return Long.valueOf(value);
+                if (klass == Double.class)
+                    return Double.valueOf(value);
+                if (klass == Float.class)
+                    return Float.valueOf(value);
+                if (klass == Short.class)
+                    return Short.valueOf(value);
+                if (klass == Byte.class)
+                    return Byte.valueOf(value);
+                if (klass == BigDecimal.class)
+                    return new BigDecimal(value);
+                if (klass == BigInteger.class)
+                    return new BigInteger(value);
+                if (klass == Boolean.class)
+                    return Boolean.valueOf(value);
+
+                // Number: integral if possible
+                try
+                {
+                    return Long.valueOf(value);
+                }
+                catch (NumberFormatException ignored)
+                {
+                    return Double.valueOf(value);
+                }
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new IOException("unable to convert \"" + field + "\" to "
+                                      + klass.getName() + " (column " + col + ")");
+            }
+        }
+    }
+}
@@ -14,9 +14,20 @@
 
 package net.sf.swinglib.table;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 
+import net.sf.swinglib.MemoryManager;
+
 
 /**
  *  A <code>TableModel</code> that can be resized on the fly, tracks whether
@@ -26,16 +37,47 @@ import javax.swing.table.AbstractTableModel;
  *  {@link #getRowCount}. Calls to {@link #getValueAt} for this "phantom" row
  *  return <code>null</code>, while calls to {@link #setValueAt} make the row
  *  permanent and create a new phantom row.
+ *  <p>
+ *  Columns may be defined as computed from other columns in the same row
+ *  (see {@link #setComputedColumn}). Computed cells are evaluated when first
+ *  read, and re-evaluated only after one of their inputs changes.
+ *  <p>
+ *  Columns that hold a small number of distinct values (status codes, country
+ *  names, and the like) may be dictionary-encoded (see {@link
+ *  #setDictionaryEncoded}), which stores each cell as a small integer code
+ *  rather than an object reference, and shares a single instance of each
+ *  distinct value.
+ *  <p>
+ *  For data sets that may not fit in memory, {@link #setHeapBudget} allows
+ *  rows to be spilled to a temporary file. For large grids that are mostly
+ *  empty, {@link #setSparse} stores only the populated cells.
+ *  <p>
+ *  A background thread must not read the model while the event thread is
+ *  modifying it. Instead, take a {@link #snapshot} on the event thread and
+ *  pass that to the background thread.
  */
 public class ExpandingTableModel
 extends AbstractTableModel
 {
     private static final long serialVersionUID = 1L;
 
+    /**
+     *  Marks a computed cell that must be evaluated on its next read.
+     */
+    private final static Object NOT_COMPUTED = CellCodec.PLACEHOLDER;
+
     private int _colCount = 0;
     private ArrayList<Object> _headers = new ArrayList<Object>();
     private ArrayList<Class<?>> _classes = new ArrayList<Class<?>>();
-    private ArrayList<ArrayList<Object>> _data = new ArrayList<ArrayList<Object>>();
+    private BitSet _encoded = new BitSet();
+    private CellStore _store = new BlockStore(0);
+    private transient ArrayList<ColumnAggregate> _aggregates = new ArrayList<ColumnAggregate>();
+    private ArrayList<ComputedColumn> _computed = new ArrayList<ComputedColumn>();
+    private int[][] _dependents = new int[0][];
+    private boolean _readOnly;
+    private transient CellTextIndex _textIndex;
+    private transient int _modCount;
+    private transient MemoryManager.Trimmable _trimmer;
 
 
     /**
@@ -53,8 +95,20 @@ extends AbstractTableModel
      *  rows and columns, with all cells containing <code>null</code>.
      */
     public ExpandingTableModel(int rows, int cols)
+    {
+        this(rows, cols, false);
+    }
+
+
+    /**
+     *  Creates an instance that is pre-sized to the specified number of
+     *  rows and columns, optionally using sparse storage (see {@link
+     *  #setSparse}).
+     */
+    public ExpandingTableModel(int rows, int cols, boolean sparse)
     {
         _colCount = cols;
+        _store = sparse ? new SparseStore(cols) : new BlockStore(cols);
         for (int ii = 0 ; ii < rows ; ii++)
         {
             addRow();
@@ -124,6 +178,22 @@ extends AbstractTableModel
     }
 
 
+    /**
+     *  Creates a read-only snapshot of the passed model.
+     */
+    private ExpandingTableModel(ExpandingTableModel src)
+    {
+        _colCount = src._colCount;
+        _headers = new ArrayList<Object>(src._headers);
+        _classes = new ArrayList<Class<?>>(src._classes);
+        _encoded = (BitSet)src._encoded.clone();
+        _store = src._store.snapshot();
+        _computed = new ArrayList<ComputedColumn>(src._computed);
+        _readOnly = true;
+        _modCount = src._modCount;
+    }
+
+
 //----------------------------------------------------------------------------
 //  TableModel
 //----------------------------------------------------------------------------
@@ -143,7 +213,7 @@ extends AbstractTableModel
      */
     public int getRowCount()
     {
-        return _data.size() + 1;
+        return _store.size() + 1;
     }
 
 
@@ -178,23 +248,29 @@ extends AbstractTableModel
         if (col >= _colCount)
             throw new IndexOutOfBoundsException("attempted: " + col + ", model size: " + _colCount);
 
-        return (col < _classes.size())
-               ? _classes.get(col)
-               : Object.class;
+        return columnClass(col);
     }
 
 
     /**
      *  Returns the value at a particular cell in the model. Cells in the
-     *  "phantom" row always return <code>null</code>
+     *  "phantom" row always return <code>null</code>. Computed cells are
+     *  evaluated if this is the first read since their inputs changed.
      *
      *  @throws IndexOutOfBoundsException on attempts to get an invalid cell.
      */
     public Object getValueAt(int row, int col)
     {
-        return (row == _data.size())
-               ? null
-               : _data.get(row).get(col);
+        if (row >= _store.size())
+        {
+            checkRow(row);
+            return null;
+        }
+
+        Object value = _store.get(row, col);
+        return (value == NOT_COMPUTED)
+               ? compute(row, col)
+               : value;
     }
 
 
@@ -204,25 +280,54 @@ extends AbstractTableModel
      *  the table).
      *
      *  @throws IndexOutOfBoundsException on attempts to set an invalid cell.
+     *  @throws IllegalArgumentException if the value is not an instance of
+     *          the column's class, or the column is computed.
      */
     @Override
     public void setValueAt(Object value, int row, int col)
     {
+        checkWritable();
         checkClass(value, getColumnClass(col), row, col);
-        if (row == _data.size())
+        if (getComputedColumn(col) != null)
+            throw new IllegalArgumentException("column " + col + " is computed");
+
+        if (row >= _store.size())
         {
+            checkRow(row);
             addRow();
             fireTableRowsInserted(row + 1, row + 1);
+            for (int ii = 0 ; ii < _computed.size() ; ii++)
+            {
+                if ((_computed.get(ii) != null) && (getAggregate(ii) != null))
+                    invalidate(row, ii);
+            }
         }
-        _data.get(row).set(col, value);
+        Object oldValue = _store.set(row, col, value);
+        updateAggregate(col, oldValue, value);
+        if (_textIndex != null)
+            _textIndex.cellChanged(row, col);
         fireTableCellUpdated(row, col);
+
+        if (col < _dependents.length)
+        {
+            for (int dependent : _dependents[col])
+            {
+                invalidate(row, dependent);
+                fireTableCellUpdated(row, dependent);
+            }
+        }
     }
 
 
+    /**
+     *  All cells other than those in computed columns are editable, including
+     *  the cells of the "phantom" row. No cells of a snapshot are editable.
+     */
     @Override
     public boolean isCellEditable(int row, int col)
     {
-        return (row <= _data.size()) && (col < _colCount);
+        return !_readOnly && (row <= _store.size()) && (col < _colCount)
+            && (getComputedColumn(col) == null);
     }
 
 
@@ -230,6 +335,117 @@ extends AbstractTableModel
 //  Public methods
 //----------------------------------------------------------------------------
 
+    /**
+     *  Returns the number of rows that actually hold data; this is one less
+     *  than {@link #getRowCount}, because it excludes the "phantom" row.
+     */
+    public int getDataRowCount()
+    {
+        return _store.size();
+    }
+
+
+    /**
+     *  Appends rows to the model (ahead of the "phantom" row), firing a single
+     *  event for all of them. This is much faster than adding rows one at a
+     *  time via {@link #setValueAt}. As with the constructors, rows may be of
+     *  different lengths; the model is widened if any row is longer than the
+     *  current width.
+     *
+     *  @throws IllegalArgumentException if a value is not an instance of its
+     *          column's class, or is in a computed column. In this case, no
+     *          rows are added.
+     */
+    public void addRows(List<Object[]> rows)
+    {
+        checkWritable();
+        if (rows.isEmpty())
+            return;
+
+        int first = _store.size();
+        setWidth(checkRows(rows, first));
+        _store.appendRows(rows);
+        rowsAdded(rows, first);
+        if (_textIndex != null)
+            _textIndex.rowsAppended();
+
+        fireTableRowsInserted(first, first + rows.size() - 1);
+    }
+
+
+    /**
+     *  Inserts rows into the model before the specified row, firing a single
+     *  event for all of them. As with {@link #addRows}, rows may be of
+     *  different lengths, and the model is widened if necessary. Rows that
+     *  follow the insertion point are moved down; for a large model, this is
+     *  more expensive than appending.
+     *
+     *  @param  index   The index of the first inserted row; may be the number
+     *                  of data rows, to insert before the "phantom" row.
+     *
+     *  @throws IndexOutOfBoundsException if the index is not between 0 and
+     *          the number of data rows.
+     *  @throws IllegalArgumentException if a value is not an instance of its
+     *          column's class, or is in a computed column. In this case, no
+     *          rows are added.
+     */
+    public void insertRows(int index, List<Object[]> rows)
+    {
+        checkWritable();
+        if ((index < 0) || (index > _store.size()))
+            throw new IndexOutOfBoundsException("attempted row: " + index + ", model size: " + getRowCount());
+        if (rows.isEmpty())
+            return;
+
+        setWidth(checkRows(rows, index));
+        boolean append = (index == _store.size());
+        _store.insertRows(index, rows);
+        rowsAdded(rows, index);
+        if ((_textIndex != null) && append)
+            _textIndex.rowsAppended();
+        else if (_textIndex != null)
+            _textIndex.invalidate();
+
+        fireTableRowsInserted(index, index + rows.size() - 1);
+    }
+
+
+    /**
+     *  Removes a range of rows from the model, firing a single event. Rows that
+     *  follow the removed rows are moved up. The "phantom" row can't be
+     *  removed.
+     *
+     *  @param  first   Index of the first row to remove.
+     *  @param  last    Index of the last row to remove (inclusive).
+     *
+     *  @throws IndexOutOfBoundsException if the range is empty, or includes
+     *          rows that are not data rows.
+     */
+    public void removeRows(int first, int last)
+    {
+        checkWritable();
+        if ((first < 0) || (last < first) || (last >= _store.size()))
+            throw new IndexOutOfBoundsException("attempted rows: " + first + "-" + last
+                                                + ", model size: " + getRowCount());
+
+        for (int col = 0 ; col < Math.min(_colCount, _aggregates.size()) ; col++)
+        {
+            ColumnAggregate agg = getAggregate(col);
+            if (agg == null)
+                continue;
+            for (int row = first ; row <= last ; row++)
+            {
+                agg.update(getValueAt(row, col), null);
+            }
+        }
+        _store.removeRows(first, last - first + 1);
+        if (_textIndex != null)
+            _textIndex.invalidate();
+
+        fireTableRowsDeleted(first, last);
+    }
+
+
     /**
      *  Sets the width (column count) of the model. Does nothing if called
      *  with the current width. Will remove elements from the end of each
@@ -237,18 +453,50 @@ extends AbstractTableModel
      *  <code>null</code>s on each row if greater.
      *  <p>
      *  Header names are not removed when the width is reduced, and will
-     *  re-appear if the table is subsequently widened.
+     *  re-appear if the table is subsequently widened. Computed column
+     *  definitions are removed if either the column or any of its inputs
+     *  is removed; in the latter case, the column retains its last computed
+     *  values.
      */
     public void setWidth(int width)
     {
+        checkWritable();
         if (width == _colCount)
             return;
 
+        ArrayList<Integer> orphaned = new ArrayList<Integer>();
+        for (int col = 0 ; col < _computed.size() ; col++)
+        {
+            ComputedColumn func = _computed.get(col);
+            if ((func != null) && ((col >= width) || (maxInput(func) >= width)))
+            {
+                orphaned.add(Integer.valueOf(col));
+                if (col < width)
+                    materialize(col);
+            }
+        }
+        for (Integer col : orphaned)
+        {
+            _computed.set(col.intValue(), null);
+        }
+        if ((_textIndex != null) && !orphaned.isEmpty())
+            _textIndex.invalidate();
+
+        for (int col = width ; col < Math.min(_colCount, _aggregates.size()) ; col++)
+        {
+            if (_aggregates.get(col) != null)
+                _aggregates.get(col).clear();
+        }
+
+        int oldCount = _colCount;
         _colCount = width;
-        for (int ii = 0 ; ii < _data.size() ; ii++)
+        _store.setWidth(width);
+        for (int col = oldCount ; col < width ; col++)
         {
-            resizeRow(ii);
+            if (_encoded.get(col))
+                _store.setEncoded(col, true);
         }
+        rebuildDependents();
 
         fireTableStructureChanged();
     }
@@ -261,6 +509,7 @@ extends AbstractTableModel
      */
     public void setColumnName(int col, Object name)
     {
+        checkWritable();
         while (_headers.size() <= col)
         {
             _headers.add("");
@@ -279,9 +528,10 @@ extends AbstractTableModel
      */
     public void setColumnClass(int col, Class<?> klass)
     {
+        checkWritable();
         if (col < _colCount)
         {
-            for (int row = 0 ; row < _data.size() ; row++)
+            for (int row = 0 ; row < _store.size() ; row++)
             {
                 checkClass(getValueAt(row, col), klass, row, col);
             }
@@ -298,21 +548,733 @@ extends AbstractTableModel
     }
 
 
+
+    /**
+     *  Starts tracking aggregates (count, sum, mean, min, max) for the specified
+     *  column, and returns the object that holds them. The aggregates are
+     *  initialized by scanning the column, and thereafter updated as each
+     *  cell changes, so reading them costs nothing. Calling this method for
+     *  a column that is already tracked returns the existing aggregate.
+     *  <p>
+     *  Aggregates are not serialized with the model; a deserialized model
+     *  tracks the same columns, re-initializing each by scanning it.
+     *
+     *  @throws IndexOutOfBoundsException if the column is not within the
+     *          current width of the model.
+     */
+    public ColumnAggregate trackAggregate(int col)
+    {
+        checkWritable();
+        if ((col < 0) || (col >= _colCount))
+            throw new IndexOutOfBoundsException("attempted: " + col + ", model size: " + _colCount);
+
+        ColumnAggregate agg = getAggregate(col);
+        return (agg != null) ? agg : track(col);
+    }
+
+
+    /**
+     *  Creates and installs the aggregate for a column that isn't tracked.
+     */
+    private ColumnAggregate track(int col)
+    {
+        ColumnAggregate agg = new ColumnAggregate(col);
+        for (int row = 0 ; row < _store.size() ; row++)
+        {
+            agg.add(getValueAt(row, col));
+        }
+
+        while (_aggregates.size() <= col)
+        {
+            _aggregates.add(null);
+        }
+        _aggregates.set(col, agg);
+        return agg;
+    }
+
+
+    /**
+     *  Returns the aggregates for the specified column, <code>null</code> if
+     *  the column is not tracked (see {@link #trackAggregate}).
+     */
+    public ColumnAggregate getAggregate(int col)
+    {
+        return (col < _aggregates.size())
+               ? _aggregates.get(col)
+               : null;
+    }
+
+
+    /**
+     *  Stops tracking aggregates for the specified column. Does nothing if the
+     *  column is not tracked.
+     */
+    public void untrackAggregate(int col)
+    {
+        if (col < _aggregates.size())
+            _aggregates.set(col, null);
+    }
+
+
+    /**
+     *  Makes the specified column a computed column: its cells are no longer
+     *  editable, and their values come from the passed function. Any existing
+     *  values in the column are discarded. Cells are evaluated on first read
+     *  and remembered; when a cell changes, only the computed cells in the
+     *  same row that depend on it (directly or indirectly) are discarded, and
+     *  the model fires a cell-updated event for each of them.
+     *  <p>
+     *  If the column has tracked aggregates (see {@link #trackAggregate}), its
+     *  cells are instead re-evaluated as soon as an input changes, so that
+     *  the aggregates remain current.
+     *  <p>
+     *  Note that computed cells may be evaluated by any thread that reads
+     *  the model; the function must be thread-safe. It is also serialized
+     *  with the model, so must be serializable (see {@link ComputedColumn}).
+     *
+     *  @throws IndexOutOfBoundsException if the column or any of its inputs
+     *          is not within the current width of the model.
+     *  @throws IllegalArgumentException if the definition would introduce a
+     *          cycle (including a column that depends on itself), or if the
+     *          column is dictionary-encoded.
+     */
+    public void setComputedColumn(int col, ComputedColumn func)
+    {
+        checkWritable();
+        if ((col < 0) || (col >= _colCount))
+            throw new IndexOutOfBoundsException("attempted: " + col + ", model size: " + _colCount);
+        if (isDictionaryEncoded(col))
+            throw new IllegalArgumentException("column " + col + " is dictionary-encoded");
+        for (int input : func.inputs())
+        {
+            if ((input < 0) || (input >= _colCount))
+                throw new IndexOutOfBoundsException("input: " + input + ", model size: " + _colCount);
+        }
+
+        while (_computed.size() <= col)
+        {
+            _computed.add(null);
+        }
+        ComputedColumn previous = _computed.set(col, func);
+        try
+        {
+            rebuildDependents();
+        }
+        catch (IllegalArgumentException ex)
+        {
+            _computed.set(col, previous);
+            rebuildDependents();
+            throw ex;
+        }
+
+        for (int row = 0 ; row < _store.size() ; row++)
+        {
+            invalidate(row, col);
+            if (col < _dependents.length)
+            {
+                for (int dependent : _dependents[col])
+                {
+                    invalidate(row, dependent);
+                }
+            }
+        }
+
+        fireTableChanged(new TableModelEvent(this, 0, getRowCount() - 1, col));
+        if (col < _dependents.length)
+        {
+            for (int dependent : _dependents[col])
+            {
+                fireTableChanged(new TableModelEvent(this, 0, getRowCount() - 1, dependent));
+            }
+        }
+    }
+
+
+    /**
+     *  Returns the definition of a computed column, <code>null</code> if the
+     *  column is not computed.
+     */
+    public ComputedColumn getComputedColumn(int col)
+    {
+        return (col < _computed.size())
+               ? _computed.get(col)
+               : null;
+    }
+
+
+    /**
+     *  Turns a computed column back into an ordinary editable column. Each
+     *  cell retains its current (computed) value. Does nothing if the column
+     *  is not computed.
+     *
+     *  @throws IllegalArgumentException if another computed column depends
+     *          on this one.
+     */
+    public void removeComputedColumn(int col)
+    {
+        checkWritable();
+        if (getComputedColumn(col) == null)
+            return;
+
+        for (ComputedColumn func : _computed)
+        {
+            if ((func != null) && contains(func.inputs(), col))
+                throw new IllegalArgumentException("column " + col + " is an input to another computed column");
+        }
+
+        materialize(col);
+        _computed.set(col, null);
+        rebuildDependents();
+        if (_textIndex != null)
+            _textIndex.invalidate();
+    }
+
+
+    /**
+     *  Enables or disables dictionary encoding for a column. An encoded column
+     *  stores a 16-bit code per cell (widened to 32 bits if the column has more
+     *  than 65,535 distinct values), along with a single shared copy of each
+     *  distinct value; this is a large savings for text columns that repeat a
+     *  small set of values. Equality filters ({@link TableFilter}) and grouping
+     *  ({@link GroupBy}) work directly with the codes.
+     *  <p>
+     *  Values are compared with <code>equals()</code>, so {@link #getValueAt}
+     *  returns an instance that is equal to (but not necessarily the same as)
+     *  the value passed to {@link #setValueAt}. Values should be immutable.
+     *  <p>
+     *  Encoding may be set for columns that are not yet shown; it will become
+     *  active when the table is widened. Changing the encoding of an existing
+     *  column converts its values, but does not fire any events (since the
+     *  values themselves are unchanged).
+     *
+     *  @throws IllegalArgumentException if the column is computed.
+     *  @throws IllegalStateException if the model uses sparse storage.
+     */
+    public void setDictionaryEncoded(int col, boolean encoded)
+    {
+        checkWritable();
+        if (encoded && (getComputedColumn(col) != null))
+            throw new IllegalArgumentException("column " + col + " is computed");
+        if (encoded && isSparse())
+            throw new IllegalStateException("sparse models do not support encoding");
+
+        _encoded.set(col, encoded);
+        if (col < _colCount)
+            _store.setEncoded(col, encoded);
+    }
+
+
+    /**
+     *  Returns <code>true</code> if the specified column is dictionary-encoded.
+     */
+    public boolean isDictionaryEncoded(int col)
+    {
+        return _encoded.get(col);
+    }
+
+
+    /**
+     *  Limits the (approximate) amount of heap used for cell data. Once the
+     *  limit is reached, the least-recently-used blocks of rows are written to
+     *  a temporary file and read back on demand; this is transparent to the
+     *  table and to callers of {@link #getValueAt} and {@link #setValueAt}.
+     *  <p>
+     *  Cell values are written in a compact binary form if they are strings,
+     *  boxed primitives, <code>Date</code>, <code>BigDecimal</code>, or <code>
+     *  BigInteger</code>; other values are written using serialization, and
+     *  must be <code>Serializable</code>. Column dictionaries, headers, and
+     *  the like are not included in the budget.
+     *  <p>
+     *  A model with a budget registers with the {@link MemoryManager}; when
+     *  the heap is nearly full, it spills all but its most recently used
+     *  rows, regardless of the budget.
+     *
+     *  @param  bytes       The budget; 0 removes any limit, and reads all
+     *                      spilled rows back into memory.
+     *  @param  directory   The directory that holds the temporary file; if
+     *                      <code>null</code>, uses the system's default.
+     *
+     *  @throws IOException if unable to create the temporary file.
+     *  @throws IllegalStateException if the model uses sparse storage.
+     */
+    public void setHeapBudget(long bytes, File directory)
+    throws IOException
+    {
+        checkWritable();
+        if ((bytes != 0) && isSparse())
+            throw new IllegalStateException("sparse models do not support a heap budget");
+        _store.setBudget(bytes, directory);
+        updateTrimmer();
+    }
+
+
+    /**
+     *  Limits the amount of heap used for cell data, spilling rows to a file
+     *  in the system's default temporary directory.
+     */
+    public void setHeapBudget(long bytes)
+    throws IOException
+    {
+        setHeapBudget(bytes, null);
+    }
+
+
+    /**
+     *  Returns the current heap budget, 0 if unlimited.
+     */
+    public long getHeapBudget()
+    {
+        return _store.getBudget();
+    }
+
+
+    /**
+     *  Switches between dense storage (the default) and sparse storage. A
+     *  sparse model only stores non-<code>null</code> cells, so its memory
+     *  use depends on the number of populated cells rather than the number
+     *  of rows times columns; this is appropriate for large grids that are
+     *  mostly empty. Reads and writes remain constant-time, but are slower
+     *  than for dense storage (a hash lookup rather than an array access).
+     *  <p>
+     *  Switching copies the existing cells; no events are fired, since the
+     *  model's contents are unchanged.
+     *
+     *  @throws IllegalStateException if enabling sparse storage for a model
+     *          that has encoded columns or a heap budget, neither of which
+     *          is supported by sparse storage.
+     */
+    public void setSparse(boolean sparse)
+    {
+        checkWritable();
+        if (sparse == isSparse())
+            return;
+
+        if (sparse)
+        {
+            if (!_encoded.isEmpty() || (_store.getBudget() != 0))
+                throw new IllegalStateException("sparse storage does not support encoding or heap budget");
+            _store = new SparseStore(_store);
+        }
+        else
+        {
+            _store = new BlockStore(_store);
+        }
+    }
+
+
+    /**
+     *  Returns <code>true</code> if the model uses sparse storage.
+     */
+    public boolean isSparse()
+    {
+        return _store instanceof SparseStore;
+    }
+
+
+    /**
+     *  Creates an index of the text of the model's cells, which supports fast
+     *  substring search (see {@link CellTextIndex}), and returns it. The index
+     *  is built by scanning the model, and thereafter maintained as cells
+     *  change. Calling this method when the model is already indexed returns
+     *  the existing index.
+     */
+    public CellTextIndex indexText()
+    {
+        if (_textIndex == null)
+            _textIndex = new CellTextIndex(this);
+        return _textIndex;
+    }
+
+
+    /**
+     *  Returns the model's text index, <code>null</code> if it does not have
+     *  one (see {@link #indexText}).
+     */
+    public CellTextIndex getTextIndex()
+    {
+        return _textIndex;
+    }
+
+
+    /**
+     *  Discards the model's text index, if any.
+     */
+    public void removeTextIndex()
+    {
+        _textIndex = null;
+    }
+
+
+    /**
+     *  Returns a read-only copy of the model's current contents, which may be
+     *  read by a background thread (for example, to export or aggregate the
+     *  data) while the event thread continues to modify this model. Must be
+     *  called from the thread that modifies the model.
+     *  <p>
+     *  For dense storage, this takes constant time: the snapshot shares the
+     *  model's blocks of rows, and a block is copied the first time that the
+     *  model modifies it after the snapshot is taken. A sparse model copies
+     *  its populated cells.
+     *  <p>
+     *  The snapshot has the same columns, names, classes, and encoding as the
+     *  model, and the same computed columns; a computed cell that had not
+     *  been evaluated when the snapshot was taken is evaluated each time it's
+     *  read. It does not track aggregates, or have a heap budget of its own
+     *  (blocks that it shares with this model are still subject to this
+     *  model's budget). All methods that would modify the snapshot throw
+     *  <code>UnsupportedOperationException</code>; calling this method on a
+     *  snapshot returns the same snapshot.
+     */
+    public ExpandingTableModel snapshot()
+    {
+        return _readOnly ? this : new ExpandingTableModel(this);
+    }
+
+
+    /**
+     *  Returns <code>true</code> if this model is a snapshot.
+     */
+    public boolean isSnapshot()
+    {
+        return _readOnly;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Package-level methods -- used by filters, aggregations, and import
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns a count that increases whenever the model's content changes
+     *  (ie, whenever it fires an event). A snapshot has the count of its
+     *  model at the time that the snapshot was taken.
+     */
+    int getModificationCount()
+    {
+        return _modCount;
+    }
+
+
+    /**
+     *  Replaces the values in a row's ordinary (non-computed) columns with
+     *  those from the passed array, if different, updating aggregates and
+     *  dependent computed cells. Columns beyond the array's length are set to
+     *  <code>null</code>. Does not fire any events; returns <code>true</code>
+     *  if any value changed, in which case the caller must fire an event for
+     *  the row.
+     */
+    boolean updateRow(int row, Object[] rowData)
+    {
+        checkWritable();
+        boolean changed = false;
+        for (int col = 0 ; col < _colCount ; col++)
+        {
+            if (getComputedColumn(col) != null)
+                continue;
+
+            Object value = (col < rowData.length) ? rowData[col] : null;
+            Object oldValue = _store.get(row, col);
+            if ((value == null) ? (oldValue == null) : value.equals(oldValue))
+                continue;
+
+            checkClass(value, columnClass(col), row, col);
+            _store.set(row, col, value);
+            updateAggregate(col, oldValue, value);
+            if (_textIndex != null)
+                _textIndex.cellChanged(row, col);
+            if (col < _dependents.length)
+            {
+                for (int dependent : _dependents[col])
+                {
+                    invalidate(row, dependent);
+                }
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+
+    /**
+     *  Stores the values of an ordinary column, one per existing row, without
+     *  firing events or updating aggregates. Used to fill a model that hasn't
+     *  yet been seen by any listener; may be called concurrently for different
+     *  columns.
+     *
+     *  @throws IllegalArgumentException if a value is not an instance of the
+     *          column's class.
+     */
+    void loadColumn(int col, Object[] values)
+    {
+        checkWritable();
+        Class<?> klass = columnClass(col);
+        for (int row = 0 ; row < values.length ; row++)
+        {
+            if (values[row] == null)
+                continue;
+            checkClass(values[row], klass, row, col);
+            _store.set(row, col, values[row]);
+        }
+    }
+
+
+    /**
+     *  Deletes and inserts rows, with cost proportional to the size of the
+     *  model rather than to the size of the model times the number of changed
+     *  ranges (see {@link CellStore#splice}). Fires one event for each
+     *  contiguous range of deleted or inserted rows; while each event is
+     *  fired, the model holds the rows as they would be had the ranges been
+     *  deleted and inserted one at a time, from the top down (the rows before
+     *  the range come from the new arrangement, those after it from a
+     *  snapshot of the old). The snapshot is only taken if there are
+     *  listeners and more than one range, and is disposed once the events
+     *  have been fired. Listeners must not modify the model while these
+     *  events are fired.
+     *
+     *  @param  deleted     Indexes of the rows to delete, in the current
+     *                      model, in ascending order.
+     *  @param  inserted    Indexes of the inserted rows in the resulting
+     *                      model, in ascending order.
+     *  @param  rows        The values of the inserted rows, corresponding to
+     *                      <code>inserted</code>. Rows may be of different
+     *                      lengths; the model is widened if necessary.
+     *
+     *  @throws IllegalArgumentException if a value is not an instance of its
+     *          column's class, or is in a computed column. In this case, the
+     *          model is not changed.
+     */
+    void spliceRows(int[] deleted, int[] inserted, List<Object[]> rows)
+    {
+        checkWritable();
+        if ((deleted.length == 0) && (inserted.length == 0))
+            return;
+
+        setWidth(checkRows(rows, 0));
+        for (int col = 0 ; col < Math.min(_colCount, _aggregates.size()) ; col++)
+        {
+            ColumnAggregate agg = getAggregate(col);
+            if (agg == null)
+                continue;
+            for (int row : deleted)
+            {
+                agg.update(getValueAt(row, col), null);
+            }
+            for (Object[] rowData : rows)
+            {
+                if (col < rowData.length)
+                    agg.update(null, rowData[col]);
+            }
+        }
+
+        // with a single range, or nobody to see the intermediate states, the
+        // new arrangement is all that listeners can see
+        CellStore store = _store;
+        boolean staged = (getTableModelListeners().length > 0)
+                      && (countRanges(deleted) + countRanges(inserted) > 1);
+        SpliceView view = staged ? new SpliceView(store, store.snapshot()) : null;
+        store.splice(deleted, inserted, rows);
+        for (int col = 0 ; col < _computed.size() ; col++)
+        {
+            if (_computed.get(col) == null)
+                continue;
+            for (int row : inserted)
+            {
+                invalidate(row, col);
+            }
+        }
+        if (_textIndex != null)
+            _textIndex.invalidate();
+
+        // newRows rows have been processed; they're followed by the old rows
+        // starting at oldStart
+        if (view != null)
+            _store = view;
+        try
+        {
+            int newRows = 0;
+            int oldStart = 0;
+            int del = 0;
+            int ins = 0;
+            while ((del < deleted.length) || (ins < inserted.length))
+            {
+                int deleteAt = (del < deleted.length)
+                             ? newRows + deleted[del] - oldStart
+                             : Integer.MAX_VALUE;
+                if ((ins < inserted.length) && (inserted[ins] < deleteAt))
+                {
+                    int first = inserted[ins];
+                    int last = first;
+                    while ((++ins < inserted.length) && (inserted[ins] == last + 1))
+                    {
+                        last++;
+                    }
+                    oldStart += first - newRows;
+                    newRows = last + 1;
+                    if (view != null)
+                        view.setBoundary(newRows, oldStart);
+                    fireTableRowsInserted(first, last);
+                }
+                else
+                {
+                    int first = deleted[del];
+                    int last = first;
+                    while ((++del < deleted.length) && (deleted[del] == last + 1))
+                    {
+                        last++;
+                    }
+                    newRows = deleteAt;
+                    oldStart = last + 1;
+                    if (view != null)
+                        view.setBoundary(newRows, oldStart);
+                    fireTableRowsDeleted(deleteAt, deleteAt + last - first);
+                }
+            }
+        }
+        finally
+        {
+            _store = store;
+            if (view != null)
+                view.dispose();
+        }
+    }
+
+
+    /**
+     *  Returns the number of contiguous ranges in an ascending list of rows.
+     */
+    private static int countRanges(int[] rows)
+    {
+        int count = 0;
+        for (int ii = 0 ; ii < rows.length ; ii++)
+        {
+            if ((ii == 0) || (rows[ii] != rows[ii - 1] + 1))
+                count++;
+        }
+        return count;
+    }
+
+
+    /**
+     *  Returns the classes of all columns that have a defined class, including
+     *  those beyond the current width. The array is at least as long as the
+     *  current width.
+     */
+    Class<?>[] getColumnClasses()
+    {
+        Class<?>[] classes = new Class<?>[Math.max(_colCount, _classes.size())];
+        for (int col = 0 ; col < classes.length ; col++)
+        {
+            classes[col] = columnClass(col);
+        }
+        return classes;
+    }
+
+
+    /**
+     *  Returns the dictionary for an encoded column, <code>null</code> if the
+     *  column is not encoded (or is not within the current width).
+     */
+    ColumnDictionary getDictionary(int col)
+    {
+        return (col < _colCount)
+               ? _store.getDictionary(col)
+               : null;
+    }
+
+
+    /**
+     *  Returns the dictionary code for a cell in an encoded column. The row
+     *  must not be the "phantom" row.
+     */
+    int getCode(int row, int col)
+    {
+        return _store.getCode(row, col);
+    }
+
+
 //----------------------------------------------------------------------------
 //  Internals
 //----------------------------------------------------------------------------
 
     /**
-     *  Adds an empty row with the current number of columns.
+     *  Counts modifications; every change to the model's content fires an
+     *  event (or, for {@link #updateRow}, is followed by one).
+     */
+    @Override
+    public void fireTableChanged(TableModelEvent e)
+    {
+        _modCount++;
+        super.fireTableChanged(e);
+    }
+
+
+    /**
+     *  Verifies the values of rows that are about to be added to the model,
+     *  returning the width needed to hold them.
+     */
+    private int checkRows(List<Object[]> rows, int first)
+    {
+        int width = _colCount;
+        for (int ii = 0 ; ii < rows.size() ; ii++)
+        {
+            Object[] rowData = rows.get(ii);
+            for (int col = 0 ; col < rowData.length ; col++)
+            {
+                Object value = rowData[col];
+                if (value == null)
+                    continue;
+                checkClass(value, columnClass(col), first + ii, col);
+                if (getComputedColumn(col) != null)
+                    throw new IllegalArgumentException("column " + col + " is computed");
+            }
+            width = Math.max(width, rowData.length);
+        }
+        return width;
+    }
+
+
+    /**
+     *  Updates aggregates and computed cells for rows that have just been
+     *  added to the store, starting at the specified row.
+     */
+    private void rowsAdded(List<Object[]> rows, int first)
+    {
+        int last = first + rows.size() - 1;
+        for (int col = 0 ; col < _aggregates.size() ; col++)
+        {
+            ColumnAggregate agg = getAggregate(col);
+            if (agg == null)
+                continue;
+            for (Object[] rowData : rows)
+            {
+                if (col < rowData.length)
+                    agg.update(null, rowData[col]);
+            }
+        }
+        for (int col = 0 ; col < _computed.size() ; col++)
+        {
+            if (_computed.get(col) == null)
+                continue;
+            for (int row = first ; row <= last ; row++)
+            {
+                invalidate(row, col);
+            }
+        }
+    }
+
+
+    /**
+     *  Adds an empty row with the current number of columns, returning its
+     *  index. Cells of computed columns are marked for evaluation.
      */
-    private ArrayList<Object> addRow()
+    private int addRow()
     {
-        ArrayList<Object> row = new ArrayList<Object>(_colCount);
-        for (int ii = 0 ; ii < _colCount ; ii++)
+        int row = _store.addRow();
+        for (int col = 0 ; col < Math.min(_colCount, _computed.size()) ; col++)
         {
-            row.add(null);
+            if (_computed.get(col) != null)
+                _store.set(row, col, NOT_COMPUTED);
         }
-        _data.add(row);
         return row;
     }
 
@@ -322,34 +1284,73 @@ extends AbstractTableModel
      *  the specified data. Will resize the model if the passed data
      *  is too wide.
      */
-    private ArrayList<Object> addRow(Object[] rowData)
+    private int addRow(Object[] rowData)
     {
         setWidth(Math.max(rowData.length, _colCount));
-        ArrayList<Object> row = addRow();
+        int row = addRow();
         for (int ii = 0 ; ii < rowData.length ; ii++)
         {
-            row.set(ii, rowData[ii]);
+            _store.set(row, ii, rowData[ii]);
         }
         return row;
     }
 
 
     /**
-     *  Resizes the specified row, either adding nulls to the end or removing
-     *  elements from the end, until it matches current column count.
+     *  Registers with the memory manager if the store has a budget, and
+     *  unregisters if not.
      */
-    private ArrayList<Object> resizeRow(int ii)
+    private void updateTrimmer()
     {
-        ArrayList<Object> row = _data.get(ii);
-        while (row.size() > _colCount)
+        boolean budgeted = (_store.getBudget() != 0);
+        if (budgeted && (_trimmer == null))
         {
-            row.remove(row.size() - 1);
+            // the manager holds this weakly, so it lives as long as the model
+            _trimmer = new MemoryManager.Trimmable()
+            {
+                public void trimMemory(MemoryManager.TrimLevel level)
+                {
+                    if (level == MemoryManager.TrimLevel.CRITICAL)
+                        _store.releaseMemory();
+                }
+            };
+            MemoryManager.getInstance().register(_trimmer);
         }
-        while (row.size() < _colCount)
+        else if (!budgeted && (_trimmer != null))
         {
-            row.add(null);
+            MemoryManager.getInstance().unregister(_trimmer);
+            _trimmer = null;
         }
-        return row;
+    }
+
+
+    /**
+     *  Returns the class of a column, without checking that the column is
+     *  within the current width.
+     */
+    private Class<?> columnClass(int col)
+    {
+        return (col < _classes.size())
+               ? _classes.get(col)
+               : Object.class;
+    }
+
+
+    /**
+     *  Throws if passed a row that is past the "phantom" row (the store's
+     *  blocks have room for more rows than it holds, so may not throw).
+     */
+    private void checkRow(int row)
+    {
+        if (row > _store.size())
+            throw new IndexOutOfBoundsException("attempted row: " + row + ", model size: " + getRowCount());
+    }
+
+
+    private void checkWritable()
+    {
+        if (_readOnly)
+            throw new UnsupportedOperationException("snapshot is read-only");
     }
 
 
@@ -367,4 +1368,196 @@ extends AbstractTableModel
                     + ", expected " + klass.getName());
         }
     }
+
+
+    /**
+     *  Updates the column's aggregates, if tracked, to reflect a cell change.
+     */
+    private void updateAggregate(int col, Object oldValue, Object newValue)
+    {
+        ColumnAggregate agg = getAggregate(col);
+        if (agg != null)
+            agg.update(oldValue, newValue);
+    }
+
+
+    /**
+     *  Evaluates a computed cell and remembers the result.
+     */
+    private Object compute(int row, int col)
+    {
+        ComputedColumn func = _computed.get(col);
+        int[] inputs = func.inputs();
+        Object[] values = new Object[inputs.length];
+        for (int ii = 0 ; ii < inputs.length ; ii++)
+        {
+            values[ii] = getValueAt(row, inputs[ii]);
+        }
+
+        Object value = func.compute(values);
+        checkClass(value, getColumnClass(col), row, col);
+        if (!_readOnly)
+            _store.set(row, col, value);
+        return value;
+    }
+
+
+    /**
+     *  Evaluates every cell of a computed column, so that the column can be
+     *  turned into an ordinary column.
+     */
+    private void materialize(int col)
+    {
+        for (int row = 0 ; row < _store.size() ; row++)
+        {
+            getValueAt(row, col);
+        }
+    }
+
+
+    /**
+     *  Discards the remembered value of a computed cell. If the column has
+     *  tracked aggregates, the cell is immediately re-evaluated and the
+     *  aggregates updated. This does not fire any events.
+     */
+    private void invalidate(int row, int col)
+    {
+        Object oldValue = _store.set(row, col, NOT_COMPUTED);
+        ColumnAggregate agg = getAggregate(col);
+        if (agg != null)
+        {
+            // a cell that was never evaluated has never been aggregated
+            agg.update((oldValue == NOT_COMPUTED) ? null : oldValue,
+                       getValueAt(row, col));
+        }
+    }
+
+
+    /**
+     *  Rebuilds the table that maps each column to the computed columns that
+     *  must be invalidated when it changes. Each list is in evaluation order,
+     *  so that a computed column is invalidated after its computed inputs.
+     *
+     *  @throws IllegalArgumentException if the computed columns form a cycle.
+     */
+    private void rebuildDependents()
+    {
+        // topological sort of computed columns, by depth-first search
+        int[] state = new int[_computed.size()];    // 0 = new, 1 = visiting, 2 = done
+        int[] order = new int[_computed.size()];
+        int orderSize = 0;
+        for (int col = 0 ; col < _computed.size() ; col++)
+        {
+            orderSize = visit(col, state, order, orderSize);
+        }
+
+        int[][] dependents = new int[_colCount][];
+        for (int col = 0 ; col < _colCount ; col++)
+        {
+            int[] list = new int[orderSize];
+            int count = 0;
+            for (int ii = 0 ; ii < orderSize ; ii++)
+            {
+                if (dependsOn(order[ii], col))
+                    list[count++] = order[ii];
+            }
+            dependents[col] = Arrays.copyOf(list, count);
+        }
+        _dependents = dependents;
+    }
+
+
+    private int visit(int col, int[] state, int[] order, int orderSize)
+    {
+        ComputedColumn func = getComputedColumn(col);
+        if ((func == null) || (state[col] == 2))
+            return orderSize;
+        if (state[col] == 1)
+            throw new IllegalArgumentException("computed column " + col + " depends on itself");
+
+        state[col] = 1;
+        for (int input : func.inputs())
+        {
+            orderSize = visit(input, state, order, orderSize);
+        }
+        state[col] = 2;
+        order[orderSize] = col;
+        return orderSize + 1;
+    }
+
+
+    /**
+     *  Determines whether a computed column depends, directly or indirectly,
+     *  on another column. Only called after cycles have been ruled out.
+     */
+    private boolean dependsOn(int computedCol, int col)
+    {
+        ComputedColumn func = getComputedColumn(computedCol);
+        if (func == null)
+            return false;
+
+        for (int input : func.inputs())
+        {
+            if ((input == col) || dependsOn(input, col))
+                return true;
+        }
+        return false;
+    }
+
+
+    private static int maxInput(ComputedColumn func)
+    {
+        int max = -1;
+        for (int input : func.inputs())
+        {
+            max = Math.max(max, input);
+        }
+        return max;
+    }
+
+
+    private static boolean contains(int[] values, int value)
+    {
+        for (int ii : values)
+        {
+            if (ii == value)
+                return true;
+        }
+        return false;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Serialization -- aggregates are derived from the cells, so rather than
+//  write their (potentially large) value sets, we write the tracked columns
+//  and rebuild the aggregates on read; a model with a heap budget registers
+//  with the memory manager again
+//----------------------------------------------------------------------------
+
+    private void writeObject(ObjectOutputStream out)
+    throws IOException
+    {
+        out.defaultWriteObject();
+        int[] tracked = new int[_aggregates.size()];
+        int count = 0;
+        for (int col = 0 ; col < _aggregates.size() ; col++)
+        {
+            if (_aggregates.get(col) != null)
+                tracked[count++] = col;
+        }
+        out.writeObject(Arrays.copyOf(tracked, count));
+    }
+
+
+    private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        _aggregates = new ArrayList<ColumnAggregate>();
+        for (int col : (int[])in.readObject())
+        {
+            track(col);
+        }
+        updateTrimmer();
+    }
 }
@@ -0,0 +1,319 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import javax.swing.JTable;
+import javax.swing.JViewport;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableModel;
+
+import net.sf.swinglib.AsynchronousOperation;
+
+
+/**
+ *  Formats the values of rows around a table's visible area on a background
+ *  thread, and loads the resulting text into the cache of each cell's {@link
+ *  FormattingRenderer}, so that scrolling (in either direction) paints text
+ *  that has already been formatted.
+ *  <p>
+ *  Whenever the table scrolls or its model changes, the prefetcher collects
+ *  (on the event thread) the values in the visible rows plus a configurable
+ *  number of pages above and below them, for those cells rendered by a
+ *  <code>FormattingRenderer</code> whose cache doesn't already hold the text
+ *  ({@link AsyncRenderer} columns are skipped, since their text comes from a
+ *  separate computation). It then formats these values on the executor,
+ *  using each renderer's thread-safe {@link
+ *  FormattingRenderer#getCellFormatter formatter}, and passes the text back
+ *  to the renderers on the event thread. A value that can't be formatted is
+ *  left out of the batch (the renderer reports it when painted). Only one
+ *  batch is formatted at a time; scroll events that arrive while a batch is
+ *  running are coalesced into a single follow-up batch, and viewport events
+ *  that don't change the visible area (and follow no model change) are
+ *  ignored.
+ *  <p>
+ *  Each renderer's cache should be large enough to hold the values of the
+ *  prefetched rows; otherwise prefetched text will be evicted before it's
+ *  painted.
+ */
+public class FormatPrefetcher
+{
+    private JTable _table;
+    private JViewport _viewport;
+    private ExecutorService _executor;
+    private int _pages;
+
+    private boolean _running;
+    private boolean _pending;
+
+    // the visible area when values were last collected, and whether the
+    // model has changed since then
+    private Rectangle _collectedRect;
+    private boolean _modelChanged;
+
+    private ChangeListener _viewportListener = new ChangeListener()
+    {
+        public void stateChanged(ChangeEvent e)
+        {
+            if (_modelChanged || !_viewport.getViewRect().equals(_collectedRect))
+                prefetch();
+        }
+    };
+
+    private TableModelListener _modelListener = new TableModelListener()
+    {
+        public void tableChanged(TableModelEvent e)
+        {
+            _modelChanged = true;
+            prefetch();
+        }
+    };
+
+    private PropertyChangeListener _tableListener = new PropertyChangeListener()
+    {
+        public void propertyChange(PropertyChangeEvent evt)
+        {
+            ((TableModel)evt.getOldValue()).removeTableModelListener(_modelListener);
+            ((TableModel)evt.getNewValue()).addTableModelListener(_modelListener);
+            _modelChanged = true;
+            prefetch();
+        }
+    };
+
+
+    /**
+     *  Creates an instance for a table, and starts listening to it. Must be
+     *  called on the event thread.
+     *
+     *  @param  table       The table; it must already be in a scroll pane.
+     *  @param  executor    Used to format values.
+     *  @param  pages       The number of pages (visible heights) of rows to
+     *                      prefetch above and below the visible rows.
+     *
+     *  @throws IllegalArgumentException if the table is not in a scroll pane.
+     */
+    public FormatPrefetcher(JTable table, ExecutorService executor, int pages)
+    {
+        if (!(table.getParent() instanceof JViewport))
+            throw new IllegalArgumentException("table is not in a scroll pane");
+
+        _table = table;
+        _viewport = (JViewport)table.getParent();
+        _executor = executor;
+        _pages = pages;
+
+        _viewport.addChangeListener(_viewportListener);
+        _table.getModel().addTableModelListener(_modelListener);
+        _table.addPropertyChangeListener("model", _tableListener);
+        prefetch();
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Stops listening to the table. A batch that is currently running will
+     *  still update its renderers.
+     */
+    public void dispose()
+    {
+        _viewport.removeChangeListener(_viewportListener);
+        _table.getModel().removeTableModelListener(_modelListener);
+        _table.removePropertyChangeListener("model", _tableListener);
+        _pending = false;
+    }
+
+
+    /**
+     *  Starts a batch for the table's current position, or if a batch is
+     *  already running, arranges for another to start when it completes.
+     *  Called automatically when the table scrolls or its model changes.
+     */
+    public void prefetch()
+    {
+        if (_running)
+        {
+            _pending = true;
+            return;
+        }
+
+        List<Request> requests = collect();
+        if (requests.isEmpty())
+            return;
+
+        _running = true;
+        _executor.execute(new Batch(requests));
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Collects the values that need text, grouped by renderer.
+     */
+    private List<Request> collect()
+    {
+        Rectangle visible = _viewport.getViewRect();
+        _collectedRect = visible;
+        _modelChanged = false;
+        int rowCount = _table.getRowCount();
+        int colCount = _table.getColumnCount();
+        if ((rowCount == 0) || (visible.height == 0))
+            return new ArrayList<Request>();
+
+        int top = _table.rowAtPoint(visible.getLocation());
+        int bottom = _table.rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+        if (top < 0)
+            top = 0;
+        if (bottom < 0)
+            bottom = rowCount - 1;
+        int margin = (bottom - top + 1) * _pages;
+        int first = Math.max(0, top - margin);
+        int last = Math.min(rowCount - 1, bottom + margin);
+
+        Map<FormattingRenderer,Request> requests = new IdentityHashMap<FormattingRenderer,Request>();
+        for (int col = 0 ; col < colCount ; col++)
+        {
+            for (int row = first ; row <= last ; row++)
+            {
+                TableCellRenderer renderer = _table.getCellRenderer(row, col);
+                if (!(renderer instanceof FormattingRenderer) || (renderer instanceof AsyncRenderer))
+                    continue;
+
+                FormattingRenderer fr = (FormattingRenderer)renderer;
+                Object value = _table.getValueAt(row, col);
+                if (!fr.needsText(value))
+                    continue;
+
+                Request request = requests.get(fr);
+                if (request == null)
+                {
+                    request = new Request(fr);
+                    requests.put(fr, request);
+                }
+                request.values.add((value instanceof Date) ? ((Date)value).clone() : value);
+            }
+        }
+        return new ArrayList<Request>(requests.values());
+    }
+
+
+    /**
+     *  The values to be formatted for a single renderer. The formatter and
+     *  generation are captured on the event thread.
+     */
+    private static class Request
+    {
+        public FormattingRenderer renderer;
+        public CellFormatter formatter;
+        public int generation;
+        public Set<Object> values = new LinkedHashSet<Object>();
+        public Map<Object,String> texts;
+
+        public Request(FormattingRenderer renderer)
+        {
+            this.renderer = renderer;
+            this.formatter = renderer.getCellFormatter();
+            this.generation = renderer.getGeneration();
+        }
+    }
+
+
+    /**
+     *  Formats a set of requests, then loads the results into the renderers
+     *  and repaints the table.
+     */
+    private class Batch
+    extends AsynchronousOperation<List<Request>>
+    {
+        private List<Request> _requests;
+
+        public Batch(List<Request> requests)
+        {
+            _requests = requests;
+        }
+
+        @Override
+        protected List<Request> performOperation()
+        {
+            for (Request request : _requests)
+            {
+                request.texts = new HashMap<Object,String>(request.values.size() * 4 / 3 + 1);
+                for (Object value : request.values)
+                {
+                    try
+                    {
+                        request.texts.put(value, request.formatter.format(value));
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        // the renderer will report it when the value is
+                        // painted; the rest of the batch is still useful
+                    }
+                }
+            }
+            return _requests;
+        }
+
+        @Override
+        protected void onComplete()
+        {
+            _running = false;
+        }
+
+        @Override
+        protected void onSuccess(List<Request> requests)
+        {
+            for (Request request : requests)
+            {
+                request.renderer.preload(request.texts, request.generation);
+            }
+            if (_pending)
+            {
+                _pending = false;
+                prefetch();
+            }
+        }
+
+        @Override
+        protected void onFailure(Throwable e)
+        {
+            // formatting errors are caught per value, so this is unexpected;
+            // a follow-up batch would most likely fail the same way
+            _pending = false;
+        }
+    }
+}
@@ -14,17 +14,44 @@
 
 package net.sf.swinglib.table;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.FieldPosition;
 import java.text.Format;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.swing.SwingConstants;
 import javax.swing.table.DefaultTableCellRenderer;
 
+import net.sf.swinglib.MemoryManager;
+
 
 /**
  *  A renderer that allows the caller to specify formatter and alignment.
+ *  <p>
+ *  Since a table repaints the same values over and over (particularly while
+ *  scrolling), the renderer remembers the formatted text of recently-seen
+ *  values in a bounded, least-recently-used cache, and only calls the
+ *  formatter on a miss. Only immutable values are cached (strings, boxed
+ *  primitives, <code>BigDecimal</code>, <code>BigInteger</code>, and enums),
+ *  along with <code>Date</code>, which is copied when cached. On a miss,
+ *  numbers and dates are passed to the type-specific methods of <code>
+ *  NumberFormat</code> and <code>DateFormat</code>, and all values are
+ *  formatted into a reused buffer.
+ *  <p>
+ *  If you change the configuration of the formatter after creating the
+ *  renderer, call {@link #clearCache}.
+ *  <p>
+ *  The renderer may instead be constructed with a thread-safe {@link
+ *  CellFormatter}. Either way, {@link #getCellFormatter} provides a formatter
+ *  that can be used off the event thread, which allows a {@link
+ *  FormatPrefetcher} to fill the cache ahead of scrolling.
  */
 public class FormattingRenderer
 extends DefaultTableCellRenderer
+implements MemoryManager.Trimmable
 {
     private static final long serialVersionUID = 1L;
 
@@ -59,7 +86,19 @@ extends DefaultTableCellRenderer
 //  Instance Variables and Constructor
 //----------------------------------------------------------------------------
 
+    /**
+     *  The default number of formatted values to remember.
+     */
+    public final static int DEFAULT_CACHE_SIZE = 1024;
+
     private Format _formatter;
+    private CellFormatter _cellFormatter;
+    private int _generation;
+    private StringBuffer _buffer = new StringBuffer(32);
+    private FieldPosition _fieldPosition = new FieldPosition(0);
+    private LinkedHashMap<Object,String> _cache;
+    private long _hits;
+    private long _misses;
 
 
     /**
@@ -88,10 +127,141 @@ extends DefaultTableCellRenderer
      *  @param alignment    Used to set the text alignment of this renderer.
      */
     public FormattingRenderer(Format formatter, Alignment alignment)
+    {
+        this(formatter, alignment, DEFAULT_CACHE_SIZE);
+    }
+
+
+    /**
+     *  Creates an instance that allows you to specify alignment and the size
+     *  of the cache of formatted values.
+     *
+     *  @param formatter    This object is responsible for actual formatting.
+     *  @param alignment    Used to set the text alignment of this renderer.
+     *  @param cacheSize    The maximum number of formatted values to remember;
+     *                      0 disables the cache.
+     */
+    public FormattingRenderer(Format formatter, Alignment alignment, int cacheSize)
+    {
+        this(alignment, cacheSize);
+        _formatter = formatter;
+    }
+
+
+    /**
+     *  Creates a right-aligned instance that uses a thread-safe formatter.
+     */
+    public FormattingRenderer(CellFormatter formatter)
+    {
+        this(formatter, Alignment.RIGHT, DEFAULT_CACHE_SIZE);
+    }
+
+
+    /**
+     *  Creates an instance that uses a thread-safe formatter, and allows you
+     *  to specify alignment and the size of the cache of formatted values.
+     */
+    public FormattingRenderer(CellFormatter formatter, Alignment alignment, int cacheSize)
+    {
+        this(alignment, cacheSize);
+        _cellFormatter = formatter;
+    }
+
+
+    private FormattingRenderer(Alignment alignment, final int cacheSize)
     {
         super();
         setHorizontalAlignment(alignment.getSwingAlignment());
-        _formatter = formatter;
+        if (cacheSize > 0)
+        {
+            _cache = new LinkedHashMap<Object,String>(cacheSize * 4 / 3 + 1, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object,String> eldest)
+                {
+                    return size() > cacheSize;
+                }
+            };
+            MemoryManager.getInstance().register(this);
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Discards all cached text, and resets the hit and miss counts. Text that
+     *  is being prefetched when this is called will not be cached.
+     */
+    public void clearCache()
+    {
+        if (_cache != null)
+            _cache.clear();
+        _hits = 0;
+        _misses = 0;
+        _generation++;
+        if (_formatter != null)
+            _cellFormatter = null;
+    }
+
+
+    /**
+     *  Discards all cached text when the application is iconified or memory
+     *  is short (this renderer registers itself with the {@link MemoryManager}
+     *  if it has a cache).
+     */
+    public void trimMemory(MemoryManager.TrimLevel level)
+    {
+        clearCache();
+    }
+
+
+    /**
+     *  Returns a formatter that produces the same text as this renderer, and
+     *  that may be used on any thread. For a renderer constructed with a
+     *  <code>Format</code>, this is a {@link ThreadLocalFormatter} based on
+     *  the format's configuration as of its first call (or the first call
+     *  after {@link #clearCache}).
+     */
+    public CellFormatter getCellFormatter()
+    {
+        if (_cellFormatter == null)
+            _cellFormatter = new ThreadLocalFormatter(_formatter);
+        return _cellFormatter;
+    }
+
+
+    /**
+     *  Returns the number of values whose text was found in the cache.
+     */
+    public long getCacheHits()
+    {
+        return _hits;
+    }
+
+
+    /**
+     *  Returns the number of values that had to be formatted (including those
+     *  that can't be cached).
+     */
+    public long getCacheMisses()
+    {
+        return _misses;
+    }
+
+
+    /**
+     *  Returns the fraction of values whose text was found in the cache, 0 if
+     *  no values have been formatted.
+     */
+    public double getCacheHitRate()
+    {
+        long total = _hits + _misses;
+        return (total == 0) ? 0 : (double)_hits / total;
     }
 
 
@@ -104,7 +274,104 @@ extends DefaultTableCellRenderer
     {
         String text = (value == null)
                     ? ""
-                    : _formatter.format(value);
+                    : cachedFormat(value);
         setText(text);
     }
+
+
+//----------------------------------------------------------------------------
+//  Package-level methods -- used by FormatPrefetcher
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns <code>true</code> if the value could be cached but is not.
+     */
+    boolean needsText(Object value)
+    {
+        return (value != null) && (_cache != null) && isCacheable(value)
+            && !_cache.containsKey(value);
+    }
+
+
+    /**
+     *  Identifies the current cache contents; incremented by {@link
+     *  #clearCache}.
+     */
+    int getGeneration()
+    {
+        return _generation;
+    }
+
+
+    /**
+     *  Adds text produced by a background thread to the cache, unless the
+     *  cache has been cleared since the text was requested. Does not affect
+     *  the hit and miss counts.
+     */
+    void preload(Map<Object,String> texts, int generation)
+    {
+        if ((_cache == null) || (generation != _generation))
+            return;
+        for (Map.Entry<Object,String> entry : texts.entrySet())
+        {
+            if (!_cache.containsKey(entry.getKey()))
+                _cache.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private String cachedFormat(Object value)
+    {
+        boolean cacheable = (_cache != null) && isCacheable(value);
+        if (cacheable)
+        {
+            String text = _cache.get(value);
+            if (text != null)
+            {
+                _hits++;
+                return text;
+            }
+        }
+
+        _misses++;
+        String text = format(value);
+        if (cacheable)
+        {
+            Object key = (value instanceof Date) ? ((Date)value).clone() : value;
+            _cache.put(key, text);
+        }
+        return text;
+    }
+
+
+    /**
+     *  Formats a value into the reused buffer, using type-specific methods
+     *  where possible.
+     */
+    private String format(Object value)
+    {
+        return (_formatter != null)
+               ? ThreadLocalFormatter.format(_formatter, value, _buffer, _fieldPosition)
+               : _cellFormatter.format(value);
+    }
+
+
+    /**
+     *  Determines whether a value may be used as a cache key: it must be
+     *  immutable (or copied, in the case of <code>Date</code>).
+     */
+    static boolean isCacheable(Object value)
+    {
+        return (value instanceof String)
+            || ThreadLocalFormatter.isIntegral(value)
+            || (value instanceof Double) || (value instanceof Float)
+            || (value instanceof BigDecimal) || (value instanceof BigInteger)
+            || (value instanceof Boolean) || (value instanceof Character)
+            || (value instanceof Enum)
+            || ((value instanceof Date) && (value.getClass() == Date.class));
+    }
 }
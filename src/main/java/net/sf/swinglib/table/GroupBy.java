@@ -0,0 +1,491 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.table.TableModel;
+
+import net.sf.swinglib.components.ProgressMonitor;
+
+
+/**
+ *  Describes a group-by (and optionally pivot) aggregation over a table model,
+ *  and computes it. The result is a new {@link ExpandingTableModel} with one
+ *  row per distinct combination of group column values, followed by one
+ *  column per aggregate. If a pivot column is specified, each distinct value
+ *  of that column produces its own set of aggregate columns.
+ *  <p>
+ *  For example, to sum sales (column 3) by region (column 0) and product
+ *  (column 1), with a separate column per quarter (column 2):
+ *  <pre>
+ *      GroupBy spec = new GroupBy(0, 1)
+ *                     .pivotOn(2)
+ *                     .aggregate(3, ColumnAggregate.Function.SUM);
+ *  </pre>
+ *  The source model is partitioned into fixed-size row ranges that are
+ *  aggregated in parallel on an <code>ExecutorService</code>, each into its
+ *  own partial map; the partial maps are merged once all ranges complete.
+ *  Use {@link GroupByOperation} to run the computation off the event thread.
+ *  <p>
+ *  Output rows are sorted by group values, output pivot columns by pivot
+ *  value (both using the ordering of {@link ColumnAggregate#getMin}).
+ *  <p>
+ *  Instances are not thread-safe while being configured, but may be shared
+ *  once configuration is complete. The source model must not be modified
+ *  while the computation is running.
+ */
+public class GroupBy
+{
+    /**
+     *  Number of source rows aggregated by a single task.
+     */
+    private final static int CHUNK_SIZE = 256 * 1024;
+
+    private int[] _groupCols;
+    private int _pivotCol = -1;
+    private List<Integer> _aggCols = new ArrayList<Integer>();
+    private List<ColumnAggregate.Function> _aggFuncs = new ArrayList<ColumnAggregate.Function>();
+
+
+    /**
+     *  Creates an instance that groups by the specified columns (in order).
+     *  With no columns, the entire model is a single group.
+     */
+    public GroupBy(int... groupColumns)
+    {
+        _groupCols = groupColumns.clone();
+    }
+
+
+//----------------------------------------------------------------------------
+//  Configuration
+//----------------------------------------------------------------------------
+
+    /**
+     *  Adds an aggregate column to the output.
+     *
+     *  @return This object, for chaining.
+     */
+    public GroupBy aggregate(int col, ColumnAggregate.Function func)
+    {
+        _aggCols.add(Integer.valueOf(col));
+        _aggFuncs.add(func);
+        return this;
+    }
+
+
+    /**
+     *  Specifies a column whose distinct values become output columns.
+     *
+     *  @return This object, for chaining.
+     */
+    public GroupBy pivotOn(int col)
+    {
+        _pivotCol = col;
+        return this;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Computation
+//----------------------------------------------------------------------------
+
+    /**
+     *  Computes the aggregation on the calling thread, with work spread over
+     *  the passed executor (which may be <code>null</code>). If passed a
+     *  progress monitor, its progress is updated as row ranges complete.
+     */
+    public ExpandingTableModel compute(final TableModel model, ExecutorService executor,
+                                       final ProgressMonitor progress)
+    {
+        if (_aggCols.isEmpty())
+            throw new IllegalStateException("no aggregates specified");
+
+        final int rowCount = (model instanceof ExpandingTableModel)
+                           ? ((ExpandingTableModel)model).getDataRowCount()
+                           : model.getRowCount();
+        final int chunks = ParallelScan.chunkCount(rowCount, CHUNK_SIZE);
+        final List<Map<Object,ColumnAggregate[]>> partials
+                = new ArrayList<Map<Object,ColumnAggregate[]>>(
+                        Collections.<Map<Object,ColumnAggregate[]>>nCopies(chunks, null));
+        final AtomicInteger completed = new AtomicInteger();
+        final ColumnDictionary[] dicts = keyDictionaries(model);
+
+        if (progress != null)
+            progress.setProgress(0, 0, chunks + 1);
+
+        ParallelScan.run(executor, rowCount, CHUNK_SIZE, new ParallelScan.RangeTask()
+        {
+            public void scan(int chunk, int start, int end)
+            {
+                Map<Object,ColumnAggregate[]> partial;
+                if (dicts != null)
+                {
+                    partial = accumulateCoded((ExpandingTableModel)model, dicts, start, end);
+                }
+                else
+                {
+                    partial = new HashMap<Object,ColumnAggregate[]>();
+                    for (int row = start ; row < end ; row++)
+                    {
+                        accumulate(model, row, partial);
+                    }
+                }
+                synchronized (partials)
+                {
+                    partials.set(chunk, partial);
+                }
+                if (progress != null)
+                    progress.setProgress(0, completed.incrementAndGet(), chunks + 1);
+            }
+        });
+
+        Map<Object,ColumnAggregate[]> merged = merge(partials);
+        ExpandingTableModel result = buildResult(model, merged);
+        if (progress != null)
+            progress.setProgress(0, chunks + 1, chunks + 1);
+        return result;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Adds a single source row to a partial map. The map key combines the
+     *  group key and (if pivoting) the pivot value.
+     */
+    private void accumulate(TableModel model, int row, Map<Object,ColumnAggregate[]> partial)
+    {
+        Object pivot = (_pivotCol >= 0) ? model.getValueAt(row, _pivotCol) : null;
+        Object[] keyValues = new Object[_groupCols.length + 1];
+        for (int ii = 0 ; ii < _groupCols.length ; ii++)
+        {
+            keyValues[ii] = model.getValueAt(row, _groupCols[ii]);
+        }
+        keyValues[_groupCols.length] = pivot;
+        Key key = new Key(keyValues);
+
+        ColumnAggregate[] aggs = partial.get(key);
+        if (aggs == null)
+        {
+            aggs = newAccumulators();
+            partial.put(key, aggs);
+        }
+
+        for (int ii = 0 ; ii < aggs.length ; ii++)
+        {
+            aggs[ii].add(model.getValueAt(row, _aggCols.get(ii).intValue()));
+        }
+    }
+
+
+    /**
+     *  If all key columns (group and pivot) of the source are dictionary
+     *  encoded, and the combinations of their codes fit in a <code>long
+     *  </code>, returns their dictionaries (with <code>null</code> for the
+     *  pivot if there isn't one). Otherwise returns <code>null</code>.
+     */
+    private ColumnDictionary[] keyDictionaries(TableModel model)
+    {
+        if (!(model instanceof ExpandingTableModel))
+            return null;
+
+        ExpandingTableModel etm = (ExpandingTableModel)model;
+        ColumnDictionary[] dicts = new ColumnDictionary[_groupCols.length + 1];
+        long combinations = 1;
+        for (int ii = 0 ; ii < dicts.length ; ii++)
+        {
+            if ((ii == _groupCols.length) && (_pivotCol < 0))
+                break;
+
+            int col = (ii < _groupCols.length) ? _groupCols[ii] : _pivotCol;
+            dicts[ii] = etm.getDictionary(col);
+            if (dicts[ii] == null)
+                return null;
+
+            int size = dicts[ii].size();
+            if (combinations > Long.MAX_VALUE / size)
+                return null;
+            combinations *= size;
+        }
+        return dicts;
+    }
+
+
+    /**
+     *  Aggregates a range of rows whose key columns are all encoded. Rows are
+     *  grouped by a single <code>long</code> that combines the key codes, so
+     *  no per-row key object is created; the codes are decoded into ordinary
+     *  keys once per group when the range is complete.
+     */
+    private Map<Object,ColumnAggregate[]> accumulateCoded(
+            ExpandingTableModel model, ColumnDictionary[] dicts, int start, int end)
+    {
+        int groupWidth = _groupCols.length;
+        int[] keyCols = Arrays.copyOf(_groupCols, groupWidth + 1);
+        keyCols[groupWidth] = _pivotCol;
+        int keyCount = (_pivotCol >= 0) ? keyCols.length : groupWidth;
+        int[] radix = new int[keyCount];
+        for (int ii = 0 ; ii < keyCount ; ii++)
+        {
+            radix[ii] = dicts[ii].size();
+        }
+
+        LongObjectMap<ColumnAggregate[]> coded = new LongObjectMap<ColumnAggregate[]>();
+        for (int row = start ; row < end ; row++)
+        {
+            long key = 0;
+            for (int ii = 0 ; ii < keyCount ; ii++)
+            {
+                key = key * radix[ii] + model.getCode(row, keyCols[ii]);
+            }
+
+            ColumnAggregate[] aggs = coded.get(key);
+            if (aggs == null)
+            {
+                aggs = newAccumulators();
+                coded.put(key, aggs);
+            }
+
+            for (int ii = 0 ; ii < aggs.length ; ii++)
+            {
+                aggs[ii].add(model.getValueAt(row, _aggCols.get(ii).intValue()));
+            }
+        }
+
+        Map<Object,ColumnAggregate[]> partial = new HashMap<Object,ColumnAggregate[]>(coded.size() * 2);
+        for (int slot = 0 ; slot < coded.capacity() ; slot++)
+        {
+            ColumnAggregate[] aggs = coded.valueAt(slot);
+            if (aggs == null)
+                continue;
+
+            long key = coded.keyAt(slot);
+            Object[] keyValues = new Object[groupWidth + 1];
+            for (int ii = keyCount - 1 ; ii >= 0 ; ii--)
+            {
+                keyValues[ii] = dicts[ii].decode((int)(key % radix[ii]));
+                key /= radix[ii];
+            }
+            partial.put(new Key(keyValues), aggs);
+        }
+        return partial;
+    }
+
+
+    private ColumnAggregate[] newAccumulators()
+    {
+        ColumnAggregate[] aggs = new ColumnAggregate[_aggCols.size()];
+        for (int ii = 0 ; ii < aggs.length ; ii++)
+        {
+            aggs[ii] = new ColumnAggregate(_aggCols.get(ii).intValue(), false);
+        }
+        return aggs;
+    }
+
+
+    /**
+     *  Merges the per-range partial maps, in range order.
+     */
+    private Map<Object,ColumnAggregate[]> merge(List<Map<Object,ColumnAggregate[]>> partials)
+    {
+        Map<Object,ColumnAggregate[]> merged = new HashMap<Object,ColumnAggregate[]>();
+        for (Map<Object,ColumnAggregate[]> partial : partials)
+        {
+            for (Map.Entry<Object,ColumnAggregate[]> entry : partial.entrySet())
+            {
+                ColumnAggregate[] existing = merged.get(entry.getKey());
+                if (existing == null)
+                {
+                    merged.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                ColumnAggregate[] addition = entry.getValue();
+                for (int ii = 0 ; ii < existing.length ; ii++)
+                {
+                    existing[ii].merge(addition[ii]);
+                }
+            }
+        }
+        return merged;
+    }
+
+
+    /**
+     *  Lays out the merged aggregates as a table model.
+     */
+    private ExpandingTableModel buildResult(TableModel model, Map<Object,ColumnAggregate[]> merged)
+    {
+        int groupWidth = _groupCols.length;
+
+        // distinct group keys (without pivot) and pivot values, sorted
+        TreeSet<Key> groups = new TreeSet<Key>(KEY_ORDER);
+        TreeSet<Key> pivots = new TreeSet<Key>(KEY_ORDER);
+        for (Object obj : merged.keySet())
+        {
+            Key key = (Key)obj;
+            groups.add(key.prefix(groupWidth));
+            pivots.add(new Key(new Object[] { key.values[groupWidth] }));
+        }
+
+        List<Key> groupList = new ArrayList<Key>(groups);
+        List<Key> pivotList = new ArrayList<Key>(pivots);
+        int aggCount = _aggCols.size();
+        int width = groupWidth + pivotList.size() * aggCount;
+
+        Object[] headers = new Object[width];
+        Class<?>[] classes = new Class<?>[width];
+        for (int ii = 0 ; ii < groupWidth ; ii++)
+        {
+            headers[ii] = model.getColumnName(_groupCols[ii]);
+            classes[ii] = model.getColumnClass(_groupCols[ii]);
+        }
+        for (int pp = 0 ; pp < pivotList.size() ; pp++)
+        {
+            for (int aa = 0 ; aa < aggCount ; aa++)
+            {
+                int col = groupWidth + pp * aggCount + aa;
+                ColumnAggregate.Function func = _aggFuncs.get(aa);
+                int srcCol = _aggCols.get(aa).intValue();
+                String header = func.name() + "(" + model.getColumnName(srcCol) + ")";
+                headers[col] = (_pivotCol >= 0)
+                             ? pivotList.get(pp).values[0] + " " + header
+                             : header;
+                classes[col] = resultClass(func, model.getColumnClass(srcCol));
+            }
+        }
+
+        Object[][] data = new Object[groupList.size()][width];
+        for (int rr = 0 ; rr < data.length ; rr++)
+        {
+            Key group = groupList.get(rr);
+            System.arraycopy(group.values, 0, data[rr], 0, groupWidth);
+            for (int pp = 0 ; pp < pivotList.size() ; pp++)
+            {
+                Object[] keyValues = Arrays.copyOf(group.values, groupWidth + 1);
+                keyValues[groupWidth] = pivotList.get(pp).values[0];
+                ColumnAggregate[] aggs = merged.get(new Key(keyValues));
+                for (int aa = 0 ; aa < aggCount ; aa++)
+                {
+                    data[rr][groupWidth + pp * aggCount + aa] = (aggs == null)
+                                                             ? null
+                                                             : _aggFuncs.get(aa).valueOf(aggs[aa]);
+                }
+            }
+        }
+
+        ExpandingTableModel result = new ExpandingTableModel(data, headers, classes);
+        result.setWidth(width);
+        return result;
+    }
+
+
+    private static Class<?> resultClass(ColumnAggregate.Function func, Class<?> srcClass)
+    {
+        switch (func)
+        {
+            case COUNT :
+                return Integer.class;
+            case SUM :
+                return Number.class;
+            case MEAN :
+                return Double.class;
+            default :
+                return srcClass;
+        }
+    }
+
+
+    /**
+     *  A composite grouping key. The last element holds the pivot value (or
+     *  <code>null</code> if not pivoting).
+     */
+    private static class Key
+    {
+        public Object[] values;
+        private int _hashCode;
+
+        public Key(Object[] values)
+        {
+            this.values = values;
+            _hashCode = Arrays.hashCode(values);
+        }
+
+        public Key prefix(int length)
+        {
+            return new Key(Arrays.copyOf(values, length));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return (obj instanceof Key)
+                && (_hashCode == ((Key)obj)._hashCode)
+                && Arrays.equals(values, ((Key)obj).values);
+        }
+    }
+
+
+    /**
+     *  Orders keys element by element; <code>null</code>s sort last. Values
+     *  that are not equal but can't be ordered (eg, non-comparable objects)
+     *  fall back to their string values, then identity, so that they remain
+     *  distinct groups.
+     */
+    private final static Comparator<Key> KEY_ORDER = new Comparator<Key>()
+    {
+        public int compare(Key k1, Key k2)
+        {
+            for (int ii = 0 ; ii < k1.values.length ; ii++)
+            {
+                Object v1 = k1.values[ii];
+                Object v2 = k2.values[ii];
+                if (v1 == v2)
+                    continue;
+                if (v1 == null)
+                    return 1;
+                if (v2 == null)
+                    return -1;
+                if (v1.equals(v2))
+                    continue;
+                int cmp = ColumnAggregate.compareValues(v1, v2);
+                if (cmp == 0)
+                    cmp = String.valueOf(v1).compareTo(String.valueOf(v2));
+                if (cmp == 0)
+                    cmp = (System.identityHashCode(v1) < System.identityHashCode(v2)) ? -1 : 1;
+                return cmp;
+            }
+            return 0;
+        }
+    };
+}
@@ -0,0 +1,94 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.util.concurrent.ExecutorService;
+
+import javax.swing.table.TableModel;
+
+import net.sf.swinglib.AsynchronousOperation;
+import net.sf.swinglib.components.ProgressMonitor;
+
+
+/**
+ *  Runs a {@link GroupBy} aggregation as an {@link AsynchronousOperation}.
+ *  Subclass and override {@link #onSuccess} to receive the result model on
+ *  the event thread, then pass the instance to an executor. This may be the
+ *  same executor that does the partitioned aggregation, even one with a
+ *  single thread: the operation's own thread aggregates row ranges, and it
+ *  never waits on a helper task that is still queued behind it.
+ *  <pre>
+ *      executor.execute(new GroupByOperation(spec, model, executor, monitor)
+ *      {
+ *          protected void onSuccess(ExpandingTableModel result)
+ *          {
+ *              pivotTable.setModel(result);
+ *          }
+ *      });
+ *  </pre>
+ *  If constructed with a {@link ProgressMonitor}, the monitor is shown when
+ *  the operation starts, updated as row ranges complete, and hidden when the
+ *  operation completes (successfully or not).
+ */
+public abstract class GroupByOperation
+extends AsynchronousOperation<ExpandingTableModel>
+{
+    private GroupBy _spec;
+    private TableModel _model;
+    private ExecutorService _executor;
+    private ProgressMonitor _progress;
+
+
+    /**
+     *  @param  spec        The aggregation to perform.
+     *  @param  model       The source model. An {@link ExpandingTableModel}
+     *                      is replaced by a snapshot, so may continue to be
+     *                      edited (construct the operation on the event
+     *                      thread); any other model must not be modified
+     *                      while the operation is running.
+     *  @param  executor    Used to aggregate row ranges in parallel; may be
+     *                      <code>null</code>, in which case the aggregation
+     *                      runs entirely on the operation's thread.
+     *  @param  progress    Optional progress monitor; may be <code>null</code>.
+     */
+    public GroupByOperation(GroupBy spec, TableModel model,
+                            ExecutorService executor, ProgressMonitor progress)
+    {
+        _spec = spec;
+        _model = (model instanceof ExpandingTableModel)
+               ? ((ExpandingTableModel)model).snapshot()
+               : model;
+        _executor = executor;
+        _progress = progress;
+    }
+
+
+    @Override
+    protected ExpandingTableModel performOperation()
+    throws Exception
+    {
+        if (_progress != null)
+            _progress.show();
+        return _spec.compute(_model, _executor, _progress);
+    }
+
+
+    @Override
+    protected void onComplete()
+    {
+        if (_progress != null)
+            _progress.hide();
+    }
+}
@@ -0,0 +1,230 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.Serializable;
+
+
+/**
+ *  A hash map with primitive <code>long</code> keys, using open addressing
+ *  with linear probing. This avoids boxing the key and allocating an entry
+ *  object per mapping, so it's used where the table package needs to map
+ *  large numbers of composite keys (such as row and column).
+ *  <p>
+ *  Values may not be <code>null</code> (a <code>null</code> value marks an
+ *  empty slot). Iterate the map using {@link #capacity}, {@link #keyAt}, and
+ *  {@link #valueAt}, skipping slots where the value is <code>null</code>.
+ *  <p>
+ *  Not thread-safe.
+ */
+final class LongObjectMap<V>
+implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private long[] _keys;
+    private Object[] _values;
+    private int _size;
+    private int _shift;
+
+
+    public LongObjectMap()
+    {
+        this(16);
+    }
+
+
+    /**
+     *  Creates an instance sized to hold the specified number of mappings
+     *  without resizing.
+     */
+    public LongObjectMap(int expectedSize)
+    {
+        int capacity = 16;
+        while (capacity < expectedSize * 2)
+        {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    public int size()
+    {
+        return _size;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public V get(long key)
+    {
+        int mask = _keys.length - 1;
+        for (int idx = slot(key) ; ; idx = (idx + 1) & mask)
+        {
+            Object value = _values[idx];
+            if (value == null)
+                return null;
+            if (_keys[idx] == key)
+                return (V)value;
+        }
+    }
+
+
+    /**
+     *  Stores a mapping, returning the previous value for the key.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value)
+    {
+        if (value == null)
+            throw new IllegalArgumentException("null values not permitted");
+
+        int mask = _keys.length - 1;
+        int idx = slot(key);
+        for ( ; _values[idx] != null ; idx = (idx + 1) & mask)
+        {
+            if (_keys[idx] == key)
+            {
+                Object oldValue = _values[idx];
+                _values[idx] = value;
+                return (V)oldValue;
+            }
+        }
+
+        _keys[idx] = key;
+        _values[idx] = value;
+        if (++_size * 4 > _keys.length * 3)
+            rehash(_keys.length * 2);
+        return null;
+    }
+
+
+    /**
+     *  Removes a mapping, returning its value (<code>null</code> if there
+     *  was no mapping for the key).
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key)
+    {
+        int mask = _keys.length - 1;
+        int idx = slot(key);
+        while (true)
+        {
+            if (_values[idx] == null)
+                return null;
+            if (_keys[idx] == key)
+                break;
+            idx = (idx + 1) & mask;
+        }
+
+        Object oldValue = _values[idx];
+        _size--;
+
+        // backward-shift deletion: move later entries of the probe sequence
+        // into the hole, so that lookups never need tombstones
+        int hole = idx;
+        for (idx = (idx + 1) & mask ; _values[idx] != null ; idx = (idx + 1) & mask)
+        {
+            int home = slot(_keys[idx]);
+            boolean movable = (hole <= idx)
+                            ? ((home <= hole) || (home > idx))
+                            : ((home <= hole) && (home > idx));
+            if (movable)
+            {
+                _keys[hole] = _keys[idx];
+                _values[hole] = _values[idx];
+                hole = idx;
+            }
+        }
+        _values[hole] = null;
+        return (V)oldValue;
+    }
+
+
+    public void clear()
+    {
+        allocate(16);
+    }
+
+
+    /**
+     *  Returns the number of slots, for iteration.
+     */
+    public int capacity()
+    {
+        return _keys.length;
+    }
+
+
+    /**
+     *  Returns the key in a slot; only meaningful if {@link #valueAt} is not
+     *  <code>null</code>.
+     */
+    public long keyAt(int slot)
+    {
+        return _keys[slot];
+    }
+
+
+    /**
+     *  Returns the value in a slot, <code>null</code> if the slot is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot)
+    {
+        return (V)_values[slot];
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private void allocate(int capacity)
+    {
+        _keys = new long[capacity];
+        _values = new Object[capacity];
+        _shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        _size = 0;
+    }
+
+
+    /**
+     *  Fibonacci hashing: spreads sequential keys (which are common, since
+     *  they're usually derived from row numbers) across the table.
+     */
+    private int slot(long key)
+    {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> _shift);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int newCapacity)
+    {
+        long[] oldKeys = _keys;
+        Object[] oldValues = _values;
+        allocate(newCapacity);
+        for (int ii = 0 ; ii < oldKeys.length ; ii++)
+        {
+            if (oldValues[ii] != null)
+                put(oldKeys[ii], (V)oldValues[ii]);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ *  Splits a range of indexes into fixed-size chunks and scans them using an
+ *  application-provided <code>ExecutorService</code>.
+ *  <p>
+ *  The calling thread participates in the scan: chunks are claimed from a
+ *  shared counter, so if the executor is saturated (or is the same pool that
+ *  is running the caller) the caller simply processes all chunks itself.
+ *  Once there are no chunks left, the caller cancels any helper task that
+ *  hasn't started, and waits only for helpers that are already processing a
+ *  chunk; it never waits on a task that is queued behind it. This means that
+ *  it's safe to call from within an {@link
+ *  net.sf.swinglib.AsynchronousOperation} that is running on the same
+ *  executor, even if that executor has a single thread.
+ */
+final class ParallelScan
+{
+    /**
+     *  Implemented by the caller to process a single chunk. Chunks never
+     *  overlap, and each is processed exactly once.
+     */
+    interface RangeTask
+    {
+        /**
+         *  Processes the indexes from <code>start</code> (inclusive) to
+         *  <code>end</code> (exclusive).
+         *
+         *  @param  chunk   The ordinal of this chunk, for callers that keep
+         *                  per-chunk results.
+         */
+        void scan(int chunk, int start, int end)
+        throws Exception;
+    }
+
+
+    private ParallelScan()
+    {
+        // static methods only
+    }
+
+
+    /**
+     *  Returns the number of chunks that {@link #run} will create.
+     */
+    public static int chunkCount(int count, int chunkSize)
+    {
+        return (count + chunkSize - 1) / chunkSize;
+    }
+
+
+    /**
+     *  Scans <code>count</code> indexes in chunks of <code>chunkSize</code>,
+     *  returning once all chunks have been processed. If the executor is
+     *  <code>null</code>, runs entirely on the calling thread.
+     *
+     *  @throws RuntimeException wrapping the first exception thrown by a
+     *          chunk (unchecked exceptions are rethrown as-is). Once a chunk
+     *          fails, no further chunks are started.
+     */
+    public static void run(ExecutorService executor, int count, int chunkSize,
+                           final RangeTask task)
+    {
+        final int total = count;
+        final int size = chunkSize;
+        final int chunks = chunkCount(count, chunkSize);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        Runnable worker = new Runnable()
+        {
+            public void run()
+            {
+                int chunk;
+                while ((failed.get() == 0) && ((chunk = next.getAndIncrement()) < chunks))
+                {
+                    int start = chunk * size;
+                    try
+                    {
+                        task.scan(chunk, start, Math.min(start + size, total));
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        failed.set(1);
+                        throw ex;
+                    }
+                    catch (Exception ex)
+                    {
+                        failed.set(1);
+                        throw new RuntimeException(ex);
+                    }
+                }
+            }
+        };
+
+        // a helper must claim its slot before working; the caller claims the
+        // slots of helpers that haven't started, so they never run
+        int helpers = (executor != null)
+                    ? Math.min(chunks, Runtime.getRuntime().availableProcessors()) - 1
+                    : 0;
+        final AtomicIntegerArray started = new AtomicIntegerArray(Math.max(helpers, 0));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int ii = 0 ; ii < helpers ; ii++)
+        {
+            final int slot = ii;
+            final Runnable body = worker;
+            futures.add(executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    if (started.compareAndSet(slot, 0, 1))
+                        body.run();
+                }
+            }));
+        }
+
+        RuntimeException failure = null;
+        try
+        {
+            worker.run();
+        }
+        catch (RuntimeException ex)
+        {
+            failure = ex;
+        }
+
+        for (int ii = 0 ; ii < futures.size() ; ii++)
+        {
+            Future<?> future = futures.get(ii);
+            if (started.compareAndSet(ii, 0, -1))
+            {
+                future.cancel(false);
+                continue;
+            }
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException ex)
+            {
+                failed.set(1);
+                Thread.currentThread().interrupt();
+                if (failure == null)
+                    failure = new RuntimeException("interrupted while scanning", ex);
+            }
+            catch (ExecutionException ex)
+            {
+                if (failure == null)
+                    failure = (ex.getCause() instanceof RuntimeException)
+                            ? (RuntimeException)ex.getCause()
+                            : new RuntimeException(ex.getCause());
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+}
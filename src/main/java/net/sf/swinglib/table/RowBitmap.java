@@ -0,0 +1,165 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+
+/**
+ *  A fixed-size set of row indexes, stored as one bit per row. This is the
+ *  result of evaluating a {@link TableFilter}, and is applied to a table's
+ *  view via {@link BitmapRowFilter}.
+ *  <p>
+ *  Unlike <code>java.util.BitSet</code>, distinct 64-row ranges may be
+ *  written concurrently by different threads (which is how the filter
+ *  evaluates in parallel). Instances are not otherwise thread-safe, and
+ *  should be treated as read-only once published.
+ */
+public final class RowBitmap
+{
+    private int _size;
+    private long[] _words;
+
+
+    /**
+     *  Creates an instance covering the specified number of rows, with
+     *  no rows set.
+     */
+    public RowBitmap(int size)
+    {
+        _size = size;
+        _words = new long[(size + 63) >>> 6];
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the number of rows covered by this bitmap.
+     */
+    public int size()
+    {
+        return _size;
+    }
+
+
+    /**
+     *  Returns <code>true</code> if the specified row is set. Rows outside
+     *  the bitmap are reported as not set.
+     */
+    public boolean get(int row)
+    {
+        if ((row < 0) || (row >= _size))
+            return false;
+
+        return (_words[row >>> 6] & (1L << row)) != 0;
+    }
+
+
+    /**
+     *  Marks the specified row as set.
+     */
+    public void set(int row)
+    {
+        if ((row < 0) || (row >= _size))
+            throw new IndexOutOfBoundsException("attempted: " + row + ", bitmap size: " + _size);
+
+        _words[row >>> 6] |= (1L << row);
+    }
+
+
+    /**
+     *  Returns the number of rows that are set.
+     */
+    public int cardinality()
+    {
+        int count = 0;
+        for (long word : _words)
+        {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+
+    /**
+     *  Returns the index of the first set row at or after the specified
+     *  row, -1 if there are none. Use this to iterate the set rows:
+     *  <pre>
+     *      for (int row = bitmap.nextSetRow(0) ; row >= 0 ; row = bitmap.nextSetRow(row + 1))
+     *  </pre>
+     */
+    public int nextSetRow(int row)
+    {
+        if (row >= _size)
+            return -1;
+
+        int idx = row >>> 6;
+        long word = _words[idx] & (-1L << row);
+        while (true)
+        {
+            if (word != 0)
+            {
+                int found = (idx << 6) + Long.numberOfTrailingZeros(word);
+                return (found < _size) ? found : -1;
+            }
+            if (++idx == _words.length)
+                return -1;
+            word = _words[idx];
+        }
+    }
+
+
+    /**
+     *  Returns a new bitmap containing the rows set in both this bitmap and
+     *  the passed bitmap. The result is sized to the smaller of the two.
+     */
+    public RowBitmap and(RowBitmap that)
+    {
+        RowBitmap result = new RowBitmap(Math.min(_size, that._size));
+        for (int ii = 0 ; ii < result._words.length ; ii++)
+        {
+            result._words[ii] = _words[ii] & that._words[ii];
+        }
+        result.clearTail();
+        return result;
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Sets or clears a 64-row word directly; the evaluator uses this to
+     *  write each row range without read-modify-write on shared words.
+     */
+    void setWord(int wordIndex, long value)
+    {
+        _words[wordIndex] = value;
+    }
+
+
+    /**
+     *  Clears any bits past the end of the bitmap (which may have been set
+     *  by word-level operations).
+     */
+    private void clearTail()
+    {
+        int extra = _size & 63;
+        if (extra != 0)
+            _words[_words.length - 1] &= (1L << extra) - 1;
+    }
+}
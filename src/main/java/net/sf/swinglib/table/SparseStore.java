@@ -0,0 +1,283 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ *  Cell storage for mostly-empty models: only non-<code>null</code> cells are
+ *  stored, in a single {@link LongObjectMap} keyed by row and column. Memory
+ *  is proportional to the number of populated cells, regardless of the size
+ *  of the grid; reads and writes are a single hash probe.
+ *  <p>
+ *  Does not support dictionary encoding or heap budgets. A snapshot is a
+ *  copy of the populated cells, so takes time proportional to their number.
+ */
+final class SparseStore
+extends CellStore
+{
+    private static final long serialVersionUID = 1L;
+
+    private int _width;
+    private int _size;
+    private LongObjectMap<Object> _cells = new LongObjectMap<Object>();
+
+
+    public SparseStore(int width)
+    {
+        _width = width;
+    }
+
+
+    /**
+     *  Creates an instance holding the non-<code>null</code> cells of another
+     *  store.
+     */
+    public SparseStore(CellStore src)
+    {
+        _width = src.width();
+        _size = src.size();
+        for (int row = 0 ; row < _size ; row++)
+        {
+            for (int col = 0 ; col < _width ; col++)
+            {
+                Object value = src.get(row, col);
+                if (value != null)
+                    _cells.put(key(row, col), value);
+            }
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  CellStore
+//----------------------------------------------------------------------------
+
+    @Override
+    public int size()
+    {
+        return _size;
+    }
+
+
+    @Override
+    public int width()
+    {
+        return _width;
+    }
+
+
+    @Override
+    public Object get(int row, int col)
+    {
+        return _cells.get(key(row, col));
+    }
+
+
+    @Override
+    public Object set(int row, int col, Object value)
+    {
+        long key = key(row, col);
+        return (value != null)
+             ? _cells.put(key, value)
+             : _cells.remove(key);
+    }
+
+
+    @Override
+    public int addRow()
+    {
+        return _size++;
+    }
+
+
+    /**
+     *  Re-keys the populated cells below the insertion point, rather than
+     *  moving every cell.
+     */
+    @Override
+    public void insertRows(int index, List<Object[]> rows)
+    {
+        int count = rows.size();
+        shift(index, Integer.MAX_VALUE, count);
+        _size += count;
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            Object[] rowData = rows.get(ii);
+            for (int col = 0 ; col < rowData.length ; col++)
+            {
+                if (rowData[col] != null)
+                    _cells.put(key(index + ii, col), rowData[col]);
+            }
+        }
+    }
+
+
+    @Override
+    public void removeRows(int first, int count)
+    {
+        truncate(first, first + count);
+        shift(first + count, Integer.MAX_VALUE, -count);
+        _size -= count;
+    }
+
+
+    /**
+     *  Re-keys the populated cells into a new map, in a single pass.
+     */
+    @Override
+    public void splice(int[] deleted, int[] inserted, List<Object[]> rows)
+    {
+        int[] newIndexes = newRowIndexes(_size, deleted, inserted);
+        LongObjectMap<Object> cells = new LongObjectMap<Object>(_cells.size());
+        for (int slot = 0 ; slot < _cells.capacity() ; slot++)
+        {
+            Object value = _cells.valueAt(slot);
+            if (value == null)
+                continue;
+            long key = _cells.keyAt(slot);
+            int row = newIndexes[row(key)];
+            if (row >= 0)
+                cells.put(key(row, column(key)), value);
+        }
+        for (int ii = 0 ; ii < inserted.length ; ii++)
+        {
+            Object[] rowData = rows.get(ii);
+            for (int col = 0 ; col < rowData.length ; col++)
+            {
+                if (rowData[col] != null)
+                    cells.put(key(inserted[ii], col), rowData[col]);
+            }
+        }
+        _cells = cells;
+        _size += inserted.length - deleted.length;
+    }
+
+
+    @Override
+    public void truncate(int size)
+    {
+        if (size >= _size)
+            return;
+
+        truncate(size, Integer.MAX_VALUE);
+        _size = size;
+    }
+
+
+    @Override
+    public void setWidth(int width)
+    {
+        if (width < _width)
+        {
+            // collect first: removal reorders the map
+            long[] dropped = new long[_cells.size()];
+            int count = 0;
+            for (int slot = 0 ; slot < _cells.capacity() ; slot++)
+            {
+                if ((_cells.valueAt(slot) != null) && (column(_cells.keyAt(slot)) >= width))
+                    dropped[count++] = _cells.keyAt(slot);
+            }
+            for (int ii = 0 ; ii < count ; ii++)
+            {
+                _cells.remove(dropped[ii]);
+            }
+        }
+        _width = width;
+    }
+
+
+    @Override
+    public CellStore snapshot()
+    {
+        return new SparseStore(this);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the keys of the populated cells in the specified range of rows
+     *  (end exclusive). Keys are collected before the map is changed, since
+     *  removal reorders the map.
+     */
+    private long[] keys(int start, int end)
+    {
+        long[] keys = new long[_cells.size()];
+        int count = 0;
+        for (int slot = 0 ; slot < _cells.capacity() ; slot++)
+        {
+            if (_cells.valueAt(slot) == null)
+                continue;
+            int row = row(_cells.keyAt(slot));
+            if ((row >= start) && (row < end))
+                keys[count++] = _cells.keyAt(slot);
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+
+    /**
+     *  Removes the populated cells in the specified range of rows.
+     */
+    private void truncate(int start, int end)
+    {
+        for (long key : keys(start, end))
+        {
+            _cells.remove(key);
+        }
+    }
+
+
+    /**
+     *  Moves the populated cells in the specified range of rows by the passed
+     *  number of rows. The destination rows must be empty.
+     */
+    private void shift(int start, int end, int delta)
+    {
+        long[] keys = keys(start, end);
+        Object[] values = new Object[keys.length];
+        for (int ii = 0 ; ii < keys.length ; ii++)
+        {
+            values[ii] = _cells.remove(keys[ii]);
+        }
+        for (int ii = 0 ; ii < keys.length ; ii++)
+        {
+            _cells.put(key(row(keys[ii]) + delta, column(keys[ii])), values[ii]);
+        }
+    }
+
+
+    private static long key(int row, int col)
+    {
+        return ((long)row << 32) | col;
+    }
+
+
+    private static int row(long key)
+    {
+        return (int)(key >>> 32);
+    }
+
+
+    private static int column(long key)
+    {
+        return (int)key;
+    }
+}
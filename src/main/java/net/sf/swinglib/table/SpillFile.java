@@ -0,0 +1,162 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ *  A temporary file that holds spilled blocks of a {@link BlockStore}. Each
+ *  block is written as a single extent; the store remembers the extent's
+ *  position and length. A rewritten block reuses its extent if it still
+ *  fits, otherwise it's moved to a new extent. Extents that the store frees
+ *  (adjacent ones are merged) are reused for new extents, first fit, before
+ *  the file is extended.
+ *  <p>
+ *  The file is deleted when closed, or when the JVM exits.
+ *  <p>
+ *  Not thread-safe; the store serializes access.
+ */
+final class SpillFile
+{
+    private File _file;
+    private RandomAccessFile _raf;
+    private FileChannel _channel;
+    private long _length;
+    private TreeMap<Long,Integer> _free = new TreeMap<Long,Integer>();
+
+
+    /**
+     *  Creates the file in the specified directory, or the default temporary
+     *  directory if passed <code>null</code>.
+     */
+    public SpillFile(File directory)
+    throws IOException
+    {
+        _file = File.createTempFile("swinglib", ".spill", directory);
+        _file.deleteOnExit();
+        _raf = new RandomAccessFile(_file, "rw");
+        _channel = _raf.getChannel();
+    }
+
+
+    /**
+     *  Writes data at the given position, or in a new extent of exactly the
+     *  data's length if the position is negative. Returns the position where
+     *  the data was written.
+     */
+    public long write(long position, byte[] data, int length)
+    throws IOException
+    {
+        if (position < 0)
+            position = allocate(length);
+
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+        long offset = position;
+        while (buf.hasRemaining())
+        {
+            offset += _channel.write(buf, offset);
+        }
+        _length = Math.max(_length, offset);
+        return position;
+    }
+
+
+    public byte[] read(long position, int length)
+    throws IOException
+    {
+        byte[] data = new byte[length];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = position;
+        while (buf.hasRemaining())
+        {
+            int count = _channel.read(buf, offset);
+            if (count < 0)
+                throw new IOException("unexpected end of spill file: " + _file);
+            offset += count;
+        }
+        return data;
+    }
+
+
+    /**
+     *  Marks an extent as no longer used, so that its space may be reused.
+     */
+    public void free(long position, int length)
+    {
+        if (length <= 0)
+            return;
+
+        Map.Entry<Long,Integer> before = _free.floorEntry(Long.valueOf(position));
+        if ((before != null) && (before.getKey().longValue() + before.getValue().intValue() == position))
+        {
+            _free.remove(before.getKey());
+            position = before.getKey().longValue();
+            length += before.getValue().intValue();
+        }
+        Integer after = _free.remove(Long.valueOf(position + length));
+        if (after != null)
+            length += after.intValue();
+        _free.put(Long.valueOf(position), Integer.valueOf(length));
+    }
+
+
+    /**
+     *  Returns the position of a new extent: the start of the first free
+     *  extent that's large enough (any remainder stays free), otherwise the
+     *  end of the file.
+     */
+    private long allocate(int length)
+    {
+        for (Iterator<Map.Entry<Long,Integer>> itx = _free.entrySet().iterator() ; itx.hasNext() ; )
+        {
+            Map.Entry<Long,Integer> entry = itx.next();
+            int available = entry.getValue().intValue();
+            if (available < length)
+                continue;
+
+            long position = entry.getKey().longValue();
+            itx.remove();
+            if (available > length)
+                _free.put(Long.valueOf(position + length), Integer.valueOf(available - length));
+            return position;
+        }
+        return _length;
+    }
+
+
+    /**
+     *  Closes and deletes the file.
+     */
+    public void close()
+    {
+        try
+        {
+            _raf.close();
+        }
+        catch (IOException ignored)
+        {
+            // nothing we can do about it
+        }
+        _file.delete();
+    }
+}
@@ -0,0 +1,155 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+
+/**
+ *  A read-only view of a store part way through a {@link CellStore#splice}:
+ *  the first rows come from the store after the splice, and the remainder
+ *  from a snapshot taken before it. {@link ExpandingTableModel} shows this
+ *  view while it fires the events for a splice, one changed range at a time,
+ *  so that each event describes a change to the rows that listeners see.
+ *  <p>
+ *  The only writes expected while the view is in use are the model caching
+ *  computed values. Those to the new rows are passed through; those to the
+ *  old rows are dropped, since the new store has its own copy of the cell.
+ */
+final class SpliceView
+extends CellStore
+{
+    private static final long serialVersionUID = 1L;
+
+    private CellStore _newStore;
+    private CellStore _oldStore;
+    private int _newRows;
+    private int _oldStart;
+
+
+    /**
+     *  @param  newStore    The store after the splice.
+     *  @param  oldStore    A snapshot of the store before the splice.
+     */
+    public SpliceView(CellStore newStore, CellStore oldStore)
+    {
+        _newStore = newStore;
+        _oldStore = oldStore;
+    }
+
+
+    /**
+     *  Sets the boundary between new and old rows.
+     *
+     *  @param  newRows     The number of leading rows that are taken from
+     *                      the new store.
+     *  @param  oldStart    The index, in the old store, of the row that
+     *                      follows them.
+     */
+    public void setBoundary(int newRows, int oldStart)
+    {
+        _newRows = newRows;
+        _oldStart = oldStart;
+    }
+
+
+    @Override
+    public int size()
+    {
+        return _newRows + _oldStore.size() - _oldStart;
+    }
+
+
+    @Override
+    public int width()
+    {
+        return _newStore.width();
+    }
+
+
+    @Override
+    public Object get(int row, int col)
+    {
+        return (row < _newRows)
+             ? _newStore.get(row, col)
+             : _oldStore.get(row - _newRows + _oldStart, col);
+    }
+
+
+    @Override
+    public Object set(int row, int col, Object value)
+    {
+        return (row < _newRows)
+             ? _newStore.set(row, col, value)
+             : _oldStore.get(row - _newRows + _oldStart, col);
+    }
+
+
+    @Override
+    public int addRow()
+    {
+        throw new UnsupportedOperationException("splice in progress");
+    }
+
+
+    @Override
+    public void truncate(int size)
+    {
+        throw new UnsupportedOperationException("splice in progress");
+    }
+
+
+    @Override
+    public void setWidth(int width)
+    {
+        throw new UnsupportedOperationException("splice in progress");
+    }
+
+
+    @Override
+    public CellStore snapshot()
+    {
+        throw new UnsupportedOperationException("splice in progress");
+    }
+
+
+    /**
+     *  Disposes the snapshot of the old store.
+     */
+    @Override
+    public void dispose()
+    {
+        _oldStore.dispose();
+    }
+
+
+    /**
+     *  Dictionaries are shared between a store and its snapshots, and only
+     *  grow, so a code from either store can be decoded with the new store's
+     *  dictionary.
+     */
+    @Override
+    public ColumnDictionary getDictionary(int col)
+    {
+        return _newStore.getDictionary(col);
+    }
+
+
+    @Override
+    public int getCode(int row, int col)
+    {
+        return (row < _newRows)
+             ? _newStore.getCode(row, col)
+             : _oldStore.getCode(row - _newRows + _oldStart, col);
+    }
+}
@@ -0,0 +1,183 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.util.ArrayList;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
+
+
+/**
+ *  A single-row <code>TableModel</code> that displays an aggregate for each
+ *  column of an {@link ExpandingTableModel}; typically used as a footer. To
+ *  keep the footer aligned with the main table, construct its <code>JTable
+ *  </code> with the main table's column model:
+ *  <pre>
+ *      JTable footer = new JTable(new SummaryRowModel(model, Function.SUM), table.getColumnModel());
+ *  </pre>
+ *  The values come from the aggregates maintained by the underlying model
+ *  (see {@link ExpandingTableModel#trackAggregate}), so an edit to the main
+ *  table results in a single cell update here, without rescanning the column.
+ */
+public class SummaryRowModel
+extends AbstractTableModel
+implements TableModelListener
+{
+    private static final long serialVersionUID = 1L;
+
+    private ExpandingTableModel _model;
+    private ArrayList<ColumnAggregate.Function> _functions = new ArrayList<ColumnAggregate.Function>();
+
+
+    /**
+     *  Creates an instance that displays the specified function for each column
+     *  of the model, in order. Columns without a function (including a <code>
+     *  null</code> entry) are left empty. Aggregate tracking is enabled on the
+     *  model for each column that has a function.
+     */
+    public SummaryRowModel(ExpandingTableModel model, ColumnAggregate.Function... functions)
+    {
+        _model = model;
+        for (int col = 0 ; col < functions.length ; col++)
+        {
+            setFunction(col, functions[col]);
+        }
+        _model.addTableModelListener(this);
+    }
+
+
+//----------------------------------------------------------------------------
+//  TableModel
+//----------------------------------------------------------------------------
+
+    public int getRowCount()
+    {
+        return 1;
+    }
+
+
+    public int getColumnCount()
+    {
+        return _model.getColumnCount();
+    }
+
+
+    @Override
+    public String getColumnName(int col)
+    {
+        return _model.getColumnName(col);
+    }
+
+
+    /**
+     *  Returns the column class of the underlying model for columns that show
+     *  minimum or maximum (so they render the same way), <code>Number</code>
+     *  for other aggregates.
+     */
+    @Override
+    public Class<?> getColumnClass(int col)
+    {
+        ColumnAggregate.Function func = getFunction(col);
+        if ((func == ColumnAggregate.Function.MIN) || (func == ColumnAggregate.Function.MAX))
+            return _model.getColumnClass(col);
+        return (func == null) ? Object.class : Number.class;
+    }
+
+
+    public Object getValueAt(int row, int col)
+    {
+        ColumnAggregate.Function func = getFunction(col);
+        ColumnAggregate agg = _model.getAggregate(col);
+        return ((func == null) || (agg == null))
+               ? null
+               : func.valueOf(agg);
+    }
+
+
+//----------------------------------------------------------------------------
+//  TableModelListener
+//----------------------------------------------------------------------------
+
+    public void tableChanged(TableModelEvent evt)
+    {
+        if (evt.getFirstRow() == TableModelEvent.HEADER_ROW)
+        {
+            // the underlying model clears aggregates for removed columns, but
+            // continues to track them; make sure they're tracked if re-widened
+            for (int col = 0 ; col < Math.min(_functions.size(), _model.getColumnCount()) ; col++)
+            {
+                if (_functions.get(col) != null)
+                    _model.trackAggregate(col);
+            }
+            fireTableStructureChanged();
+        }
+        else if (evt.getColumn() == TableModelEvent.ALL_COLUMNS)
+            fireTableRowsUpdated(0, 0);
+        else if (getFunction(evt.getColumn()) != null)
+            fireTableCellUpdated(0, evt.getColumn());
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the function displayed for the specified column, <code>null
+     *  </code> if the column is empty.
+     */
+    public ColumnAggregate.Function getFunction(int col)
+    {
+        return (col < _functions.size())
+               ? _functions.get(col)
+               : null;
+    }
+
+
+    /**
+     *  Sets the function displayed for the specified column; <code>null</code>
+     *  leaves the column empty. Functions may be set for columns that are not
+     *  yet part of the model; they become active when the model is widened.
+     *  Note that clearing a function does not stop aggregate tracking on the
+     *  underlying model, since it may be used elsewhere.
+     */
+    public void setFunction(int col, ColumnAggregate.Function func)
+    {
+        while (_functions.size() <= col)
+        {
+            _functions.add(null);
+        }
+        _functions.set(col, func);
+
+        if (col < _model.getColumnCount())
+        {
+            if (func != null)
+                _model.trackAggregate(col);
+            fireTableCellUpdated(0, col);
+        }
+    }
+
+
+    /**
+     *  Detaches this model from the underlying table model. Call this if the
+     *  summary is discarded while the underlying model remains in use.
+     */
+    public void dispose()
+    {
+        _model.removeTableModelListener(this);
+    }
+}
@@ -0,0 +1,375 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *  The row-level difference between the contents of an {@link
+ *  ExpandingTableModel} and a new, keyed, data set: the rows that must be
+ *  deleted, inserted, and updated to make the model hold the new data (in
+ *  the new data's order). Applying the difference fires one event for each
+ *  contiguous range of deleted, inserted, or updated rows, so a table keeps
+ *  its selection and scroll position, and only repaints the rows that
+ *  changed.
+ *  <p>
+ *  Rows are matched by the values of one or more key columns. A matched row
+ *  is updated if any of its ordinary (non-computed) cells differ, compared
+ *  with <code>equals()</code>. If the new data puts matched rows in a
+ *  different order, the fewest rows are moved (deleted and re-inserted)
+ *  that will restore the order; these are the rows that are not part of the
+ *  longest run of matched rows that remains in order.
+ *  <p>
+ *  The difference is computed when the object is constructed, which takes
+ *  time proportional to the size of the model plus the size of the new data;
+ *  to keep this off the event thread, compute it from a snapshot (see
+ *  {@link ExpandingTableModel#snapshot}) and then apply it to the model on
+ *  the event thread. {@link TableRefreshOperation} does both. Applying it
+ *  takes time proportional to the number of changed rows, plus a single pass
+ *  to move rows within the model's storage if any are deleted or inserted;
+ *  it fails if the model has been changed since the snapshot was taken.
+ */
+public class TableDiff
+{
+    private int _modCount;
+    private int _oldRowCount;
+    private int _oldWidth;
+    private int _width;
+    private List<Object[]> _rows;
+
+    private int[] _deleted;         // old row indexes, ascending
+    private int[] _inserted;        // new row indexes, ascending
+    private int[] _updated;         // new row indexes, ascending
+
+
+    /**
+     *  Computes the difference between the current contents of a model and
+     *  the passed rows.
+     *
+     *  @param  model       The model; typically a snapshot. If not a snapshot,
+     *                      it must not be modified while this runs.
+     *  @param  rows        The new data, in the order that it should appear in
+     *                      the model. This list (and its arrays) are retained
+     *                      and used to apply the difference, so must not be
+     *                      changed afterward. Rows may be of different lengths;
+     *                      missing values are <code>null</code>.
+     *  @param  keyColumns  The columns that together identify a row.
+     *
+     *  @throws IllegalArgumentException if no key columns are specified, if
+     *          two new rows have the same key, or if a value is not valid for
+     *          its column (see {@link ExpandingTableModel#addRows}).
+     */
+    public TableDiff(ExpandingTableModel model, List<Object[]> rows, int... keyColumns)
+    {
+        if (keyColumns.length == 0)
+            throw new IllegalArgumentException("no key columns");
+
+        _modCount = model.getModificationCount();
+        _oldRowCount = model.getDataRowCount();
+        _oldWidth = model.getColumnCount();
+        _width = _oldWidth;
+        _rows = rows;
+
+        // old rows are indexed by key; if there are duplicates, the first is
+        // matched and the others are deleted
+        Map<Object,Integer> oldIndexes = new HashMap<Object,Integer>(_oldRowCount * 4 / 3 + 1);
+        for (int row = _oldRowCount - 1 ; row >= 0 ; row--)
+        {
+            oldIndexes.put(key(model, row, keyColumns), Integer.valueOf(row));
+        }
+
+        Class<?>[] classes = model.getColumnClasses();
+        int[] matches = new int[rows.size()];
+        Map<Object,Object> newKeys = new HashMap<Object,Object>(rows.size() * 4 / 3 + 1);
+        for (int ii = 0 ; ii < rows.size() ; ii++)
+        {
+            Object[] rowData = rows.get(ii);
+            checkRow(model, classes, rowData, ii);
+            _width = Math.max(_width, rowData.length);
+
+            Object key = key(rowData, keyColumns);
+            if (newKeys.put(key, key) != null)
+                throw new IllegalArgumentException("duplicate key at row " + ii + ": " + key);
+            Integer match = oldIndexes.get(key);
+            matches[ii] = (match != null) ? match.intValue() : -1;
+        }
+
+        boolean[] kept = longestOrderedRun(matches);
+        boolean[] oldKept = new boolean[_oldRowCount];
+        int[] inserted = new int[rows.size()];
+        int[] updated = new int[rows.size()];
+        int insertCount = 0;
+        int updateCount = 0;
+        for (int ii = 0 ; ii < rows.size() ; ii++)
+        {
+            if (!kept[ii])
+                inserted[insertCount++] = ii;
+            else
+            {
+                oldKept[matches[ii]] = true;
+                if (isChanged(model, matches[ii], rows.get(ii)))
+                    updated[updateCount++] = ii;
+            }
+        }
+
+        int[] deleted = new int[_oldRowCount];
+        int deleteCount = 0;
+        for (int row = 0 ; row < _oldRowCount ; row++)
+        {
+            if (!oldKept[row])
+                deleted[deleteCount++] = row;
+        }
+
+        _deleted = Arrays.copyOf(deleted, deleteCount);
+        _inserted = Arrays.copyOf(inserted, insertCount);
+        _updated = Arrays.copyOf(updated, updateCount);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the number of existing rows that will be deleted (including
+     *  those that are moved).
+     */
+    public int getDeleteCount()
+    {
+        return _deleted.length;
+    }
+
+
+    /**
+     *  Returns the number of rows that will be inserted (including those that
+     *  are moved).
+     */
+    public int getInsertCount()
+    {
+        return _inserted.length;
+    }
+
+
+    /**
+     *  Returns the number of existing rows that will be updated in place.
+     */
+    public int getUpdateCount()
+    {
+        return _updated.length;
+    }
+
+
+    /**
+     *  Returns <code>true</code> if applying this difference would not change
+     *  the model.
+     */
+    public boolean isEmpty()
+    {
+        return (_deleted.length == 0) && (_inserted.length == 0) && (_updated.length == 0)
+            && (_width == _oldWidth);
+    }
+
+
+    /**
+     *  Returns <code>true</code> if this difference can be applied to the
+     *  passed model: the model (or the model that it was computed from, if
+     *  computed from a snapshot) has not changed since it was computed.
+     */
+    public boolean isCurrent(ExpandingTableModel model)
+    {
+        return (model.getModificationCount() == _modCount)
+            && (model.getDataRowCount() == _oldRowCount);
+    }
+
+
+    /**
+     *  Applies this difference to the model that it was computed from (or to
+     *  the model that the snapshot was taken from). Deletions and insertions
+     *  are made in a single pass over the model's storage, then updates are
+     *  made in place; each contiguous range fires a single event. If the new
+     *  data is wider than the model, the model is first widened (which fires
+     *  a structure-changed event).
+     *  <p>
+     *  Must be called on the event thread (or whatever thread modifies the
+     *  model).
+     *
+     *  @throws IllegalStateException if the model has changed since the
+     *          difference was computed.
+     */
+    public void apply(ExpandingTableModel model)
+    {
+        if (!isCurrent(model))
+            throw new IllegalStateException("model has changed since difference was computed");
+
+        if (_width > model.getColumnCount())
+            model.setWidth(_width);
+
+        List<Object[]> insertedRows = new ArrayList<Object[]>(_inserted.length);
+        for (int row : _inserted)
+        {
+            insertedRows.add(_rows.get(row));
+        }
+        model.spliceRows(_deleted, _inserted, insertedRows);
+
+        for (int ii = 0 ; ii < _updated.length ; )
+        {
+            int first = _updated[ii];
+            int last = first;
+            model.updateRow(first, _rows.get(first));
+            while ((++ii < _updated.length) && (_updated[ii] == last + 1))
+            {
+                last++;
+                model.updateRow(last, _rows.get(last));
+            }
+            model.fireTableRowsUpdated(first, last);
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the key of an existing row: the key column's value if there's
+     *  a single key column, otherwise a list of values.
+     */
+    private static Object key(ExpandingTableModel model, int row, int[] keyColumns)
+    {
+        if (keyColumns.length == 1)
+            return model.getValueAt(row, keyColumns[0]);
+
+        Object[] values = new Object[keyColumns.length];
+        for (int ii = 0 ; ii < keyColumns.length ; ii++)
+        {
+            values[ii] = model.getValueAt(row, keyColumns[ii]);
+        }
+        return Arrays.asList(values);
+    }
+
+
+    /**
+     *  Returns the key of a new row, in the same form as for an existing row.
+     */
+    private static Object key(Object[] rowData, int[] keyColumns)
+    {
+        if (keyColumns.length == 1)
+            return value(rowData, keyColumns[0]);
+
+        Object[] values = new Object[keyColumns.length];
+        for (int ii = 0 ; ii < keyColumns.length ; ii++)
+        {
+            values[ii] = value(rowData, keyColumns[ii]);
+        }
+        return Arrays.asList(values);
+    }
+
+
+    private static Object value(Object[] rowData, int col)
+    {
+        return (col < rowData.length) ? rowData[col] : null;
+    }
+
+
+    /**
+     *  Verifies that a new row can be stored in the model, so that applying
+     *  the difference won't fail part way through.
+     */
+    private static void checkRow(ExpandingTableModel model, Class<?>[] classes, Object[] rowData, int idx)
+    {
+        for (int col = 0 ; col < rowData.length ; col++)
+        {
+            Object value = rowData[col];
+            if (value == null)
+                continue;
+            if ((col < classes.length) && !classes[col].isInstance(value))
+                throw new IllegalArgumentException(
+                        "value at " + idx + "," + col + " is "
+                        + value.getClass().getName()
+                        + ", expected " + classes[col].getName());
+            if (model.getComputedColumn(col) != null)
+                throw new IllegalArgumentException("column " + col + " is computed");
+        }
+    }
+
+
+    /**
+     *  Determines whether any ordinary cell of an existing row differs from
+     *  the corresponding new value.
+     */
+    private static boolean isChanged(ExpandingTableModel model, int row, Object[] rowData)
+    {
+        int width = model.getColumnCount();
+        for (int col = 0 ; col < Math.max(width, rowData.length) ; col++)
+        {
+            if (model.getComputedColumn(col) != null)
+                continue;
+            Object value = value(rowData, col);
+            Object oldValue = (col < width) ? model.getValueAt(row, col) : null;
+            if ((value == null) ? (oldValue != null) : !value.equals(oldValue))
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     *  Given the old index of each new row (-1 if the row is new), identifies
+     *  the matched rows that form the longest subsequence in increasing old
+     *  order; these rows can stay where they are. Uses the O(n log n)
+     *  patience algorithm.
+     */
+    private static boolean[] longestOrderedRun(int[] matches)
+    {
+        // tails[len] is the index of the smallest ending value of a run with
+        // length len + 1; prev links each element to its predecessor
+        int[] tails = new int[matches.length];
+        int[] prev = new int[matches.length];
+        int length = 0;
+        for (int ii = 0 ; ii < matches.length ; ii++)
+        {
+            int value = matches[ii];
+            if (value < 0)
+                continue;
+
+            int lo = 0;
+            int hi = length;
+            while (lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (matches[tails[mid]] < value)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            prev[ii] = (lo > 0) ? tails[lo - 1] : -1;
+            tails[lo] = ii;
+            if (lo == length)
+                length++;
+        }
+
+        boolean[] kept = new boolean[matches.length];
+        for (int ii = (length > 0) ? tails[length - 1] : -1 ; ii >= 0 ; ii = prev[ii])
+        {
+            kept[ii] = true;
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,928 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.ExecutorService;
+
+import javax.swing.JTable;
+import javax.swing.table.TableModel;
+
+import net.sf.swinglib.AsynchronousOperation;
+
+
+/**
+ *  A filter expression over the columns of a table model. Expressions are
+ *  built from the static factory methods (comparisons, ranges, substring
+ *  matches) and combined with {@link #and}, {@link #or}, and {@link #not}.
+ *  <p>
+ *  Unlike a <code>RowFilter</code>, which is invoked for every row as the
+ *  table is sorted, a <code>TableFilter</code> is evaluated once, producing
+ *  a {@link RowBitmap}. Evaluation first "compiles" the expression against
+ *  the model's column classes, picking a predicate specialized for the
+ *  column type (for example, integral columns compare primitive longs and
+ *  string matches never allocate), then scans the model in 64K-row chunks
+ *  that may be spread over an <code>ExecutorService</code>. The bitmap is
+ *  installed on the table's sorter via {@link BitmapRowFilter}, which
+ *  results in a single re-filter of the view.
+ *  <p>
+ *  Comparisons never match a <code>null</code> cell, nor a cell whose value
+ *  is not comparable to the operand. The exception is {@link #equalTo} with
+ *  a <code>null</code> operand, which matches empty cells.
+ *  <p>
+ *  Instances are immutable and may be shared between threads. Evaluation
+ *  reads the model from the calling thread (and executor threads), so the
+ *  model must not be modified while evaluation is in progress; to filter a
+ *  model that may be edited meanwhile, evaluate a snapshot (see {@link
+ *  ExpandingTableModel#snapshot}), as {@link #apply} does.
+ */
+public abstract class TableFilter
+{
+    /**
+     *  Number of rows processed as a single unit of work. Must be a multiple
+     *  of 64, so that each chunk writes whole words of the bitmap.
+     */
+    private final static int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     *  Number of times {@link #apply} evaluates a snapshot in the background
+     *  before evaluating the model on the event thread.
+     */
+    private final static int MAX_BACKGROUND_ATTEMPTS = 3;
+
+
+//----------------------------------------------------------------------------
+//  Factory methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Matches cells that are equal to the passed value. Numeric values are
+     *  compared by value, so <code>Integer(3)</code> matches <code>Long(3)
+     *  </code> or <code>BigDecimal("3.0")</code> in an <code>Object</code>
+     *  column. A <code>null</code> value matches empty cells.
+     */
+    public static TableFilter equalTo(int col, Object value)
+    {
+        return new Comparison(col, value, true, value, true, true);
+    }
+
+
+    /**
+     *  Matches cells that are not equal to the passed value (including
+     *  empty cells, unless the passed value is <code>null</code>).
+     */
+    public static TableFilter notEqualTo(int col, Object value)
+    {
+        return not(equalTo(col, value));
+    }
+
+
+    /**
+     *  Matches cells that are strictly less than the passed value.
+     */
+    public static TableFilter lessThan(int col, Object value)
+    {
+        return new Comparison(col, null, false, checkOperand(value), false, false);
+    }
+
+
+    /**
+     *  Matches cells that are less than or equal to the passed value.
+     */
+    public static TableFilter lessThanOrEqual(int col, Object value)
+    {
+        return new Comparison(col, null, false, checkOperand(value), true, false);
+    }
+
+
+    /**
+     *  Matches cells that are strictly greater than the passed value.
+     */
+    public static TableFilter greaterThan(int col, Object value)
+    {
+        return new Comparison(col, checkOperand(value), false, null, false, false);
+    }
+
+
+    /**
+     *  Matches cells that are greater than or equal to the passed value.
+     */
+    public static TableFilter greaterThanOrEqual(int col, Object value)
+    {
+        return new Comparison(col, checkOperand(value), true, null, false, false);
+    }
+
+
+    /**
+     *  Matches cells that fall within the passed range, inclusive of both
+     *  endpoints.
+     */
+    public static TableFilter between(int col, Object low, Object high)
+    {
+        return new Comparison(col, checkOperand(low), true, checkOperand(high), true, false);
+    }
+
+
+    /**
+     *  Matches cells whose string value contains the passed text, ignoring
+     *  case. String cells are matched without any allocation; other cells
+     *  are converted with <code>String.valueOf()</code>.
+     */
+    public static TableFilter contains(int col, String text)
+    {
+        if (text == null)
+            throw new IllegalArgumentException("contains() requires non-null text");
+
+        return new Contains(col, text);
+    }
+
+
+    /**
+     *  Matches rows that are matched by all of the passed filters. An empty
+     *  list matches all rows.
+     */
+    public static TableFilter and(TableFilter... filters)
+    {
+        return new Junction(true, filters);
+    }
+
+
+    /**
+     *  Matches rows that are matched by any of the passed filters. An empty
+     *  list matches no rows.
+     */
+    public static TableFilter or(TableFilter... filters)
+    {
+        return new Junction(false, filters);
+    }
+
+
+    /**
+     *  Matches rows that are not matched by the passed filter.
+     */
+    public static TableFilter not(TableFilter filter)
+    {
+        return new Negation(filter);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Evaluates this filter against the passed model on the calling thread.
+     */
+    public RowBitmap evaluate(TableModel model)
+    {
+        return evaluate(model, null);
+    }
+
+
+    /**
+     *  Evaluates this filter against the passed model, spreading the work
+     *  over the passed executor (which may be <code>null</code>, to run on
+     *  the calling thread). The calling thread participates in evaluation,
+     *  so this method may be invoked from a task running on the same
+     *  executor.
+     *  <p>
+     *  For an {@link ExpandingTableModel}, the "phantom" row is not part of
+     *  the result; {@link BitmapRowFilter} will always display it.
+     */
+    public RowBitmap evaluate(final TableModel model, ExecutorService executor)
+    {
+        final int rowCount = (model instanceof ExpandingTableModel)
+                           ? ((ExpandingTableModel)model).getDataRowCount()
+                           : model.getRowCount();
+        final Predicate predicate = compile(model);
+        final RowBitmap result = new RowBitmap(rowCount);
+
+        ParallelScan.run(executor, rowCount, CHUNK_SIZE, new ParallelScan.RangeTask()
+        {
+            public void scan(int chunk, int start, int end)
+            {
+                for (int base = start ; base < end ; base += 64)
+                {
+                    int limit = Math.min(base + 64, end);
+                    long word = 0;
+                    for (int row = base ; row < limit ; row++)
+                    {
+                        if (predicate.matches(model, row))
+                            word |= 1L << row;
+                    }
+                    result.setWord(base >>> 6, word);
+                }
+            }
+        });
+        return result;
+    }
+
+
+    /**
+     *  Evaluates this filter against the table's model on the passed executor,
+     *  then (on the event thread) installs the result as the table's row
+     *  filter. If the table does not have a row sorter, one is created. Must
+     *  be called on the event thread.
+     *  <p>
+     *  An {@link ExpandingTableModel} is evaluated from a snapshot, so may be
+     *  edited while evaluation is in progress; if it is, the result no longer
+     *  describes the model's rows, so the filter is evaluated again against a
+     *  new snapshot. If the model is edited during each of several attempts,
+     *  the last attempt evaluates the model on the event thread (still using
+     *  the executor), where it can't change. Any other model must not be
+     *  modified until evaluation completes. If the table's model is replaced
+     *  before evaluation completes, the result is discarded.
+     */
+    public void apply(JTable table, ExecutorService executor)
+    {
+        apply(table, executor, 1);
+    }
+
+
+    private void apply(final JTable table, final ExecutorService executor, final int attempt)
+    {
+        final TableModel model = table.getModel();
+        final TableModel source = (model instanceof ExpandingTableModel)
+                                ? ((ExpandingTableModel)model).snapshot()
+                                : model;
+        executor.execute(new AsynchronousOperation<RowBitmap>()
+        {
+            @Override
+            protected RowBitmap performOperation()
+            throws Exception
+            {
+                return evaluate(source, executor);
+            }
+
+            @Override
+            protected void onSuccess(RowBitmap result)
+            {
+                if (table.getModel() != model)
+                    return;
+                if ((source != model)
+                        && (((ExpandingTableModel)model).getModificationCount()
+                            != ((ExpandingTableModel)source).getModificationCount()))
+                {
+                    if (attempt < MAX_BACKGROUND_ATTEMPTS)
+                        apply(table, executor, attempt + 1);
+                    else
+                        TableUtil.setRowFilter(table, evaluate(model, executor));
+                    return;
+                }
+                TableUtil.setRowFilter(table, result);
+            }
+        });
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals -- expression nodes
+//----------------------------------------------------------------------------
+
+    /**
+     *  Produces a predicate specialized for the passed model.
+     */
+    abstract Predicate compile(TableModel model);
+
+
+    /**
+     *  If the predicate tests a dictionary-encoded column, evaluates it against
+     *  the dictionary and returns a predicate that operates on the codes.
+     */
+    private static Predicate encoded(TableModel model, Predicate predicate)
+    {
+        if (!(model instanceof ExpandingTableModel) || !(predicate instanceof ColumnPredicate))
+            return predicate;
+
+        ColumnPredicate columnPredicate = (ColumnPredicate)predicate;
+        ColumnDictionary dict = ((ExpandingTableModel)model).getDictionary(columnPredicate._col);
+        if (dict == null)
+            return predicate;
+
+        boolean[] matches = new boolean[dict.size()];
+        for (int code = 0 ; code < matches.length ; code++)
+        {
+            matches[code] = columnPredicate.matchesValue(dict.decode(code));
+        }
+        return new DictionaryPredicate(columnPredicate, dict, matches);
+    }
+
+
+    /**
+     *  Range operands must be comparable; numbers are compared by value.
+     */
+    private static Object checkOperand(Object value)
+    {
+        if (!(value instanceof Comparable))
+            throw new IllegalArgumentException("comparison requires a Comparable value, was: " + value);
+        return value;
+    }
+
+
+    /**
+     *  Determines whether the passed class holds integral values that can
+     *  be compared as primitive longs.
+     */
+    private static boolean isIntegral(Class<?> klass)
+    {
+        return (klass == Integer.class) || (klass == Long.class)
+            || (klass == Short.class) || (klass == Byte.class);
+    }
+
+
+    /**
+     *  Equality and range tests. An equality test is represented as a range
+     *  where both endpoints are the same (inclusive) value, with a flag that
+     *  allows non-comparable values to be matched with <code>equals()</code>.
+     */
+    private static class Comparison
+    extends TableFilter
+    {
+        private int _col;
+        private Object _low;
+        private boolean _lowInclusive;
+        private Object _high;
+        private boolean _highInclusive;
+        private boolean _equality;
+
+        public Comparison(int col, Object low, boolean lowInclusive,
+                          Object high, boolean highInclusive, boolean equality)
+        {
+            _col = col;
+            _low = low;
+            _lowInclusive = lowInclusive;
+            _high = high;
+            _highInclusive = highInclusive;
+            _equality = equality;
+        }
+
+        @Override
+        Predicate compile(TableModel model)
+        {
+            return encoded(model, compileColumn(model));
+        }
+
+        private Predicate compileColumn(TableModel model)
+        {
+            Class<?> colClass = model.getColumnClass(_col);
+
+            if (_equality && (_low == null))
+                return new NullPredicate(_col);
+
+            Object operand = (_low != null) ? _low : _high;
+            boolean numericOperands = ((_low == null) || (_low instanceof Number))
+                                   && ((_high == null) || (_high instanceof Number));
+            boolean numericColumn = Number.class.isAssignableFrom(colClass)
+                                 || (colClass == Object.class);
+
+            if (numericOperands && numericColumn)
+            {
+                if (isBig(_low) || isBig(_high))
+                    return new DecimalRangePredicate(_col, _low, _lowInclusive, _high, _highInclusive);
+                if (isIntegral(colClass) && isIntegralValue(_low) && isIntegralValue(_high))
+                    return LongRangePredicate.create(_col, _low, _lowInclusive, _high, _highInclusive);
+                return new DoubleRangePredicate(_col, _low, _lowInclusive, _high, _highInclusive);
+            }
+
+            if (_equality && !(operand instanceof Comparable))
+                return new EqualsPredicate(_col, operand);
+
+            return new ComparableRangePredicate(_col, _low, _lowInclusive, _high, _highInclusive);
+        }
+
+        private static boolean isIntegralValue(Object value)
+        {
+            return (value == null) || isIntegral(value.getClass());
+        }
+
+        private static boolean isBig(Object value)
+        {
+            return (value != null) && !isIntegralValue(value)
+                && !(value instanceof Double) && !(value instanceof Float);
+        }
+    }
+
+
+    /**
+     *  Case-insensitive substring match.
+     */
+    private static class Contains
+    extends TableFilter
+    {
+        private int _col;
+        private String _text;
+
+        public Contains(int col, String text)
+        {
+            _col = col;
+            _text = text;
+        }
+
+        @Override
+        Predicate compile(TableModel model)
+        {
+            return encoded(model, new ContainsPredicate(_col, _text));
+        }
+    }
+
+
+    /**
+     *  AND/OR of zero or more child expressions.
+     */
+    private static class Junction
+    extends TableFilter
+    {
+        private boolean _isAnd;
+        private TableFilter[] _children;
+
+        public Junction(boolean isAnd, TableFilter[] children)
+        {
+            _isAnd = isAnd;
+            _children = children.clone();
+        }
+
+        @Override
+        Predicate compile(TableModel model)
+        {
+            Predicate[] compiled = new Predicate[_children.length];
+            for (int ii = 0 ; ii < compiled.length ; ii++)
+            {
+                compiled[ii] = _children[ii].compile(model);
+            }
+
+            if (compiled.length == 1)
+                return compiled[0];
+
+            return _isAnd ? new AndPredicate(compiled) : new OrPredicate(compiled);
+        }
+    }
+
+
+    private static class Negation
+    extends TableFilter
+    {
+        private TableFilter _child;
+
+        public Negation(TableFilter child)
+        {
+            _child = child;
+        }
+
+        @Override
+        Predicate compile(TableModel model)
+        {
+            return new NotPredicate(_child.compile(model));
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals -- compiled predicates
+//----------------------------------------------------------------------------
+
+    /**
+     *  The compiled form of an expression: tests a single row of the model.
+     *  Implementations must be thread-safe.
+     */
+    static abstract class Predicate
+    {
+        abstract boolean matches(TableModel model, int row);
+    }
+
+
+    /**
+     *  A test against the value of a single column. Separating the value test
+     *  from the row lookup allows the test to be applied to the dictionary of
+     *  an encoded column, rather than to every row.
+     */
+    static abstract class ColumnPredicate
+    extends Predicate
+    {
+        protected int _col;
+
+        protected ColumnPredicate(int col)
+        {
+            _col = col;
+        }
+
+        @Override
+        boolean matches(TableModel model, int row)
+        {
+            return matchesValue(model.getValueAt(row, _col));
+        }
+
+        abstract boolean matchesValue(Object value);
+    }
+
+
+    /**
+     *  Replaces a column test on a dictionary-encoded column with a lookup
+     *  by code: the test is applied once per distinct value, and rows are
+     *  matched without decoding. Codes added to the dictionary after the
+     *  filter was compiled fall back to the original test.
+     */
+    private static class DictionaryPredicate
+    extends Predicate
+    {
+        private ColumnPredicate _predicate;
+        private ColumnDictionary _dictionary;
+        private boolean[] _matches;
+
+        public DictionaryPredicate(ColumnPredicate predicate, ColumnDictionary dictionary, boolean[] matches)
+        {
+            _predicate = predicate;
+            _dictionary = dictionary;
+            _matches = matches;
+        }
+
+        @Override
+        boolean matches(TableModel model, int row)
+        {
+            int code = ((ExpandingTableModel)model).getCode(row, _predicate._col);
+            return (code < _matches.length)
+                 ? _matches[code]
+                 : _predicate.matchesValue(_dictionary.decode(code));
+        }
+    }
+
+
+    private static class NullPredicate
+    extends ColumnPredicate
+    {
+
+        public NullPredicate(int col)
+        {
+            super(col);
+        }
+
+        @Override
+        boolean matchesValue(Object value)
+        {
+            return value == null;
+        }
+    }
+
+
+    private static class EqualsPredicate
+    extends ColumnPredicate
+    {
+        private Object _value;
+
+        public EqualsPredicate(int col, Object value)
+        {
+            super(col);
+            _value = value;
+        }
+
+        @Override
+        boolean matchesValue(Object value)
+        {
+            return _value.equals(value);
+        }
+    }
+
+
+    /**
+     *  Integral column with integral operands. Exclusive endpoints are
+     *  converted to inclusive ones at compile time, so that the per-row
+     *  test is two primitive comparisons.
+     */
+    private static class LongRangePredicate
+    extends ColumnPredicate
+    {
+        private long _low;
+        private long _high;
+
+        public static Predicate create(int col, Object low, boolean lowInclusive,
+                                       Object high, boolean highInclusive)
+        {
+            long lowValue = Long.MIN_VALUE;
+            if (low != null)
+            {
+                lowValue = ((Number)low).longValue();
+                if (!lowInclusive)
+                {
+                    if (lowValue == Long.MAX_VALUE)
+                        return new OrPredicate(new Predicate[0]);
+                    lowValue++;
+                }
+            }
+
+            long highValue = Long.MAX_VALUE;
+            if (high != null)
+            {
+                highValue = ((Number)high).longValue();
+                if (!highInclusive)
+                {
+                    if (highValue == Long.MIN_VALUE)
+                        return new OrPredicate(new Predicate[0]);
+                    highValue--;
+                }
+            }
+
+            return new LongRangePredicate(col, lowValue, highValue);
+        }
+
+        private LongRangePredicate(int col, long low, long high)
+        {
+            super(col);
+            _low = low;
+            _high = high;
+        }
+
+        @Override
+        boolean matchesValue(Object value)
+        {
+            if (!(value instanceof Number))
+                return false;
+
+            long lv = ((Number)value).longValue();
+            return (lv >= _low) && (lv <= _high);
+        }
+    }
+
+
+    /**
+     *  Numeric comparison by <code>doubleValue()</code>; used for floating
+     *  point columns, or mixed operands.
+     */
+    private static class DoubleRangePredicate
+    extends ColumnPredicate
+    {
+        private boolean _hasLow;
+        private double _low;
+        private boolean _lowInclusive;
+        private boolean _hasHigh;
+        private double _high;
+        private boolean _highInclusive;
+
+        public DoubleRangePredicate(int col, Object low, boolean lowInclusive,
+                                    Object high, boolean highInclusive)
+        {
+            super(col);
+            _hasLow = (low != null);
+            _low = _hasLow ? ((Number)low).doubleValue() : 0;
+            _lowInclusive = lowInclusive;
+            _hasHigh = (high != null);
+            _high = _hasHigh ? ((Number)high).doubleValue() : 0;
+            _highInclusive = highInclusive;
+        }
+
+        @Override
+        boolean matchesValue(Object value)
+        {
+            if (!(value instanceof Number))
+                return false;
+
+            double dv = ((Number)value).doubleValue();
+            if (Double.isNaN(dv))
+                return false;
+            if (_hasLow && ((dv < _low) || (!_lowInclusive && (dv == _low))))
+                return false;
+            if (_hasHigh && ((dv > _high) || (!_highInclusive && (dv == _high))))
+                return false;
+            return true;
+        }
+    }
+
+
+    /**
+     *  Numeric comparison with a <code>BigDecimal</code>, <code>BigInteger
+     *  </code>, or other arbitrary-precision operand. Operands and cells are
+     *  converted to <code>BigDecimal</code>, so that (for example) an <code>
+     *  Integer(5)</code> cell matches a <code>BigDecimal("5.00")</code>
+     *  operand.
+     */
+    private static class DecimalRangePredicate
+    extends ColumnPredicate
+    {
+        private BigDecimal _low;
+        private boolean _lowInclusive;
+        private BigDecimal _high;
+        private boolean _highInclusive;
+
+        public DecimalRangePredicate(int col, Object low, boolean lowInclusive,
+                                     Object high, boolean highInclusive)
+        {
+            super(col);
+            _low = (low != null) ? toDecimal(low) : null;
+            _lowInclusive = lowInclusive;
+            _high = (high != null) ? toDecimal(high) : null;
+            _highInclusive = highInclusive;
+        }
+
+        @Override
+        boolean matchesValue(Object value)
+        {
+            BigDecimal dv = toDecimal(value);
+            if (dv == null)
+                return false;
+
+            if (_low != null)
+            {
+                int cmp = _low.compareTo(dv);
+                if ((cmp > 0) || ((cmp == 0) && !_lowInclusive))
+                    return false;
+            }
+            if (_high != null)
+            {
+                int cmp = _high.compareTo(dv);
+                if ((cmp < 0) || ((cmp == 0) && !_highInclusive))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         *  Converts a number to a <code>BigDecimal</code>, returning <code>
+         *  null</code> for non-numbers, NaN, and infinities. Floating-point
+         *  values are converted from their string form, so that a <code>
+         *  Double(0.1)</code> equals <code>BigDecimal("0.1")</code>.
+         */
+        private static BigDecimal toDecimal(Object value)
+        {
+            if (value instanceof BigDecimal)
+                return (BigDecimal)value;
+            if (value instanceof BigInteger)
+                return new BigDecimal((BigInteger)value);
+            if (!(value instanceof Number))
+                return null;
+            if (isIntegral(value.getClass()))
+                return BigDecimal.valueOf(((Number)value).longValue());
+            try
+            {
+                return new BigDecimal(value.toString());
+            }
+            catch (NumberFormatException ex)
+            {
+                double dv = ((Number)value).doubleValue();
+                return (Double.isNaN(dv) || Double.isInfinite(dv))
+                     ? null
+                     : BigDecimal.valueOf(dv);
+            }
+        }
+    }
+
+
+    /**
+     *  General-purpose comparison via <code>compareTo()</code>. Cells that
+     *  are not the same class as the operand do not match.
+     */
+    private static class ComparableRangePredicate
+    extends ColumnPredicate
+    {
+        private Class<?> _klass;
+        private Comparable<Object> _low;
+        private boolean _lowInclusive;
+        private Comparable<Object> _high;
+        private boolean _highInclusive;
+
+        @SuppressWarnings("unchecked")
+        public ComparableRangePredicate(int col, Object low, boolean lowInclusive,
+                                        Object high, boolean highInclusive)
+        {
+            super(col);
+            _klass = (low != null) ? low.getClass() : high.getClass();
+            _low = (Comparable<Object>)low;
+            _lowInclusive = lowInclusive;
+            _high = (Comparable<Object>)high;
+            _highInclusive = highInclusive;
+        }
+
+        @Override
+        boolean matchesValue(Object value)
+        {
+            if ((value == null) || (value.getClass() != _klass))
+                return false;
+
+            if (_low != null)
+            {
+                int cmp = _low.compareTo(value);
+                if ((cmp > 0) || ((cmp == 0) && !_lowInclusive))
+                    return false;
+            }
+            if (_high != null)
+            {
+                int cmp = _high.compareTo(value);
+                if ((cmp < 0) || ((cmp == 0) && !_highInclusive))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+
+    private static class ContainsPredicate
+    extends ColumnPredicate
+    {
+        private String _text;
+
+        public ContainsPredicate(int col, String text)
+        {
+            super(col);
+            _text = text;
+        }
+
+        @Override
+        boolean matchesValue(Object value)
+        {
+            if (value == null)
+                return false;
+
+            String str = (value instanceof String) ? (String)value : String.valueOf(value);
+            return containsIgnoreCase(str, _text);
+        }
+    }
+
+
+    private static class AndPredicate
+    extends Predicate
+    {
+        private Predicate[] _children;
+
+        public AndPredicate(Predicate[] children)
+        {
+            _children = children;
+        }
+
+        @Override
+        boolean matches(TableModel model, int row)
+        {
+            for (Predicate child : _children)
+            {
+                if (!child.matches(model, row))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+
+    private static class OrPredicate
+    extends Predicate
+    {
+        private Predicate[] _children;
+
+        public OrPredicate(Predicate[] children)
+        {
+            _children = children;
+        }
+
+        @Override
+        boolean matches(TableModel model, int row)
+        {
+            for (Predicate child : _children)
+            {
+                if (child.matches(model, row))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+
+    private static class NotPredicate
+    extends Predicate
+    {
+        private Predicate _child;
+
+        public NotPredicate(Predicate child)
+        {
+            _child = child;
+        }
+
+        @Override
+        boolean matches(TableModel model, int row)
+        {
+            return !_child.matches(model, row);
+        }
+    }
+
+
+    /**
+     *  Case-insensitive substring search that does not allocate.
+     */
+    static boolean containsIgnoreCase(String str, String text)
+    {
+        int max = str.length() - text.length();
+        for (int ii = 0 ; ii <= max ; ii++)
+        {
+            if (str.regionMatches(true, ii, text, 0, text.length()))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,98 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import net.sf.swinglib.AsynchronousOperation;
+
+
+/**
+ *  Replaces the contents of an {@link ExpandingTableModel} with a new keyed
+ *  data set, as an {@link AsynchronousOperation}: the {@link TableDiff} is
+ *  computed from a snapshot of the model on the operation thread, and then
+ *  applied on the event thread, firing events only for the rows that have
+ *  changed. Construct on the event thread and pass to an executor:
+ *  <pre>
+ *      executor.execute(new TableRefreshOperation(model, queryResults, executor, 0));
+ *  </pre>
+ *  If the model is changed (for example, by the user editing a cell) while
+ *  the difference is being computed, the difference is discarded and
+ *  recomputed from a new snapshot. Override {@link #onApplied} to be told
+ *  when the model has been updated.
+ */
+public class TableRefreshOperation
+extends AsynchronousOperation<TableDiff>
+{
+    private ExpandingTableModel _model;
+    private List<Object[]> _rows;
+    private ExecutorService _executor;
+    private int[] _keyColumns;
+
+    private volatile ExpandingTableModel _snapshot;
+
+
+    /**
+     *  @param  model       The model to update.
+     *  @param  rows        The new data; see {@link TableDiff} for details.
+     *  @param  executor    Used to recompute the difference if the model
+     *                      changes before it can be applied; normally the
+     *                      same executor that runs this operation.
+     *  @param  keyColumns  The columns that together identify a row.
+     */
+    public TableRefreshOperation(ExpandingTableModel model, List<Object[]> rows,
+                                 ExecutorService executor, int... keyColumns)
+    {
+        _model = model;
+        _rows = rows;
+        _executor = executor;
+        _keyColumns = keyColumns.clone();
+        _snapshot = model.snapshot();
+    }
+
+
+    @Override
+    protected TableDiff performOperation()
+    throws Exception
+    {
+        return new TableDiff(_snapshot, _rows, _keyColumns);
+    }
+
+
+    @Override
+    protected void onSuccess(TableDiff diff)
+    {
+        if (!diff.isCurrent(_model))
+        {
+            _snapshot = _model.snapshot();
+            _executor.execute(this);
+            return;
+        }
+
+        diff.apply(_model);
+        onApplied(diff);
+    }
+
+
+    /**
+     *  Called on the event thread after the difference has been applied to
+     *  the model. Default implementation does nothing.
+     */
+    protected void onApplied(TableDiff diff)
+    {
+        // default implementation does nothing
+    }
+}
@@ -14,9 +14,27 @@
 
 package net.sf.swinglib.table;
 
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Insets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import javax.swing.JComponent;
 import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
 import javax.swing.table.TableColumnModel;
+import javax.swing.table.TableModel;
+import javax.swing.table.TableRowSorter;
+
+import net.sf.swinglib.AsynchronousOperation;
+import net.sf.swinglib.MemoryManager;
 
 
 /**
@@ -24,6 +42,23 @@ import javax.swing.table.TableColumnModel;
  */
 public class TableUtil
 {
+    /**
+     *  The default number of rows sampled by {@link #autoFitColumnWidths}.
+     */
+    public final static int DEFAULT_SAMPLE_SIZE = 500;
+
+    /**
+     *  The maximum number of string widths remembered for each font.
+     */
+    private final static int MAX_CACHED_WIDTHS = 4096;
+
+    private static Map<Font,Map<String,Integer>> _widthCache
+            = new HashMap<Font,Map<String,Integer>>();
+
+    // registered with the memory manager when the width cache is first used
+    private static MemoryManager.Trimmable _widthCacheTrimmer;
+
+
     /**
      *  Sets the preferred widths of the columns of a table to the specified
      *  percentages of the current width. The caller may provide more or
@@ -57,4 +92,295 @@ public class TableUtil
             col.setPreferredWidth(colWidth);
         }
     }
+
+
+    /**
+     *  Filters the table's view to the rows set in the passed bitmap (see
+     *  {@link TableFilter}), or removes the filter if passed <code>null</code>.
+     *  If the table already has a <code>TableRowSorter</code>, its filter is
+     *  replaced (retaining sort keys); otherwise a new sorter is installed.
+     *  Either way, the view is updated with a single sorter event.
+     */
+    @SuppressWarnings("unchecked")
+    public static void setRowFilter(JTable table, RowBitmap bitmap)
+    {
+        BitmapRowFilter filter = (bitmap != null) ? new BitmapRowFilter(bitmap) : null;
+        RowSorter<? extends TableModel> sorter = table.getRowSorter();
+        if (sorter instanceof TableRowSorter)
+        {
+            ((TableRowSorter<TableModel>)sorter).setRowFilter(filter);
+        }
+        else if (filter != null)
+        {
+            TableRowSorter<TableModel> newSorter = new TableRowSorter<TableModel>(table.getModel());
+            newSorter.setRowFilter(filter);
+            table.setRowSorter(newSorter);
+        }
+    }
+
+
+    /**
+     *  Sets the preferred width of each column to fit its header and its
+     *  widest cell, using {@link #DEFAULT_SAMPLE_SIZE} sampled rows.
+     *
+     *  @see #autoFitColumnWidths(JTable,ExecutorService,int)
+     */
+    public static void autoFitColumnWidths(JTable table, ExecutorService executor)
+    {
+        autoFitColumnWidths(table, executor, DEFAULT_SAMPLE_SIZE);
+    }
+
+
+    /**
+     *  Sets the preferred width of each column to fit its header and its
+     *  widest cell, estimating the latter from a sample of rows: the table
+     *  is divided into <code>sampleSize</code> equal bands, and one randomly
+     *  chosen row is measured from each (every row is measured if the table
+     *  has no more rows than the sample size). The time taken depends on the
+     *  sample size, not the size of the table, so is a few milliseconds even
+     *  for a million rows.
+     *  <p>
+     *  Values are read from the table, along with each column's renderer,
+     *  font, and insets, on the calling (event) thread; they're formatted and
+     *  measured on the executor, and the new widths are applied on the event
+     *  thread. Values in columns rendered by a {@link FormattingRenderer} are
+     *  formatted by its thread-safe {@link FormattingRenderer#getCellFormatter
+     *  formatter}; other values are converted with <code>toString()</code>.
+     *  Columns rendered by an {@link AsyncRenderer} are sized to fit their
+     *  header only, since their displayed values aren't yet known.
+     *  <p>
+     *  Measured widths are remembered per font (see {@link #getStringWidth}),
+     *  so repeated values (and repeated calls) are cheap. As with {@link
+     *  #setRelativeColumnWidths}, the table's resize mode determines whether the
+     *  table actually takes on these widths.
+     */
+    public static void autoFitColumnWidths(JTable table, ExecutorService executor, int sampleSize)
+    {
+        int rowCount = table.getRowCount();
+        int colCount = table.getColumnCount();
+        int[] rows = sampleRows(rowCount, sampleSize);
+
+        ColumnSample[] columns = new ColumnSample[colCount];
+        for (int col = 0 ; col < colCount ; col++)
+        {
+            ColumnSample column = new ColumnSample(table.getColumnModel().getColumn(col));
+            column.sampleHeader(table, col);
+            if (rowCount > 0)
+                column.sampleCells(table, col, rows);
+            columns[col] = column;
+        }
+
+        executor.execute(new AutoFitOperation(columns));
+    }
+
+
+    /**
+     *  Returns the width of a string in the font of the passed metrics,
+     *  remembering the result. This method is thread-safe, and the cache is
+     *  shared by all callers; it holds a limited number of strings per font,
+     *  and is cleared by the {@link MemoryManager}.
+     */
+    public static int getStringWidth(FontMetrics metrics, String text)
+    {
+        Map<String,Integer> widths;
+        synchronized (_widthCache)
+        {
+            Font font = metrics.getFont();
+            widths = _widthCache.get(font);
+            if (widths == null)
+            {
+                widths = new LinkedHashMap<String,Integer>(64, 0.75f, true)
+                {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String,Integer> eldest)
+                    {
+                        return size() > MAX_CACHED_WIDTHS;
+                    }
+                };
+                _widthCache.put(font, widths);
+            }
+            if (_widthCacheTrimmer == null)
+            {
+                _widthCacheTrimmer = new MemoryManager.Trimmable()
+                {
+                    public void trimMemory(MemoryManager.TrimLevel level)
+                    {
+                        synchronized (_widthCache)
+                        {
+                            _widthCache.clear();
+                        }
+                    }
+                };
+                MemoryManager.getInstance().register(_widthCacheTrimmer);
+            }
+        }
+
+        synchronized (widths)
+        {
+            Integer width = widths.get(text);
+            if (width == null)
+            {
+                width = Integer.valueOf(metrics.stringWidth(text));
+                widths.put(text, width);
+            }
+            return width.intValue();
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Selects one row at random from each of <code>sampleSize</code> equal
+     *  bands, in ascending order; all rows if there are no more than that.
+     */
+    private static int[] sampleRows(int rowCount, int sampleSize)
+    {
+        if (rowCount <= sampleSize)
+        {
+            int[] rows = new int[rowCount];
+            for (int ii = 0 ; ii < rowCount ; ii++)
+            {
+                rows[ii] = ii;
+            }
+            return rows;
+        }
+
+        Random random = new Random();
+        int[] rows = new int[sampleSize];
+        for (int ii = 0 ; ii < sampleSize ; ii++)
+        {
+            int start = (int)((long)ii * rowCount / sampleSize);
+            int end = (int)((long)(ii + 1) * rowCount / sampleSize);
+            rows[ii] = start + random.nextInt(end - start);
+        }
+        return rows;
+    }
+
+
+    /**
+     *  Everything needed to size a column, collected on the event thread.
+     */
+    private static class ColumnSample
+    {
+        public TableColumn column;
+        public String header = "";
+        public FontMetrics headerMetrics;
+        public int headerInsets;
+        public Object[] values;
+        public CellFormatter formatter;
+        public FontMetrics cellMetrics;
+        public int cellInsets;
+
+        public ColumnSample(TableColumn column)
+        {
+            this.column = column;
+        }
+
+        public void sampleHeader(JTable table, int col)
+        {
+            TableCellRenderer renderer = column.getHeaderRenderer();
+            if ((renderer == null) && (table.getTableHeader() != null))
+                renderer = table.getTableHeader().getDefaultRenderer();
+            if (renderer == null)
+                return;
+
+            Object value = column.getHeaderValue();
+            Component comp = renderer.getTableCellRendererComponent(
+                                    table, value, false, false, -1, col);
+            header = (value == null) ? "" : value.toString();
+            headerMetrics = comp.getFontMetrics(comp.getFont());
+            headerInsets = horizontalInsets(comp);
+        }
+
+        public void sampleCells(JTable table, int col, int[] rows)
+        {
+            TableCellRenderer renderer = table.getCellRenderer(rows[0], col);
+            if (renderer instanceof AsyncRenderer)
+                return;
+            if (renderer instanceof FormattingRenderer)
+                formatter = ((FormattingRenderer)renderer).getCellFormatter();
+
+            Component comp = table.prepareRenderer(renderer, rows[0], col);
+            cellMetrics = comp.getFontMetrics(comp.getFont());
+            cellInsets = horizontalInsets(comp) + table.getIntercellSpacing().width;
+
+            values = new Object[rows.length];
+            for (int ii = 0 ; ii < rows.length ; ii++)
+            {
+                values[ii] = table.getValueAt(rows[ii], col);
+            }
+        }
+
+        /**
+         *  Measures the column; called on the executor.
+         */
+        public int measure()
+        {
+            int width = 0;
+            if (headerMetrics != null)
+                width = getStringWidth(headerMetrics, header) + headerInsets;
+            if (values == null)
+                return width;
+
+            int cellWidth = 0;
+            for (Object value : values)
+            {
+                if (value == null)
+                    continue;
+                String text = (formatter != null) ? formatter.format(value) : value.toString();
+                cellWidth = Math.max(cellWidth, getStringWidth(cellMetrics, text));
+            }
+            return Math.max(width, cellWidth + cellInsets);
+        }
+
+        private static int horizontalInsets(Component comp)
+        {
+            if (!(comp instanceof JComponent))
+                return 0;
+            Insets insets = ((JComponent)comp).getInsets();
+            return insets.left + insets.right;
+        }
+    }
+
+
+    /**
+     *  Measures sampled columns off the event thread, then applies the widths.
+     */
+    private static class AutoFitOperation
+    extends AsynchronousOperation<int[]>
+    {
+        private ColumnSample[] _columns;
+
+        public AutoFitOperation(ColumnSample[] columns)
+        {
+            _columns = columns;
+        }
+
+        @Override
+        protected int[] performOperation()
+        throws Exception
+        {
+            int[] widths = new int[_columns.length];
+            for (int ii = 0 ; ii < _columns.length ; ii++)
+            {
+                widths[ii] = _columns[ii].measure();
+            }
+            return widths;
+        }
+
+        @Override
+        protected void onSuccess(int[] widths)
+        {
+            for (int ii = 0 ; ii < _columns.length ; ii++)
+            {
+                if (widths[ii] > 0)
+                    _columns[ii].column.setPreferredWidth(widths[ii]);
+            }
+        }
+    }
 }
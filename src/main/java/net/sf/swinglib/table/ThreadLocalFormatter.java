@@ -0,0 +1,115 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.sf.swinglib.table;
+
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.Format;
+import java.text.NumberFormat;
+import java.util.Date;
+
+
+/**
+ *  A {@link CellFormatter} that adapts a <code>java.text.Format</code> by
+ *  giving each thread its own clone of it, along with a reusable output
+ *  buffer. The passed format is itself cloned when this object is created,
+ *  so later changes to it (or concurrent use of it on the event thread) do
+ *  not affect this object.
+ *  <p>
+ *  As with {@link FormattingRenderer}, numbers and dates are passed to the
+ *  type-specific methods of <code>NumberFormat</code> and <code>DateFormat
+ *  </code>.
+ */
+public class ThreadLocalFormatter
+implements CellFormatter
+{
+    private Format _prototype;
+
+    private ThreadLocal<PerThread> _perThread = new ThreadLocal<PerThread>()
+    {
+        @Override
+        protected PerThread initialValue()
+        {
+            synchronized (_prototype)
+            {
+                return new PerThread((Format)_prototype.clone());
+            }
+        }
+    };
+
+
+    public ThreadLocalFormatter(Format format)
+    {
+        _prototype = (Format)format.clone();
+    }
+
+
+//----------------------------------------------------------------------------
+//  CellFormatter
+//----------------------------------------------------------------------------
+
+    public String format(Object value)
+    {
+        PerThread state = _perThread.get();
+        return format(state.format, value, state.buffer, state.fieldPosition);
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Formats a value into the passed buffer (which is cleared first), using
+     *  type-specific methods where possible. Also used by {@link
+     *  FormattingRenderer}.
+     */
+    static String format(Format format, Object value, StringBuffer buf, FieldPosition pos)
+    {
+        buf.setLength(0);
+        if ((format instanceof NumberFormat) && isIntegral(value))
+            ((NumberFormat)format).format(((Number)value).longValue(), buf, pos);
+        else if ((format instanceof NumberFormat) && ((value instanceof Double) || (value instanceof Float)))
+            ((NumberFormat)format).format(((Number)value).doubleValue(), buf, pos);
+        else if ((format instanceof DateFormat) && (value instanceof Date))
+            ((DateFormat)format).format((Date)value, buf, pos);
+        else
+            format.format(value, buf, pos);
+        return buf.toString();
+    }
+
+
+    static boolean isIntegral(Object value)
+    {
+        return (value instanceof Integer) || (value instanceof Long)
+            || (value instanceof Short) || (value instanceof Byte);
+    }
+
+
+    /**
+     *  A thread's clone of the format, and its output buffer.
+     */
+    private static class PerThread
+    {
+        public Format format;
+        public StringBuffer buffer = new StringBuffer(32);
+        public FieldPosition fieldPosition = new FieldPosition(0);
+
+        public PerThread(Format format)
+        {
+            this.format = format;
+        }
+    }
+}